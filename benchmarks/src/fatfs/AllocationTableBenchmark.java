@@ -0,0 +1,54 @@
+package fatfs;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@link FileAllocationTable} operations on a table decoded from the benchmark image, without any
+ * disk I/O in the measured code.
+ */
+public class AllocationTableBenchmark extends ImageBenchmark {
+    @Param({"16", "1024"})
+    public int chainLength;
+
+    private FileAllocationTable table;
+    private long chainStart;
+    private long[] allocated;
+
+    @Override
+    void prepareTrial() throws IOException {
+        BootRecord bootRecord;
+        try (FileInputStream fis = new FileInputStream(image.toFile())) {
+            bootRecord = BootRecord.read(fis);
+        }
+        try (InputStream fatStream = bootRecord.getFatSection(image.toFile())) {
+            table = FileAllocationTable.read(bootRecord.getSystemType(), fatStream, bootRecord.clustersOnDisk());
+        }
+        if (!table.canPutClusters(chainLength * 2)) {
+            throw new IllegalStateException("Chain of " + chainLength + " clusters does not fit on " + preset);
+        }
+        chainStart = table.putClusters(chainLength)[0];
+    }
+
+    @TearDown(Level.Invocation)
+    public void release() {
+        if (allocated != null) {
+            table.deleteClusters(allocated);
+            allocated = null;
+        }
+    }
+
+    @Benchmark
+    public long[] putClusters() {
+        allocated = table.putClusters(chainLength);
+        return allocated;
+    }
+
+    @Benchmark
+    public long[] getFileSequenceWithStartingCluster() {
+        return table.getFileSequenceWithStartingCluster(chainStart);
+    }
+}
@@ -0,0 +1,169 @@
+package fatfs;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+public class BenchmarkImages {
+    static final String FRESH = "fresh";
+    static final String FRAGMENTED = "fragmented";
+
+    static final int TREE_DEPTH = 8;
+    static final String DEEP_DIR;
+    static final String DEEP_FILE;
+
+    private static final int MAX_FRAGMENT_PAIRS = 4096;
+    private static final Map<String, Path> templates = new HashMap<>();
+    private static Path workDir;
+
+    static {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < TREE_DEPTH; i++) {
+            sb.append("/D").append(i);
+        }
+        DEEP_DIR = sb.toString();
+        DEEP_FILE = DEEP_DIR + "/LEAF.TXT";
+    }
+
+    static DiskCreationParams params(String preset) {
+        switch (preset) {
+            case "small":
+                return DiskCreationParams.small();
+            case "medium":
+                return DiskCreationParams.medium();
+            case "big":
+                return DiskCreationParams.big();
+        }
+        throw new IllegalArgumentException("Unknown preset " + preset);
+    }
+
+    static OperationResult open(FAT fat, Path image, String device) throws IOException {
+        switch (device) {
+            case "file":
+                return fat.openDisk(image.toString());
+            case "mapped":
+                return fat.openDisk(image.toString(), DiskOpenParams.standard().mapped());
+            case "ram":
+                return fat.openDisk(RamBlockDevice.load(image.toFile(), false), DiskOpenParams.standard());
+        }
+        throw new IllegalArgumentException("Unknown device " + device);
+    }
+
+    static void check(OperationResult result) {
+        if (!result.isOk) {
+            throw new IllegalStateException(result.message, result.error);
+        }
+    }
+
+    static synchronized Path newFile(String name) throws IOException {
+        if (workDir == null) {
+            workDir = Files.createTempDirectory("fat-bench");
+            Path dir = workDir;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> deleteTree(dir)));
+        }
+        Path file = Files.createTempFile(workDir, name, ".bin");
+        Files.delete(file);
+        return file;
+    }
+
+    static Path hostFile(int size) throws IOException {
+        Path file = newFile("host");
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        Files.write(file, bytes);
+        return file;
+    }
+
+    /**
+     * Returns a private copy of the image for the preset and layout. The template it is copied from
+     * is built once per fork: it holds a {@link #TREE_DEPTH} levels deep directory chain ending in
+     * {@link #DEEP_FILE}, and for the fragmented layout every other free cluster is taken by a one
+     * cluster file in /FRAG, so later allocations get interleaved chains.
+     */
+    static Path workingCopy(String preset, String layout) throws IOException {
+        Path copy = newFile(preset + "-" + layout);
+        Files.copy(template(preset, layout), copy, StandardCopyOption.REPLACE_EXISTING);
+        return copy;
+    }
+
+    private static synchronized Path template(String preset, String layout) throws IOException {
+        String key = preset + "-" + layout;
+        Path template = templates.get(key);
+        if (template != null) {
+            return template;
+        }
+        template = newFile(key);
+        FAT fat = new FAT();
+        check(fat.createDisk(template.toString(), params(preset)));
+        Path leaf = hostFile(64);
+        StringBuilder path = new StringBuilder();
+        for (int i = 0; i < TREE_DEPTH; i++) {
+            path.append("/D").append(i);
+            check(fat.mkDir(path.toString()));
+        }
+        check(fat.copyFileFromSystem(leaf.toString(), DEEP_FILE));
+        if (layout.equals(FRAGMENTED)) {
+            check(fat.mkDir("/FRAG"));
+            FATDirectory fragDir = fat.listDir("/FRAG");
+            fat.close();
+            fragment(template.toFile(), fragDir);
+        } else if (layout.equals(FRESH)) {
+            fat.close();
+        } else {
+            throw new IllegalArgumentException("Unknown layout " + layout);
+        }
+        templates.put(key, template);
+        return template;
+    }
+
+    private static void fragment(File image, FATDirectory fragDir) throws IOException {
+        BootRecord bootRecord;
+        try (FileInputStream fis = new FileInputStream(image)) {
+            bootRecord = BootRecord.read(fis);
+        }
+        FATType type = bootRecord.getSystemType();
+        FileAllocationTable table;
+        try (InputStream fatStream = bootRecord.getFatSection(image)) {
+            table = FileAllocationTable.read(type, fatStream, bootRecord.clustersOnDisk());
+        }
+        int pairs = (int) Math.min(MAX_FRAGMENT_PAIRS, table.getAvailableClustersCount() / 4);
+        long[] holes = new long[pairs];
+        for (int i = 0; i < pairs; i++) {
+            long kept = table.putClusters(1)[0];
+            holes[i] = table.putClusters(1)[0];
+            fragDir.appendEntry(DirectoryEntry.file("F" + i, "", kept, bootRecord.bytesInCluster()));
+        }
+        table.deleteClusters(holes);
+
+        int bytesInCluster = bootRecord.bytesInCluster();
+        byte[] dirBytes = fragDir.toByteArray();
+        int dirClusters = (dirBytes.length + bytesInCluster - 1) / bytesInCluster;
+        long[] clusters = table.updateClusterSequence(dirClusters, fragDir.getSelfDirCluster());
+        try (RandomAccessFile raf = new RandomAccessFile(image, "rw")) {
+            for (int i = 0; i < clusters.length; i++) {
+                byte[] cluster = new byte[bytesInCluster];
+                System.arraycopy(dirBytes, i * bytesInCluster, cluster, 0, Math.min(bytesInCluster, dirBytes.length - i * bytesInCluster));
+                raf.seek(bootRecord.firstSectorOffset() + clusters[i] * bytesInCluster);
+                raf.write(cluster);
+            }
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            table.write(type, new DataOutputStream(encoded));
+            raf.seek(0);
+            raf.write(bootRecord.toByteArray());
+            raf.write(encoded.toByteArray());
+        }
+    }
+
+    private static void deleteTree(Path dir) {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package fatfs;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Copy-in and copy-out of a single file. Sizes that do not fit on the preset fail in setup
+ * instead of silently measuring the "Space limit was reached" path.
+ */
+public class CopyBenchmark extends ImageBenchmark {
+    private static final String IN_PATH = "/IN.BIN";
+    private static final String OUT_PATH = "/OUT.BIN";
+
+    @Param({"4096", "262144", "4194304"})
+    public int fileSize;
+
+    private Path source;
+    private Path target;
+
+    @Override
+    void prepareTrial() throws IOException {
+        source = BenchmarkImages.hostFile(fileSize);
+        BenchmarkImages.check(fat.copyFileFromSystem(source.toString(), OUT_PATH));
+    }
+
+    @Override
+    void cleanUpTrial() throws IOException {
+        Files.deleteIfExists(source);
+    }
+
+    @Setup(Level.Invocation)
+    public void pickTarget() throws IOException {
+        target = BenchmarkImages.newFile("copy-out");
+    }
+
+    @TearDown(Level.Invocation)
+    public void cleanUp() throws IOException {
+        Files.deleteIfExists(target);
+        BenchmarkImages.check(fat.deleteFile(IN_PATH));
+    }
+
+    @Benchmark
+    public OperationResult copyIn() {
+        OperationResult result = fat.copyFileFromSystem(source.toString(), IN_PATH);
+        BenchmarkImages.check(result);
+        return result;
+    }
+
+    @Benchmark
+    public OperationResult copyOut() {
+        OperationResult result = fat.copyFileToSystem(OUT_PATH, target.toString());
+        BenchmarkImages.check(result);
+        return result;
+    }
+}
@@ -0,0 +1,47 @@
+package fatfs;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Recursive delete of a directory chain with a small file at every level. The tree is rebuilt
+ * before each invocation and only the delete is measured.
+ */
+public class DeleteBenchmark extends ImageBenchmark {
+    private static final String TREE_ROOT = "/TREE";
+
+    @Param({"4", "16"})
+    public int depth;
+
+    private Path content;
+
+    @Override
+    void prepareTrial() throws IOException {
+        content = BenchmarkImages.hostFile(1024);
+    }
+
+    @Override
+    void cleanUpTrial() throws IOException {
+        Files.deleteIfExists(content);
+    }
+
+    @Setup(Level.Invocation)
+    public void buildTree() {
+        StringBuilder path = new StringBuilder(TREE_ROOT);
+        for (int i = 0; i < depth; i++) {
+            BenchmarkImages.check(fat.mkDir(path.toString()));
+            BenchmarkImages.check(fat.copyFileFromSystem(content.toString(), path + "/F" + i + ".TXT"));
+            path.append("/T").append(i);
+        }
+    }
+
+    @Benchmark
+    public OperationResult deleteTree() {
+        OperationResult result = fat.deleteFile(TREE_ROOT);
+        BenchmarkImages.check(result);
+        return result;
+    }
+}
@@ -0,0 +1,100 @@
+package fatfs;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creating and opening whole disks. Unlike {@link ImageBenchmark} nothing is open across the trial:
+ * the open benchmarks get a closed copy of the template from {@link Image}, and the create benchmarks
+ * do not copy an image at all.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiskBenchmark {
+    @Param({"small", "medium", "big"})
+    public String preset;
+
+    private Path created;
+    private FAT disk;
+
+    /**
+     * A working copy of the preset/layout template that is never opened by the trial itself, so every
+     * invocation opens the same cleanly closed volume.
+     */
+    @State(Scope.Thread)
+    public static class Image {
+        @Param({"small", "medium", "big"})
+        public String preset;
+
+        @Param({BenchmarkImages.FRESH, BenchmarkImages.FRAGMENTED})
+        public String layout;
+
+        Path path;
+
+        @Setup(Level.Trial)
+        public void copyImage() throws IOException {
+            path = BenchmarkImages.workingCopy(preset, layout);
+        }
+
+        @TearDown(Level.Trial)
+        public void deleteImage() throws IOException {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void pickNewPath() throws IOException {
+        created = BenchmarkImages.newFile("created");
+        disk = new FAT();
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteCreated() throws IOException {
+        // the disk holds its image open until it is closed
+        disk.close();
+        Files.deleteIfExists(created);
+    }
+
+    @Benchmark
+    public OperationResult createDisk() {
+        OperationResult result = disk.createDisk(created.toString(), BenchmarkImages.params(preset));
+        BenchmarkImages.check(result);
+        return result;
+    }
+
+    @Benchmark
+    public OperationResult createDiskInRam() {
+        OperationResult result = disk.createDisk(RamBlockDevice.heap(), BenchmarkImages.params(preset));
+        BenchmarkImages.check(result);
+        return result;
+    }
+
+    @Benchmark
+    public OperationResult openDisk(Image image) {
+        OperationResult result = disk.openDisk(image.path.toString());
+        BenchmarkImages.check(result);
+        return result;
+    }
+
+    @Benchmark
+    public OperationResult openDiskPaged(Image image) {
+        OperationResult result = disk.openDisk(image.path.toString(), DiskOpenParams.paged(256 * 1024));
+        BenchmarkImages.check(result);
+        return result;
+    }
+
+    @Benchmark
+    public OperationResult openDiskOffHeap(Image image) {
+        OperationResult result = disk.openDisk(image.path.toString(), DiskOpenParams.offHeap());
+        BenchmarkImages.check(result);
+        return result;
+    }
+}
@@ -0,0 +1,58 @@
+package fatfs;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base state for benchmarks that run against an open image. Every trial gets its own copy of the
+ * preset/layout template, so benchmarks that write do not leak into each other.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class ImageBenchmark {
+    @Param({"small", "medium", "big"})
+    public String preset;
+
+    @Param({BenchmarkImages.FRESH, BenchmarkImages.FRAGMENTED})
+    public String layout;
+
+    // file, mapped or ram, the others are picked with -p device=...
+    @Param({"file"})
+    public String device;
+
+    FAT fat;
+    Path image;
+
+    @Setup(Level.Trial)
+    public void openImage() throws IOException {
+        image = BenchmarkImages.workingCopy(preset, layout);
+        fat = new FAT();
+        BenchmarkImages.check(BenchmarkImages.open(fat, image, device));
+        prepareTrial();
+    }
+
+    @TearDown(Level.Trial)
+    public void closeImage() throws IOException {
+        cleanUpTrial();
+        fat.close();
+        Files.deleteIfExists(image);
+    }
+
+    /**
+     * Trial level preparation of subclasses. JMH does not order setup methods of one level, so
+     * anything that needs the open image goes here instead of into its own {@code @Setup}.
+     */
+    void prepareTrial() throws IOException {
+    }
+
+    void cleanUpTrial() throws IOException {
+    }
+}
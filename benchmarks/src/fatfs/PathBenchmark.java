@@ -0,0 +1,33 @@
+package fatfs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+
+public class PathBenchmark extends ImageBenchmark {
+
+    @Benchmark
+    public OperationResult resolveDeepPath() {
+        OperationResult result = fat.goToDir(BenchmarkImages.DEEP_DIR);
+        BenchmarkImages.check(result);
+        return result;
+    }
+
+    @Benchmark
+    public FATDirectory listRoot() {
+        return fat.listDir("/");
+    }
+
+    @Benchmark
+    public FATDirectory listDeepDir() {
+        return fat.listDir(BenchmarkImages.DEEP_DIR);
+    }
+
+    @Benchmark
+    public DirectoryView viewDeepDir() {
+        return fat.viewDir(BenchmarkImages.DEEP_DIR);
+    }
+
+    @Benchmark
+    public long walkTree() {
+        return fat.walk("/", Integer.MAX_VALUE).count();
+    }
+}
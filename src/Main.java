@@ -1,9 +0,0 @@
-import java.util.Scanner;
-
-public class Main {
-    public static void main(String[] args) {
-        Controller controller = new Controller();
-        Scanner scanner = new Scanner(System.in);
-        controller.start(scanner);
-    }
-}
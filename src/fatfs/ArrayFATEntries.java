@@ -0,0 +1,76 @@
+package fatfs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The whole table decoded into memory.
+ */
+class ArrayFATEntries implements FATEntries {
+    private final FATType type;
+    private final long[][] table;
+    private final long size;
+
+    ArrayFATEntries(FATType type, long[][] table) {
+        this.type = type;
+        this.table = table;
+        long size = 0;
+        for (long[] longs : table) {
+            size += longs.length;
+        }
+        this.size = size;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public long get(long cluster) {
+        return table[(int) cluster / Integer.MAX_VALUE][(int) cluster % Integer.MAX_VALUE];
+    }
+
+    @Override
+    public void set(long cluster, long value) {
+        table[(int) cluster / Integer.MAX_VALUE][(int) cluster % Integer.MAX_VALUE] = value;
+    }
+
+    @Override
+    public void write(DataOutput stream) throws IOException {
+        if (type == FATType.FAT12) {
+            for (long[] la : table) {
+                for (int i = 0; i < la.length; i += 2) {
+                    long l1 = la[i];
+                    long l2 = la[i + 1];
+                    stream.write(new byte[]{
+                            (byte) (l1 >> 4),
+                            (byte) (((l1 << 4) & 0b11110000) | ((l2 >> 8) & 0b00001111)),
+                            (byte) l2,
+                    });
+                }
+            }
+        } else {
+            for (long[] la : table) {
+                for (long l : la) {
+                    if (type == FATType.FAT16) {
+                        stream.write(ByteBuffer.allocate(2).putShort((short) l).array());
+                    } else {
+                        stream.write(ByteBuffer.allocate(4).putInt((int) l).array());
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public long flush(BlockDevice device, long fatOffset) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) FATEncoding.sizeInBytes(type, size));
+        write(new DataOutputStream(bytes));
+        device.write(fatOffset, bytes.toByteArray(), 0, bytes.size());
+        return bytes.size();
+    }
+}
@@ -0,0 +1,102 @@
+package fatfs;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the metadata an open disk keeps pending and forces its device from a daemon thread, every
+ * interval of a {@link SyncPolicy} and whenever enough changes are pending. Metadata is written under
+ * the lock of the disk, the device is forced after it is released so operations do not wait for it.
+ */
+class BackgroundFlusher {
+    interface MetadataWriter {
+        void write();
+    }
+
+    private final Object diskLock;
+    private final MetadataWriter writer;
+    private final BlockDevice device;
+    private final int maxChanges;
+    private final ScheduledExecutorService executor;
+    private final Object forceLock = new Object();
+    private volatile boolean stopped;
+    private int changes;
+    private boolean flushScheduled;
+    private Exception failure;
+
+    BackgroundFlusher(Object diskLock, MetadataWriter writer, BlockDevice device, SyncPolicy policy) {
+        this.diskLock = diskLock;
+        this.writer = writer;
+        this.device = device;
+        this.maxChanges = policy.maxChanges;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "fat-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (policy.intervalMillis > 0) {
+            executor.scheduleWithFixedDelay(this::flush, policy.intervalMillis, policy.intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Counts a change left pending, waking the flusher once there are enough of them.
+     */
+    synchronized void changed() {
+        if (maxChanges > 0 && ++changes >= maxChanges && !flushScheduled && !stopped) {
+            flushScheduled = true;
+            executor.execute(this::flush);
+        }
+    }
+
+    /**
+     * Stops flushing, waiting only for a force in progress. Called with the lock of the disk held, a
+     * flush waiting for that lock gives up once it gets it.
+     *
+     * @throws IllegalStateException if a background flush failed since the last check
+     */
+    void stop() {
+        synchronized (forceLock) {
+            stopped = true;
+        }
+        executor.shutdown();
+        checkFailure();
+    }
+
+    /**
+     * @throws IllegalStateException if a background flush failed since the last check
+     */
+    synchronized void checkFailure() {
+        if (failure != null) {
+            Exception e = failure;
+            failure = null;
+            throw new IllegalStateException("Background flush failed", e);
+        }
+    }
+
+    private void flush() {
+        try {
+            synchronized (diskLock) {
+                if (stopped) {
+                    return;
+                }
+                synchronized (this) {
+                    changes = 0;
+                    flushScheduled = false;
+                }
+                writer.write();
+            }
+            synchronized (forceLock) {
+                if (!stopped) {
+                    device.flush();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                failure = e;
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package fatfs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Storage an image lives on, addressed by byte position. Sectors and clusters are read and written at
+ * the positions the {@link BootRecord} gives them. Positional calls do not share a cursor, so they may
+ * come from several threads at once.
+ */
+public interface BlockDevice extends Closeable {
+    /**
+     * Fills the remaining bytes of {@code dst} starting at {@code position}. Bytes past the end of the
+     * device read as zeros, like the unwritten tail of a sparse image.
+     */
+    void read(long position, ByteBuffer dst) throws IOException;
+
+    /**
+     * Writes the remaining bytes of {@code src} at {@code position}, growing the device if needed.
+     */
+    void write(long position, ByteBuffer src) throws IOException;
+
+    /**
+     * Makes every write so far durable on the storage behind the device.
+     */
+    void flush() throws IOException;
+
+    long size() throws IOException;
+
+    /**
+     * Grows or truncates the device. Bytes added by growing read as zeros.
+     */
+    void setSize(long size) throws IOException;
+
+    /**
+     * Writes the remaining bytes of every buffer in turn as one contiguous range from {@code position}.
+     */
+    default void write(long position, ByteBuffer[] srcs) throws IOException {
+        for (ByteBuffer src : srcs) {
+            int length = src.remaining();
+            write(position, src);
+            position += length;
+        }
+    }
+
+    default void read(long position, byte[] bytes, int offset, int length) throws IOException {
+        read(position, ByteBuffer.wrap(bytes, offset, length));
+    }
+
+    default void write(long position, byte[] bytes, int offset, int length) throws IOException {
+        write(position, ByteBuffer.wrap(bytes, offset, length));
+    }
+}
@@ -0,0 +1,286 @@
+package fatfs;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+public class BootRecord {
+
+    static int FAT12_SIZE = 36;
+    static int FAT16_SIZE = 36;
+    static int FAT32_SIZE = 512;
+
+    static final int FSINFO_SIGNATURE = 0x61417272;
+    static final int FSINFO_TRAIL_SIGNATURE = 0xAA550000;
+    static final long FSINFO_UNKNOWN = 0xFFFFFFFFL;
+    static final int VOLUME_DIRTY = 0x01;
+    static final int FAT_SINGLE_ACTIVE = 0x80;
+    static final int FAT_ACTIVE_COPY_MASK = 0x0F;
+
+    int bytesInSector; //11-12 bytes. Accept only 512, 1024, 2048 or 4096
+    int sectorsInCluster; //13 byte. Accept only power of 2, must be smaller that 32K
+    int reservedAreaInSector = 0; //14-15 bytes.
+    int numberOfFATCopies = 1; //16 byte - 1 for FAT 16/12, 2 for FAT 32
+    int maxFilesInRoot = 0; // 17-18 0 for FAT 32, 512 for FAT 16, power of 2 for FAT 12
+    long sectorsOnDisk; //19-20 bytes if fits. Otherwise, 32-35 bytes (always 32-35)
+    int sectorsInTrack; //24-25 bytes.
+    int numberOfHeads = 1; //26-27 bytes.
+    long sectorsBeforeStart = 0; //28-31 bytes
+
+    int fat32_fatCopySize = 0; //36-39 bytes
+    int fat32_fatUpdateMode = 0b10000000; // 40-41 bytes. Bit 7 = 1, only one copy of FAT is active
+    int fat32_versionNumber = 0; // 42-43 bytes.
+    int fat32_rootDirCluster = 2; // 44-47 bytes.
+    int fat32_volumeFlags = 0; // 65 byte. Bit 0 = 1, the image was not closed cleanly
+    boolean fat32_hasFsInfo = false; // 484-487 and 508-511 bytes hold the FSInfo signatures
+    long fat32_freeClusterCount = FSINFO_UNKNOWN; // 488-491 bytes. Last known free cluster count
+    long fat32_nextFreeCluster = FSINFO_UNKNOWN; // 492-495 bytes. Hint where to start looking for free clusters
+
+    int bytesInCluster() {
+        return bytesInSector * sectorsInCluster;
+    }
+
+    long firstSectorOffset(){
+        return fatSectionOffset() + fatCopies() * getFatSectionSizeInBytes();
+    }
+
+    int fatCopies() {
+        return Math.max(1, numberOfFATCopies);
+    }
+
+    long fatCopyOffset(int copy) {
+        return fatSectionOffset() + copy * getFatSectionSizeInBytes();
+    }
+
+    /**
+     * Copy of the FAT that is read and written by the file system, the others are its mirrors.
+     * Only FAT32 can name another copy than the first one, in the fatUpdateMode bits.
+     */
+    int activeFatCopy() {
+        if (getSystemType() != FATType.FAT32 || isFatMirrored()) {
+            return 0;
+        }
+        int copy = fat32_fatUpdateMode & FAT_ACTIVE_COPY_MASK;
+        return copy < fatCopies() ? copy : 0;
+    }
+
+    long activeFatOffset() {
+        return fatCopyOffset(activeFatCopy());
+    }
+
+    /**
+     * Whether every FAT copy is known to be the same: bit 7 of fatUpdateMode is clear on FAT32.
+     * FAT12 and FAT16 do not record it.
+     */
+    boolean isFatMirrored() {
+        return getSystemType() == FATType.FAT32 && (fat32_fatUpdateMode & FAT_SINGLE_ACTIVE) == 0;
+    }
+
+    /**
+     * Marks every copy as the same, or only the current active copy as valid.
+     */
+    void setFatMirrored(boolean mirrored) {
+        if (mirrored) {
+            fat32_fatUpdateMode &= ~FAT_SINGLE_ACTIVE;
+        } else {
+            fat32_fatUpdateMode = fat32_fatUpdateMode & ~(FAT_SINGLE_ACTIVE | FAT_ACTIVE_COPY_MASK) | FAT_SINGLE_ACTIVE | activeFatCopy();
+        }
+    }
+
+    long fatSectionOffset() {
+        return getSystemType() == FATType.FAT32 ? FAT32_SIZE : FAT16_SIZE;
+    }
+
+    long clustersOnDisk() {
+        long full = sectorsOnDisk / sectorsInCluster;
+        long last = sectorsOnDisk % sectorsInCluster;
+        if (last != 0) {
+            full++;
+        }
+        return full;
+    }
+
+    DataInputStream getFatSection(File file) throws IOException {
+        FileInputStream fis = new FileInputStream(file);
+        DataInputStream dis = new DataInputStream(fis);
+        dis.skipBytes((int) activeFatOffset());
+        return dis;
+    }
+
+    DataInputStream getFatSection(BlockDevice device) throws IOException {
+        byte[] bytes = new byte[(int) getFatSectionSizeInBytes()];
+        device.read(activeFatOffset(), bytes, 0, bytes.length);
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+
+    long getFatSectionSizeInBytes() {
+        int multiplier = 0;
+        switch (getSystemType()) {
+            case FAT32:
+                multiplier = 32;
+                break;
+            case FAT16:
+                multiplier = 16;
+                break;
+            case FAT12:
+                multiplier = 12;
+                break;
+        }
+        return clustersOnDisk() / 8 * multiplier;
+    }
+
+    /**
+     * Whether the FSInfo free cluster count can be used instead of scanning the FAT:
+     * it is present, and the image was closed cleanly after it was written.
+     */
+    boolean hasTrustedFreeSpaceInfo() {
+        return getSystemType() == FATType.FAT32
+                && fat32_hasFsInfo
+                && (fat32_volumeFlags & VOLUME_DIRTY) == 0
+                && fat32_freeClusterCount != FSINFO_UNKNOWN
+                && fat32_freeClusterCount <= clustersOnDisk();
+    }
+
+    void setVolumeDirty(boolean dirty) {
+        if (dirty) {
+            fat32_volumeFlags |= VOLUME_DIRTY;
+        } else {
+            fat32_volumeFlags &= ~VOLUME_DIRTY;
+        }
+    }
+
+    void updateFreeSpaceInfo(FileAllocationTable fat) {
+        fat32_hasFsInfo = true;
+        fat32_freeClusterCount = fat.isAvailableClustersCountKnown() ? fat.getAvailableClustersCount() : FSINFO_UNKNOWN;
+        long nextFree = fat.getNextFreeHint();
+        fat32_nextFreeCluster = nextFree < 0 ? FSINFO_UNKNOWN : nextFree;
+    }
+
+    long getRootCluster() {
+        if (getSystemType() == FATType.FAT32) {
+            return fat32_rootDirCluster;
+        }
+        return 2;
+    }
+
+    FATType getSystemType() {
+        long numberOfClusters = sectorsOnDisk / sectorsInCluster;
+        if (numberOfClusters >= 0xFFF7) return FATType.FAT32;
+        if (numberOfClusters >= 0xFF7) return FATType.FAT16;
+        return FATType.FAT12;
+    }
+
+    private BootRecord(int bytesInSector, int sectorsInCluster, int numberOfFATCopies, int maxFilesInRoot, long sectorsOnDisk, int sectorsInTrack, int sectorsBeforeStart) {
+        this.bytesInSector = bytesInSector;
+        this.sectorsInCluster = sectorsInCluster;
+        this.numberOfFATCopies = numberOfFATCopies;
+        this.maxFilesInRoot = maxFilesInRoot;
+        this.sectorsOnDisk = sectorsOnDisk;
+        this.sectorsInTrack = sectorsInTrack;
+        this.sectorsBeforeStart = Integer.toUnsignedLong(sectorsBeforeStart);
+    }
+
+    public BootRecord(DiskCreationParams params) {
+        this(params.bytesInSector,
+                params.sectorsInCluster,
+                params.numberOfFATCopies,
+                params.maxFilesInRoot,
+                params.sectorsOnDisk,
+                params.sectorsOnTrack,
+                params.sectorsBeforeStart);
+    }
+
+    public static BootRecord read(BlockDevice device) throws IOException {
+        if (device.size() < 36) {
+            throw new IllegalArgumentException("Boot record is corrupted");
+        }
+        byte[] bytes = new byte[FAT32_SIZE];
+        device.read(0, bytes, 0, bytes.length);
+        return read(new ByteArrayInputStream(bytes));
+    }
+
+    public static BootRecord read(InputStream fis) throws IOException {
+        byte[] bytes = new byte[36];
+        int read = fis.read(bytes);
+        if (read < 36) {
+            throw new IllegalArgumentException("Boot record is corrupted");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.get(new byte[11]);
+        int bytesInSector = Short.toUnsignedInt(buffer.getShort());
+        int sectorsInCluster = Byte.toUnsignedInt(buffer.get());
+        buffer.getShort();
+        int numberOfFATCopies = Byte.toUnsignedInt(buffer.get());
+        int maxFilesInRoot = Short.toUnsignedInt(buffer.getShort());
+        buffer.get(new byte[5]);
+        int sectorsOnTrack = Short.toUnsignedInt(buffer.getShort());
+        buffer.getShort();
+        int sectorsBeforeStart = buffer.getInt();
+        int sectorsOnDisk = buffer.getInt();
+
+        BootRecord bootRecord = new BootRecord(
+                bytesInSector,
+                sectorsInCluster,
+                numberOfFATCopies,
+                maxFilesInRoot,
+                sectorsOnDisk,
+                sectorsOnTrack,
+                sectorsBeforeStart
+        );
+        if (bootRecord.getSystemType() == FATType.FAT32) {
+            byte[] fat32Bytes = new byte[FAT32_SIZE];
+            System.arraycopy(bytes, 0, fat32Bytes, 0, bytes.length);
+            int offset = bytes.length;
+            while (offset < fat32Bytes.length) {
+                int count = fis.read(fat32Bytes, offset, fat32Bytes.length - offset);
+                if (count < 0) {
+                    throw new IllegalArgumentException("Boot record is corrupted");
+                }
+                offset += count;
+            }
+            bootRecord.readFat32Fields(ByteBuffer.wrap(fat32Bytes));
+        }
+        return bootRecord;
+    }
+
+    private void readFat32Fields(ByteBuffer buffer) {
+        fat32_fatCopySize = buffer.getInt(36);
+        fat32_fatUpdateMode = Short.toUnsignedInt(buffer.getShort(40));
+        fat32_versionNumber = Short.toUnsignedInt(buffer.getShort(42));
+        fat32_rootDirCluster = buffer.getInt(44);
+        fat32_volumeFlags = Byte.toUnsignedInt(buffer.get(65));
+        fat32_hasFsInfo = buffer.getInt(484) == FSINFO_SIGNATURE && buffer.getInt(508) == FSINFO_TRAIL_SIGNATURE;
+        fat32_freeClusterCount = Integer.toUnsignedLong(buffer.getInt(488));
+        fat32_nextFreeCluster = Integer.toUnsignedLong(buffer.getInt(492));
+    }
+
+    public byte[] toByteArray() {
+        FATType type = getSystemType();
+        ByteBuffer buffer = ByteBuffer.allocate(type == FATType.FAT32 ? FAT32_SIZE : FAT16_SIZE);
+        buffer.put(new byte[11]);
+        buffer.putShort((short) bytesInSector);
+        buffer.put((byte) sectorsInCluster);
+        buffer.put(new byte[2]);
+        buffer.put((byte) numberOfFATCopies);
+        buffer.putShort((short) maxFilesInRoot);
+        buffer.put(new byte[5]);
+        buffer.putShort((short) sectorsInTrack);
+        buffer.put(new byte[2]);
+        buffer.putInt((int) sectorsBeforeStart);
+        buffer.putInt((int) sectorsOnDisk);
+        if (type != FATType.FAT32) {
+            return buffer.array();
+        }
+        buffer.putInt(fat32_fatCopySize);
+        buffer.putShort((short) fat32_fatUpdateMode);
+        buffer.putShort((short) fat32_versionNumber);
+        buffer.putInt(fat32_rootDirCluster);
+        buffer.put(65, (byte) fat32_volumeFlags);
+        if (fat32_hasFsInfo) {
+            buffer.putInt(484, FSINFO_SIGNATURE);
+            buffer.putInt(488, (int) fat32_freeClusterCount);
+            buffer.putInt(492, (int) fat32_nextFreeCluster);
+            buffer.putInt(508, FSINFO_TRAIL_SIGNATURE);
+        }
+        return buffer.array();
+    }
+}
@@ -0,0 +1,49 @@
+package fatfs;
+
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Clusters and FAT sectors written since each named checkpoint of an open disk. Checkpoints live only
+ * as long as the disk is open.
+ */
+class ChangeTracker {
+    static class Changes {
+        final BitSet clusters = new BitSet();
+        final BitSet fatSectors = new BitSet(); // relative to the start of the table
+    }
+
+    private final Map<String, Changes> checkpoints = new LinkedHashMap<>();
+
+    /**
+     * Starts the checkpoint, or starts it over if it already exists.
+     */
+    void start(String name) {
+        checkpoints.put(name, new Changes());
+    }
+
+    Changes get(String name) {
+        return checkpoints.get(name);
+    }
+
+    boolean isTracking() {
+        return !checkpoints.isEmpty();
+    }
+
+    void clusterWritten(long cluster) {
+        for (Changes c : checkpoints.values()) {
+            c.clusters.set((int) cluster);
+        }
+    }
+
+    void fatSectorsWritten(BitSet sectors) {
+        for (Changes c : checkpoints.values()) {
+            c.fatSectors.or(sectors);
+        }
+    }
+
+    void clear() {
+        checkpoints.clear();
+    }
+}
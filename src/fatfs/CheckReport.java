@@ -0,0 +1,84 @@
+package fatfs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Problems found by a consistency check of a disk, and how many of them were repaired.
+ */
+public class CheckReport {
+    public enum Kind {
+        LOST_CHAIN, // allocated clusters no directory entry leads to
+        CROSS_LINK, // cluster used by more than one chain, or a chain that loops
+        BROKEN_CHAIN, // chain that reaches a free, bad or out of range cluster before its end marker
+        SIZE_MISMATCH, // file size that does not match the length of its chain
+        DUPLICATE_NAME, // two entries with the same name in one directory
+        UNREADABLE_DIRECTORY // directory whose clusters do not hold a . entry
+    }
+
+    public static class Problem {
+        final Kind kind;
+        final String path;
+        final long cluster;
+        final String detail;
+
+        Problem(Kind kind, String path, long cluster, String detail) {
+            this.kind = kind;
+            this.path = path;
+            this.cluster = cluster;
+            this.detail = detail;
+        }
+
+        @Override
+        public String toString() {
+            return kind + (path.isEmpty() ? "" : " " + path) + " at cluster " + cluster + ": " + detail;
+        }
+    }
+
+    final List<Problem> problems;
+    final long filesChecked;
+    final long clustersInUse;
+    final long elapsedNanos;
+    int repaired;
+
+    CheckReport(List<Problem> problems, long filesChecked, long clustersInUse, long elapsedNanos) {
+        this.problems = Collections.unmodifiableList(new ArrayList<>(problems));
+        this.filesChecked = filesChecked;
+        this.clustersInUse = clustersInUse;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public List<Problem> getProblems() {
+        return problems;
+    }
+
+    public boolean isClean() {
+        return problems.isEmpty();
+    }
+
+    public int getRepaired() {
+        return repaired;
+    }
+
+    public Map<Kind, Integer> countByKind() {
+        Map<Kind, Integer> counts = new EnumMap<>(Kind.class);
+        for (Problem p : problems) {
+            counts.merge(p.kind, 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    @Override
+    public String toString() {
+        return "CheckReport{" +
+                "filesChecked=" + filesChecked +
+                ", clustersInUse=" + clustersInUse +
+                ", problems=" + countByKind() +
+                ", repaired=" + repaired +
+                ", elapsedMs=" + elapsedNanos / 1_000_000 +
+                '}';
+    }
+}
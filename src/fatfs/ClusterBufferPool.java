@@ -0,0 +1,174 @@
+package fatfs;
+
+import java.lang.ref.Cleaner;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded pool of heap buffers of a power of two clusters each, up to {@link #MAX_POOLED_BYTES}.
+ * Larger requests get an array of their own that is not kept.
+ * <p>
+ * A buffer belongs to the code that acquired it until it is closed, and neither the buffer nor its
+ * array may be used after that. Buffers are meant for try-with-resources and never handed to callers
+ * of {@link FAT}. Closing twice and using a closed buffer fail. With leak tracking on, a buffer that
+ * becomes unreachable without being closed is counted in {@link #leaked()}, so a test can check that it
+ * stays at zero. Tracking registers every buffer with a {@link Cleaner}, so it is off unless the
+ * {@code fatfs.trackBufferLeaks} system property is set, as the tests do.
+ */
+class ClusterBufferPool {
+    static final int MAX_POOLED_BYTES = 1024 * 1024;
+    static final long DEFAULT_RETAINED_BYTES = 8L * 1024 * 1024;
+    static final boolean TRACK_LEAKS = Boolean.getBoolean("fatfs.trackBufferLeaks");
+
+    private static final Cleaner cleaner = Cleaner.create();
+
+    private final int bytesInCluster;
+    private final long maxRetainedBytes;
+    private final boolean trackLeaks;
+    private final List<ConcurrentLinkedDeque<byte[]>> free = new ArrayList<>(); // by log2 of the clusters in a buffer
+    private final AtomicLong retainedBytes = new AtomicLong();
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final LongAdder reused = new LongAdder();
+    private final LongAdder leaked = new LongAdder();
+
+    ClusterBufferPool(int bytesInCluster, long maxRetainedBytes) {
+        this(bytesInCluster, maxRetainedBytes, TRACK_LEAKS);
+    }
+
+    /**
+     * @param maxRetainedBytes bytes of free buffers kept for reuse, the rest is left to the collector
+     * @param trackLeaks       count buffers collected without being closed in {@link #leaked()}
+     */
+    ClusterBufferPool(int bytesInCluster, long maxRetainedBytes, boolean trackLeaks) {
+        this.bytesInCluster = bytesInCluster;
+        this.maxRetainedBytes = maxRetainedBytes;
+        this.trackLeaks = trackLeaks;
+        for (long size = bytesInCluster; size <= Math.max(bytesInCluster, MAX_POOLED_BYTES); size *= 2) {
+            free.add(new ConcurrentLinkedDeque<>());
+        }
+    }
+
+    class Buffer implements AutoCloseable {
+        private final byte[] array;
+        private final int length;
+        private final Lease lease; // null unless leaks are tracked
+        private final Cleaner.Cleanable cleanable;
+        private boolean closed;
+
+        private Buffer(byte[] array, int length) {
+            this.array = array;
+            this.length = length;
+            this.lease = trackLeaks ? new Lease(ClusterBufferPool.this) : null;
+            this.cleanable = trackLeaks ? cleaner.register(this, lease) : null;
+        }
+
+        /**
+         * @return array of at least {@link #length()} bytes, with whatever the last owner left in it
+         */
+        byte[] array() {
+            if (closed) {
+                throw new IllegalStateException("Buffer is already closed");
+            }
+            return array;
+        }
+
+        /**
+         * @return bytes asked for when the buffer was acquired
+         */
+        int length() {
+            return length;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                throw new IllegalStateException("Buffer is already closed");
+            }
+            closed = true;
+            if (lease != null) {
+                lease.closed = true;
+                cleanable.clean();
+            } else {
+                inUse.decrementAndGet();
+            }
+            release(array);
+        }
+    }
+
+    /**
+     * Tracks one acquisition without referring to its buffer, so the buffer can become unreachable.
+     */
+    private static class Lease implements Runnable {
+        private final ClusterBufferPool pool;
+        private volatile boolean closed;
+
+        Lease(ClusterBufferPool pool) {
+            this.pool = pool;
+        }
+
+        @Override
+        public void run() {
+            pool.inUse.decrementAndGet();
+            if (!closed) {
+                pool.leaked.increment();
+            }
+        }
+    }
+
+    Buffer acquire(int bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Buffer size cannot be negative");
+        }
+        int sizeClass = sizeClass(bytes);
+        byte[] array = null;
+        if (sizeClass < free.size()) {
+            array = free.get(sizeClass).poll();
+            if (array != null) {
+                retainedBytes.addAndGet(-array.length);
+                reused.increment();
+            } else {
+                array = new byte[bytesInCluster << sizeClass];
+            }
+        } else {
+            array = new byte[bytes];
+        }
+        inUse.incrementAndGet();
+        return new Buffer(array, bytes);
+    }
+
+    int inUse() {
+        return inUse.get();
+    }
+
+    /**
+     * @return buffers collected without being closed, always zero without leak tracking
+     */
+    long leaked() {
+        return leaked.sum();
+    }
+
+    long reused() {
+        return reused.sum();
+    }
+
+    private void release(byte[] array) {
+        int sizeClass = sizeClass(array.length);
+        if (sizeClass >= free.size() || bytesInCluster << sizeClass != array.length) {
+            return;
+        }
+        if (retainedBytes.addAndGet(array.length) > maxRetainedBytes) {
+            retainedBytes.addAndGet(-array.length);
+            return;
+        }
+        free.get(sizeClass).push(array);
+    }
+
+    private int sizeClass(int bytes) {
+        int clusters = Math.max(1, (bytes + bytesInCluster - 1) / bytesInCluster);
+        return 32 - Integer.numberOfLeadingZeros(clusters - 1);
+    }
+}
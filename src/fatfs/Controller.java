@@ -0,0 +1,682 @@
+package fatfs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.stream.Stream;
+
+public class Controller {
+    private Scanner scanner;
+    private FAT fat = new FAT();
+    private boolean batch; // no prompts, errors are printed instead of asking for a stacktrace
+    private boolean failed; // the last command reported an error
+    private RamBlockDevice ramDisk; // image opened into memory, written back only by dump
+
+    public void start(Scanner scanner) {
+        this.scanner = scanner;
+        System.out.println("Welcome to FAT system!");
+        System.out.println("Write help to get command list.");
+        boolean isEnded = false;
+        while (!isEnded) {
+            isEnded = executeReporting(scanner.nextLine().trim());
+        }
+    }
+
+    /**
+     * Runs every line of the scanner as a command without any prompt. Empty lines and lines starting
+     * with # are skipped, exit stops the run.
+     *
+     * @param singleCommit keep metadata in memory and write it once after the last command
+     * @param timing       print the time of every command and a summary at the end
+     * @return 0 if every command succeeded, 1 otherwise
+     */
+    public int runBatch(Scanner scanner, boolean singleCommit, boolean timing) {
+        this.scanner = scanner;
+        this.batch = true;
+        Map<String, long[]> stats = new LinkedHashMap<>(); // count, nanos per command name
+        int commands = 0;
+        int failures = 0;
+        long startedAt = System.nanoTime();
+        boolean isEnded = false;
+        while (!isEnded && scanner.hasNextLine()) {
+            String currentInput = scanner.nextLine().trim();
+            if (currentInput.isEmpty() || currentInput.startsWith("#")) {
+                continue;
+            }
+            long commandStartedAt = System.nanoTime();
+            isEnded = executeReporting(currentInput);
+            if (singleCommit && fat.isDiskOpen() && !fat.isCommitDeferred()) {
+                fat.deferCommit();
+            }
+            long nanos = System.nanoTime() - commandStartedAt;
+            commands++;
+            if (failed) {
+                failures++;
+            }
+            long[] stat = stats.computeIfAbsent(currentInput.split(" ")[0], k -> new long[2]);
+            stat[0]++;
+            stat[1] += nanos;
+            if (timing) {
+                System.out.println(String.format("[%d] %s %s %.3f ms", commands, failed ? "FAILED" : "ok", currentInput, nanos / 1e6));
+            }
+        }
+        if (fat.isDiskOpen()) {
+            long commitStartedAt = System.nanoTime();
+            OperationResult result = fat.close();
+            if (!result.isOk) {
+                failures++;
+                printResult(result);
+            } else if (timing) {
+                System.out.println(String.format("close and metadata commit %.3f ms", (System.nanoTime() - commitStartedAt) / 1e6));
+            }
+        }
+        if (timing) {
+            double seconds = (System.nanoTime() - startedAt) / 1e9;
+            System.out.println(String.format("%d commands, %d failed in %.3f s, %.1f commands/s", commands, failures, seconds, commands / seconds));
+            for (Map.Entry<String, long[]> e : stats.entrySet()) {
+                long[] stat = e.getValue();
+                System.out.println(String.format("  %-10s %6d x, avg %.3f ms, total %.3f ms", e.getKey(), stat[0], stat[1] / 1e6 / stat[0], stat[1] / 1e6));
+            }
+        }
+        return failures == 0 ? 0 : 1;
+    }
+
+    /**
+     * Runs the command, reporting an unexpected exception as its failure instead of ending the session.
+     *
+     * @return true if the command ends the session
+     */
+    private boolean executeReporting(String currentInput) {
+        try {
+            return execute(currentInput);
+        } catch (RuntimeException e) {
+            printError("Command failed: " + e);
+            return false;
+        }
+    }
+
+    /**
+     * @return true if the command ends the session
+     */
+    private boolean execute(String currentInput) {
+        failed = false;
+        if (currentInput.equals("exit")) {
+            return true;
+        } else if (currentInput.equals("help") || currentInput.equals("?")) {
+            printHelp();
+        } else if (currentInput.equals("close")) {
+            printResult(fat.close());
+        } else if (currentInput.equals("commit")) {
+            printResult(fat.commit());
+        } else if (currentInput.equals("sync")) {
+            printResult(fat.sync());
+        } else if (currentInput.startsWith("sync-policy ")) {
+            String[] args = currentInput.split(" ");
+            try {
+                if (args.length == 2 && args[1].equals("write-through")) {
+                    printResult(fat.setSyncPolicy(SyncPolicy.writeThrough()));
+                } else if (args.length == 2 && args[1].equals("strict")) {
+                    printResult(fat.setSyncPolicy(SyncPolicy.perOperation()));
+                } else if (args.length == 2 && args[1].equals("on-close")) {
+                    printResult(fat.setSyncPolicy(SyncPolicy.onClose()));
+                } else if ((args.length == 3 || args.length == 4) && args[1].equals("periodic")) {
+                    int changes = args.length == 4 ? Integer.parseInt(args[3]) : 0;
+                    printResult(fat.setSyncPolicy(SyncPolicy.periodic(Long.parseLong(args[2]), changes)));
+                } else {
+                    printError("Wrong arguments");
+                }
+            } catch (IllegalArgumentException e) {
+                printError(e.getMessage());
+            }
+        } else if (currentInput.startsWith("advise ")) {
+            String[] args = currentInput.split(" ");
+            if (args.length > 3 || args.length == 3 && !args[2].equals("bench")) {
+                printError("Wrong arguments");
+            } else {
+                try {
+                    DiskParamsAdvisor.Advice advice = advise(args[1]);
+                    if (args.length == 3) {
+                        for (DiskParamsAdvisor.Candidate c : advice.getCandidates().subList(0, Math.min(3, advice.getCandidates().size()))) {
+                            System.out.println(DiskParamsAdvisor.benchmark(advice.workload, c, 64L * 1024 * 1024));
+                        }
+                    }
+                } catch (Throwable e) {
+                    printError("Advice failed: " + e.getMessage());
+                }
+            }
+        } else if (currentInput.startsWith("checkpoint ")) {
+            String[] args = currentInput.split(" ");
+            if (args.length != 2) {
+                printError("Wrong arguments");
+            } else {
+                printResult(fat.checkpoint(args[1]));
+            }
+        } else if (currentInput.startsWith("delta ")) {
+            String[] args = currentInput.split(" ");
+            if (args.length != 3) {
+                printError("Wrong arguments");
+            } else {
+                printResult(fat.exportDelta(args[1], args[2]));
+            }
+        } else if (currentInput.startsWith("apply-delta ")) {
+            String[] args = currentInput.split(" ");
+            if (args.length != 3) {
+                printError("Wrong arguments");
+            } else {
+                printResult(fat.applyDelta(args[1], args[2]));
+            }
+        } else if (currentInput.startsWith("dump ")) {
+            String[] args = currentInput.split(" ");
+            if (args.length != 2) {
+                printError("Wrong arguments");
+            } else if (ramDisk == null || !fat.isDiskOpen()) {
+                printError("You should open a disk in memory to dump it");
+            } else {
+                OperationResult result = fat.commit();
+                if (result.isOk) {
+                    try {
+                        ramDisk.dump(new File(args[1]));
+                    } catch (IOException e) {
+                        result = OperationResult.error("Cannot dump disk to " + args[1], e);
+                    }
+                }
+                printResult(result);
+            }
+        } else if (currentInput.equals("status") || currentInput.equals("info") || currentInput.equals("i")) {
+            if (!fat.isDiskOpen()) {
+                printError("You should open a disk to get status");
+            } else {
+                DiskSpaceInfo info = fat.getDiskSpaceInfo();
+                if (info != null) {
+                    System.out.println(info);
+                } else {
+                    printError("Status is not available");
+                }
+            }
+        } else if (currentInput.startsWith("find ")) {
+            String[] args = currentInput.split(" ");
+            if (args.length < 2 || args.length > 3) {
+                printError("Wrong arguments");
+            } else {
+                String path = convertDiskPathToAbsolute(args[1]);
+                try {
+                    int maxDepth = args.length == 3 ? Integer.parseInt(args[2]) : Integer.MAX_VALUE;
+                    try (Stream<WalkEntry> entries = fat.walk(path, maxDepth)) {
+                        if (entries == null) {
+                            printError("Data not available");
+                        } else {
+                            entries.forEach(System.out::println);
+                        }
+                    }
+                } catch (NumberFormatException e) {
+                    printError("Wrong depth " + args[2]);
+                }
+            }
+        } else if (currentInput.equals("du") || currentInput.startsWith("du ")) {
+            String[] args = currentInput.split(" ");
+            if (args.length > 2) {
+                printError("Wrong arguments");
+            } else {
+                String path = args.length == 2 ? convertDiskPathToAbsolute(args[1]) : fat.getCurrentPath();
+                DiskUsage usage = fat.getDiskUsage(path);
+                if (usage != null) {
+                    System.out.println(usage);
+                } else {
+                    printError("Data not available");
+                }
+            }
+        } else if (currentInput.equals("frag")) {
+            FragmentationReport report = fat.getFragmentationReport();
+            if (report == null) {
+                printError("Data not available");
+            } else {
+                System.out.println(report);
+                report.getFiles().stream()
+                        .filter(FragmentationReport.FileFragmentation::isFragmented)
+                        .sorted((a, b) -> Integer.compare(b.extents, a.extents))
+                        .limit(10)
+                        .forEach(System.out::println);
+            }
+        } else if (currentInput.equals("defrag")) {
+            printResult(fat.defragment(DefragmentBudget.unlimited()));
+        } else if (currentInput.startsWith("defrag ")) {
+            String[] args = currentInput.split(" ");
+            if (args.length != 3 || !(args[1].equals("time") || args[1].equals("io"))) {
+                printError("Wrong arguments");
+            } else {
+                try {
+                    long limit = Long.parseLong(args[2]);
+                    printResult(fat.defragment(args[1].equals("time") ? DefragmentBudget.time(limit) : DefragmentBudget.io(limit * 1024)));
+                } catch (IllegalArgumentException e) {
+                    printError("Wrong budget " + args[2]);
+                }
+            }
+        } else if (currentInput.equals("fsck") || currentInput.equals("fsck repair")) {
+            CheckReport report = fat.check(currentInput.equals("fsck repair"));
+            if (report == null) {
+                printError("Data not available");
+            } else {
+                report.getProblems().stream().limit(20).forEach(System.out::println);
+                System.out.println(report);
+            }
+        } else if (currentInput.startsWith("rm ")) {
+            String[] args = currentInput.split(" ");
+            if (args.length != 2) {
+                printError("Wrong arguments");
+            } else {
+                String path = convertDiskPathToAbsolute(args[1]);
+                printResult(fat.deleteFile(path));
+            }
+        } else if (currentInput.startsWith("cat ")) {
+            String[] args = currentInput.split(" ");
+            if (args.length != 2) {
+                printError("Wrong arguments");
+            } else {
+                String path = convertDiskPathToAbsolute(args[1]);
+                printResult(fat.cat(path));
+            }
+        } else if (currentInput.startsWith("cd ")) {
+            String[] args = currentInput.split(" ");
+            if (args.length != 2) {
+                printError("Wrong arguments");
+            } else {
+                String path = convertDiskPathToAbsolute(args[1]);
+                printResult(fat.goToDir(path));
+            }
+        } else if (currentInput.equals("ls")) {
+            DirectoryView dir = fat.viewDir(fat.getCurrentPath());
+            if (dir == null) {
+                printError("Data not available");
+            } else {
+                System.out.println(dir);
+            }
+        } else if (currentInput.startsWith("ls ")) {
+            String[] args = currentInput.split(" ");
+            if (args.length != 2) {
+                printError("Wrong arguments");
+            } else {
+                String path = convertDiskPathToAbsolute(args[1]);
+                DirectoryView dir = fat.viewDir(path);
+                if (dir == null) {
+                    printError("Data not available");
+                } else {
+                    System.out.println(dir);
+                }
+            }
+        } else if (currentInput.startsWith("mkdir ")) {
+            String[] args = currentInput.split(" ");
+            if (args.length != 2) {
+                printError("Wrong arguments");
+            } else {
+                String path = convertDiskPathToAbsolute(args[1]);
+                printResult(fat.mkDir(path));
+            }
+        } else if (currentInput.startsWith("copy-out ")) {
+            String[] args = currentInput.split(" ");
+            if (args.length != 3) {
+                printError("Wrong arguments");
+            } else {
+                String diskPath = convertDiskPathToAbsolute(args[1]);
+                String sysPath = args[2];
+                printResult(fat.copyFileToSystem(diskPath, sysPath));
+            }
+        } else if (currentInput.startsWith("copy-in ")) {
+            String[] args = currentInput.split(" ");
+            if (args.length != 3) {
+                printError("Wrong arguments");
+            } else {
+                String sysPath = args[1];
+                String diskPath = convertDiskPathToAbsolute(args[2]);
+                printResult(fat.copyFileFromSystem(sysPath, diskPath));
+            }
+        } else if (currentInput.startsWith("copy ")) {
+            String[] args = currentInput.split(" ");
+            if (args.length != 3) {
+                printError("Wrong arguments");
+            } else {
+                printResult(fat.copy(convertDiskPathToAbsolute(args[1]), convertDiskPathToAbsolute(args[2])));
+            }
+        } else if (currentInput.startsWith("prealloc ")) {
+            String[] args = currentInput.split(" ");
+            if (args.length != 3) {
+                printError("Wrong arguments");
+            } else {
+                try {
+                    printResult(fat.preallocate(convertDiskPathToAbsolute(args[1]), Long.parseLong(args[2])));
+                } catch (NumberFormatException e) {
+                    printError("Expected a size in bytes");
+                }
+            }
+        } else if (currentInput.startsWith("write ")) {
+            String[] args = currentInput.split(" ");
+            if (args.length != 3 && args.length != 4) {
+                printError("Wrong arguments");
+            } else {
+                try {
+                    long offset = args.length == 4 ? Long.parseLong(args[3]) : 0;
+                    byte[] bytes = Files.readAllBytes(Paths.get(args[1]));
+                    printResult(fat.writeFile(convertDiskPathToAbsolute(args[2]), offset, bytes));
+                } catch (NumberFormatException e) {
+                    printError("Expected an offset in bytes");
+                } catch (IOException e) {
+                    printError("Cannot read " + args[1]);
+                }
+            }
+        } else if (currentInput.startsWith("open ")) {
+            ramDisk = null;
+            String[] args = currentInput.split(" ");
+            if (args.length == 2) {
+                String path = args[1];
+                printResult(fat.openDisk(path));
+            } else if (args.length == 3 && args[2].equals("off-heap")) {
+                String path = args[1];
+                printResult(fat.openDisk(path, DiskOpenParams.offHeap()));
+            } else if (args.length == 3 && args[2].equals("mapped")) {
+                String path = args[1];
+                printResult(fat.openDisk(path, DiskOpenParams.standard().mapped()));
+            } else if (args.length == 3 && args[2].equals("ram")) {
+                String path = args[1];
+                try {
+                    RamBlockDevice device = RamBlockDevice.load(new File(path), false);
+                    OperationResult result = fat.openDisk(device, DiskOpenParams.standard());
+                    ramDisk = result.isOk ? device : null;
+                    printResult(result);
+                } catch (IOException e) {
+                    printError("Cannot load disk at path " + path);
+                }
+            } else if (args.length == 3) {
+                String path = args[1];
+                try {
+                    long cacheKib = Long.parseLong(args[2]);
+                    printResult(fat.openDisk(path, DiskOpenParams.paged(cacheKib * 1024)));
+                } catch (IllegalArgumentException e) {
+                    printError("Wrong FAT cache size " + args[2]);
+                }
+            } else {
+                printError("Wrong arguments");
+            }
+        } else if (currentInput.startsWith("create ")) {
+            ramDisk = null;
+            String[] args = currentInput.split(" ");
+            String format = args[args.length - 1];
+            boolean quick = format.equals("quick") || format.equals("quick-preallocate");
+            String[] paramArgs = args.length < (quick ? 3 : 2) ? null : Arrays.copyOfRange(args, 2, quick ? args.length - 1 : args.length);
+            if (paramArgs == null || paramArgs.length == 0 && batch) {
+                printError(paramArgs == null ? "Wrong arguments" : "Disk params are required in batch mode");
+            } else {
+                DiskCreationParams params = paramArgs.length == 0 ? chooseParams() : parseParams(paramArgs);
+                if (params == null) {
+                    printError("Wrong disk params " + String.join(" ", paramArgs));
+                } else {
+                    printResult(fat.createDisk(args[1], quick ? params.quickFormat(format.equals("quick-preallocate")) : params));
+                }
+            }
+        } else {
+            if (!currentInput.isEmpty())
+                printError("Unknown command");
+        }
+        return false;
+    }
+
+    private void printError(String message) {
+        failed = true;
+        System.out.println(message);
+    }
+
+    private void printResult(OperationResult op) {
+        if (!op.isOk) {
+            failed = true;
+        }
+        if (op.message != null) {
+            System.out.println(op.message);
+        } else {
+            if (op.isOk) {
+                System.out.println("ok");
+            }
+        }
+
+        if (!op.isOk) {
+            if (op.error != null && batch) {
+                System.out.println(op.error);
+            } else if (op.error != null) {
+                System.out.println("Do you want a stacktrace? y/n");
+                if (scanner.nextLine().trim().toLowerCase().equals("y")) {
+                    op.error.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private String convertDiskPathToAbsolute(String diskPath) {
+        if (diskPath.startsWith("/")) {
+            return diskPath;
+        } else {
+            String[] newPath = Arrays.stream(diskPath.split("/")).filter(v -> !v.trim().isEmpty()).toArray(String[]::new);
+            String[] currentPath = Arrays.stream(fat.getCurrentPath().split("/")).filter(v -> !v.trim().isEmpty()).toArray(String[]::new);
+            LinkedList<String> pathBuilder = new LinkedList<>(Arrays.asList(currentPath));
+            for (String s : newPath) {
+                String pathPart = s.trim();
+                if (!pathPart.equals(".")) {
+                    if (pathPart.equals("..") && pathBuilder.size() > 0) {
+                        pathBuilder.removeLast();
+                    } else {
+                        pathBuilder.add(pathPart);
+                    }
+                }
+            }
+            StringBuilder sb = new StringBuilder("/");
+            for (String s : pathBuilder) {
+                sb.append(s);
+                sb.append("/");
+            }
+            if (pathBuilder.size() > 0)
+                sb.setLength(sb.length() - 1);
+            return sb.toString();
+        }
+    }
+
+    /**
+     * @param args preset name, or bytes in sector, sectors in cluster and sectors on disk
+     * @return null if the arguments do not describe a disk
+     */
+    private DiskCreationParams parseParams(String[] args) {
+        if (args.length == 1) {
+            switch (args[0]) {
+                case "small":
+                    return DiskCreationParams.small();
+                case "medium":
+                    return DiskCreationParams.medium();
+                case "big":
+                    return DiskCreationParams.big();
+            }
+            return null;
+        }
+        if (args.length == 3) {
+            try {
+                return DiskCreationParams.custom(Integer.parseInt(args[0]), Integer.parseInt(args[1]), Long.parseLong(args[2]));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private DiskCreationParams chooseParams() {
+        System.out.println("Choose disk params:\n1: small (FAT-12) 1Mib\n2: medium (FAT-16) 64Mib\n3: big (FAT-32) 0.5 Gib\n4: custom\n5: recommended for the files of a directory");
+        int option = 0;
+        option = chooseOption(5);
+        switch (option) {
+            case 1:
+                return DiskCreationParams.small();
+            case 2:
+                return DiskCreationParams.medium();
+            case 3:
+                return DiskCreationParams.big();
+            case 5:
+                while (true) {
+                    System.out.println("Directory to size the disk for:");
+                    try {
+                        DiskParamsAdvisor.Candidate recommended = advise(scanner.nextLine().trim()).getRecommended();
+                        if (recommended != null) {
+                            return recommended.toParams();
+                        }
+                    } catch (Throwable e) {
+                        System.out.println(e.getMessage());
+                    }
+                }
+        }
+
+        System.out.println("Choose FAT type:\n1: FAT-12\n2: FAT-16\n3: FAT-32");
+        option = chooseOption(3);
+
+        FATType fatType = option == 1 ? FATType.FAT12 : option == 2 ? FATType.FAT16 : FATType.FAT32;
+
+        int sectorsInCluster;
+        if (fatType == FATType.FAT12) {
+            int[] answers = new int[]{1, 2};
+            sectorsInCluster = askUserAndChooseOption("Sectors in cluster", answers);
+        } else if (fatType == FATType.FAT16) {
+            int[] answers = new int[]{4, 8, 16, 32, 64};
+            sectorsInCluster = askUserAndChooseOption("Sectors in cluster", answers);
+        } else {
+            int[] answers = new int[]{1, 8, 16, 32, 64};
+            sectorsInCluster = askUserAndChooseOption("Sectors in cluster", answers);
+        }
+
+        int bytesInSector;
+        int[] answers2 = new int[]{512, 1024};
+        bytesInSector = askUserAndChooseOption("Bytes in sector", answers2);
+
+        int sectorsOnDisk;
+        if (fatType == FATType.FAT12) {
+            int minSectors = 16 * sectorsInCluster;
+            int maxSectors = 0xFF6 * sectorsInCluster;
+            sectorsOnDisk = askUserAndChooseOption("Sectors on disk", generateSectorsOnDiskAnswers(minSectors, maxSectors));
+        } else if (fatType == FATType.FAT16) {
+            int minSectors = 0xFF7 * sectorsInCluster;
+            int maxSectors = 0xFFF6 * sectorsInCluster;
+            sectorsOnDisk = askUserAndChooseOption("Sectors on disk", generateSectorsOnDiskAnswers(minSectors, maxSectors));
+        } else {
+            int minSectors = 0xFFF7 * sectorsInCluster;
+            int maxSectors = 0xFFFFF6 * sectorsInCluster;
+            sectorsOnDisk = askUserAndChooseOption("Sectors on disk", generateSectorsOnDiskAnswers(minSectors, maxSectors));
+        }
+        return DiskCreationParams.custom(bytesInSector, sectorsInCluster, Integer.toUnsignedLong(sectorsOnDisk));
+    }
+
+    private DiskParamsAdvisor.Advice advise(String systemPath) throws IOException {
+        DiskParamsAdvisor.Advice advice = DiskParamsAdvisor.advise(Workload.scan(Paths.get(systemPath)),
+                DiskParamsAdvisor.DEFAULT_HEADROOM, DiskParamsAdvisor.DEFAULT_IO_CALL_BYTES);
+        System.out.println(advice);
+        return advice;
+    }
+
+    private void printHelp() {
+        System.out.println("List of supported commands");
+        System.out.println("create <path> - create new disk and open it");
+        System.out.println("create <path> <small|medium|big> - create new disk with a preset");
+        System.out.println("create <path> <bytes-in-sector> <sectors-in-cluster> <sectors-on-disk> - create new disk with custom params");
+        System.out.println("create <path> [params] quick - create new sparse disk writing only boot record, first FAT sectors and root directory");
+        System.out.println("create <path> [params] quick-preallocate - same as quick, but sets the full image length up front");
+        System.out.println("advise <sys-path> [bench] - recommend disk params for the files of a directory, optionally benchmarking the best ones");
+        System.out.println("open <path> - open existing disk from system");
+        System.out.println("open <path> off-heap - open existing disk, keeping the FAT outside of the Java heap");
+        System.out.println("open <path> mapped - open existing disk through a memory mapping of the file");
+        System.out.println("open <path> ram - load existing disk into memory, the file is not changed until dump");
+        System.out.println("dump <path> - write the disk opened into memory to a file");
+        System.out.println("checkpoint <name> - start recording the changes made from now on");
+        System.out.println("delta <name> <sys-path> - export everything changed since the checkpoint");
+        System.out.println("apply-delta <delta-path> <image-path> - apply a delta to a copy of the image taken at its checkpoint");
+        System.out.println("open <path> <fat-cache-KiB> - open existing disk, loading the FAT on demand into a cache of the given size");
+        System.out.println("copy-in <sys-path> <disk-path> - copy file from system to disk");
+        System.out.println("copy-out <disk-path> <sys-path> - copy file from disk to system");
+        System.out.println("copy <disk-path> <disk-path> - copy file or directory within the disk");
+        System.out.println("prealloc <disk-path> <bytes> - create a zero-filled file with all of its clusters reserved up front");
+        System.out.println("write <sys-path> <disk-path> [offset] - write file from system into a disk file at the offset");
+        System.out.println("mkdir <disk-path> - create new directory");
+        System.out.println("ls <disk-path> - list directory");
+        System.out.println("cd <disk-path> - go to directory at path");
+        System.out.println("rm <disk-path> - remove file or directory");
+        System.out.println("cat <disk-path> - read file");
+        System.out.println("find <disk-path> [max-depth] - list every file and directory under the directory");
+        System.out.println("du [disk-path] - print space used by the file or the whole directory subtree");
+        System.out.println("frag - print fragmentation report and the most fragmented files");
+        System.out.println("defrag - move fragmented files into contiguous free runs");
+        System.out.println("defrag time <ms> - defragment until the time budget is spent");
+        System.out.println("defrag io <KiB> - defragment until the I/O budget is spent");
+        System.out.println("fsck - check the disk for lost chains, cross-links, size mismatches and duplicate names");
+        System.out.println("fsck repair - check the disk and repair what can be repaired");
+        System.out.println("status - print disk space status");
+        System.out.println("info - print disk space status");
+        System.out.println("commit - write metadata kept in memory since the batch started");
+        System.out.println("sync - write metadata kept in memory and force the disk to storage");
+        System.out.println("sync-policy <write-through|strict|on-close> - write metadata after every change, also forcing it with strict, or only on sync and close");
+        System.out.println("sync-policy periodic <ms> [changes] - write metadata and force the disk in the background every period and after that many changes");
+        System.out.println("close - close current disk");
+        System.out.println("help - show help");
+        System.out.println("exit - stop program");
+    }
+
+    private int chooseOption(int count) {
+        int option = 0;
+        while (option == 0) {
+            try {
+                int result = Integer.parseInt(scanner.nextLine().trim());
+                if (result >= 1 && result <= count) {
+                    option = result;
+                } else {
+                    System.out.println("Wrong number. Please, choose one from the listed options.");
+                }
+            } catch (Throwable e) {
+                System.out.println("Expected an integer value");
+            }
+        }
+        return option;
+    }
+
+    private int askUserAndChooseOption(String paramName, int[] answers) {
+        StringBuilder sb = new StringBuilder(paramName);
+        sb.append(":");
+        for (int i = 1; i <= answers.length; i++) {
+            sb.append("\n").append(i).append(": ").append(answers[i - 1]);
+        }
+        System.out.println(sb.toString());
+        int option = 0;
+        while (option == 0) {
+            try {
+                int result = Integer.parseInt(scanner.nextLine().trim());
+                if (result >= 1 && result <= answers.length) {
+                    option = result;
+                } else {
+                    System.out.println("Wrong number. Please, choose one from the listed options.");
+                }
+            } catch (Throwable e) {
+                System.out.println("Expected an integer value");
+            }
+        }
+        return answers[option - 1];
+    }
+
+    private int[] generateSectorsOnDiskAnswers(int minSectors, int maxSectors) {
+        System.out.println("Min = "+minSectors);
+        System.out.println("Max = "+maxSectors);
+        List<Integer> options = new LinkedList<>();
+        long sectorsCount = minSectors;
+        while (sectorsCount <= maxSectors) {
+            options.add((int) sectorsCount);
+            sectorsCount *= 2;
+        }
+        int[] answers = new int[options.size()];
+        for (int i = 0; i < options.size(); i++) {
+            answers[i] = options.get(i);
+        }
+        return answers;
+    }
+}
@@ -0,0 +1,33 @@
+package fatfs;
+
+public class DefragmentBudget {
+    final long maxNanos; // stop relocating once this much time has passed, Long.MAX_VALUE for no limit
+    final long maxIoBytes; // stop relocating once this many bytes were read and written, Long.MAX_VALUE for no limit
+
+    private DefragmentBudget(long maxNanos, long maxIoBytes) {
+        this.maxNanos = maxNanos;
+        this.maxIoBytes = maxIoBytes;
+    }
+
+    static DefragmentBudget unlimited() {
+        return new DefragmentBudget(Long.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    static DefragmentBudget time(long millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("Time budget must be positive");
+        }
+        return new DefragmentBudget(millis * 1_000_000, Long.MAX_VALUE);
+    }
+
+    static DefragmentBudget io(long bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("I/O budget must be positive");
+        }
+        return new DefragmentBudget(Long.MAX_VALUE, bytes);
+    }
+
+    boolean isExhausted(long startedAt, long ioBytes) {
+        return System.nanoTime() - startedAt >= maxNanos || ioBytes >= maxIoBytes;
+    }
+}
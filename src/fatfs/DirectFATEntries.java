@@ -0,0 +1,93 @@
+package fatfs;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The whole table in a direct buffer outside of the Java heap, kept in its on-disk encoding. Entries
+ * are decoded on access, and {@link #flush} writes the changed byte range back as it is.
+ */
+class DirectFATEntries implements FATEntries {
+    private static final int COPY_CHUNK = 64 * 1024;
+
+    private final FATType type;
+    private final long size;
+    private final ByteBuffer bytes;
+    private int dirtyFrom;
+    private int dirtyTo;
+
+    private DirectFATEntries(FATType type, long size, ByteBuffer bytes) {
+        this.type = type;
+        this.size = size;
+        this.bytes = bytes;
+        markClean();
+    }
+
+    static DirectFATEntries read(FATType type, BlockDevice device, long fatOffset, long size) throws IOException {
+        long sizeInBytes = FATEncoding.sizeInBytes(type, size);
+        if (sizeInBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("FAT of " + size + " clusters does not fit into a direct buffer");
+        }
+        ByteBuffer bytes = ByteBuffer.allocateDirect((int) sizeInBytes);
+        device.read(fatOffset, bytes);
+        bytes.clear();
+        return new DirectFATEntries(type, size, bytes);
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public long get(long cluster) {
+        return FATEncoding.get(type, bytes, checked(cluster));
+    }
+
+    @Override
+    public void set(long cluster, long value) {
+        int index = checked(cluster);
+        FATEncoding.set(type, bytes, index, value);
+        int bits = FATEncoding.bitsPerEntry(type);
+        dirtyFrom = Math.min(dirtyFrom, (int) ((long) index * bits / 8));
+        dirtyTo = Math.max(dirtyTo, (int) FATEncoding.sizeInBytes(type, index + 1L));
+    }
+
+    @Override
+    public void write(DataOutput stream) throws IOException {
+        byte[] chunk = new byte[COPY_CHUNK];
+        ByteBuffer source = bytes.duplicate();
+        source.clear();
+        while (source.hasRemaining()) {
+            int length = Math.min(chunk.length, source.remaining());
+            source.get(chunk, 0, length);
+            stream.write(chunk, 0, length);
+        }
+    }
+
+    @Override
+    public long flush(BlockDevice device, long fatOffset) throws IOException {
+        if (dirtyFrom >= dirtyTo) {
+            return 0;
+        }
+        ByteBuffer range = bytes.duplicate();
+        range.limit(dirtyTo).position(dirtyFrom);
+        device.write(fatOffset + dirtyFrom, range);
+        long written = dirtyTo - dirtyFrom;
+        markClean();
+        return written;
+    }
+
+    private int checked(long cluster) {
+        if (cluster < 0 || cluster >= size) {
+            throw new IllegalArgumentException("Cluster " + cluster + " is out of the table");
+        }
+        return (int) cluster;
+    }
+
+    private void markClean() {
+        dirtyFrom = bytes.capacity();
+        dirtyTo = 0;
+    }
+}
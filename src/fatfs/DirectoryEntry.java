@@ -1,3 +1,5 @@
+package fatfs;
+
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
@@ -30,6 +32,35 @@ public class DirectoryEntry {
         this.size = Integer.toUnsignedLong(size);
     }
 
+    // fields as they are on disk, already padded
+    private DirectoryEntry(String name, String extension, byte attribute, long initialCluster, long size) {
+        this.name = name;
+        this.extension = extension;
+        this.attribute = attribute;
+        this.initialCluster = initialCluster;
+        this.size = size;
+    }
+
+    /**
+     * Decodes the 32 byte entry at {@code offset}.
+     */
+    public static DirectoryEntry read(byte[] bytes, int offset) {
+        return new DirectoryEntry(
+                new String(bytes, offset, 8, StandardCharsets.US_ASCII), //name
+                new String(bytes, offset + 8, 3, StandardCharsets.US_ASCII), // ext
+                bytes[offset + 11], //attr
+                Integer.toUnsignedLong(DirectoryView.getInt(bytes, offset + 24)), //cluster
+                Integer.toUnsignedLong(DirectoryView.getInt(bytes, offset + 28)) // size
+        );
+    }
+
+    /**
+     * @return true if the slot at {@code offset} marks the end of the directory
+     */
+    public static boolean isEndOfDirectory(byte[] bytes, int offset) {
+        return bytes[offset] == 0 && bytes[offset + 1] == 0 && bytes[offset + 2] == 0;
+    }
+
     public static DirectoryEntry directory(String name, long initialCluster) {
         byte attr = 0b10000;
         return new DirectoryEntry(name, "", attr, (int) initialCluster, 0);
@@ -40,6 +71,14 @@ public class DirectoryEntry {
         return new DirectoryEntry(name, extension, attr, (int)initialCluster, size);
     }
 
+    public DirectoryEntry withInitialCluster(long initialCluster) {
+        return new DirectoryEntry(name, extension, attribute, (int) initialCluster, (int) size);
+    }
+
+    public DirectoryEntry withSize(long size) {
+        return new DirectoryEntry(name, extension, attribute, initialCluster, size);
+    }
+
     public boolean isDir() {
         return attribute == 0b10000;
     }
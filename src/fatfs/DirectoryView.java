@@ -0,0 +1,189 @@
+package fatfs;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Read-only flyweight over the raw clusters of a directory. Entries are decoded by index straight
+ * from the bytes and names are compared in their on-disk form, so listing a directory or looking a
+ * name up does not create an object per entry. {@link #entry} decodes a full {@link DirectoryEntry}
+ * for the entries that are actually needed.
+ */
+public class DirectoryView {
+    static final int ENTRY_SIZE = 32;
+    static final int NAME_SIZE = 11; // 8 bytes of name and 3 of extension, padded with spaces
+
+    private final byte[] bytes;
+    private final int count;
+
+    DirectoryView(byte[] bytes) {
+        this.bytes = bytes;
+        this.count = countEntries(bytes);
+    }
+
+    /**
+     * Number of slots before the end of the directory.
+     */
+    static int countEntries(byte[] bytes) {
+        int count = 0;
+        for (int offset = 0; offset + ENTRY_SIZE <= bytes.length; offset += ENTRY_SIZE) {
+            if (DirectoryEntry.isEndOfDirectory(bytes, offset)) {
+                break;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public byte attribute(int index) {
+        return bytes[offset(index) + 11];
+    }
+
+    public boolean isDir(int index) {
+        return attribute(index) == 0b10000;
+    }
+
+    public boolean isSelfDir(int index) {
+        return isDotEntry(bytes, offset(index), 1);
+    }
+
+    public boolean isParentDir(int index) {
+        return isDotEntry(bytes, offset(index), 2);
+    }
+
+    public long initialCluster(int index) {
+        return Integer.toUnsignedLong(getInt(bytes, offset(index) + 24));
+    }
+
+    public long fileSize(int index) {
+        return Integer.toUnsignedLong(getInt(bytes, offset(index) + 28));
+    }
+
+    public DirectoryEntry entry(int index) {
+        return DirectoryEntry.read(bytes, offset(index));
+    }
+
+    public String fileNameWithExtension(int index) {
+        int offset = offset(index);
+        int nameLength = trimmedLength(offset, 8);
+        int extLength = trimmedLength(offset + 8, 3);
+        String name = new String(bytes, offset, nameLength, StandardCharsets.US_ASCII).trim();
+        if (extLength == 0) {
+            return name;
+        }
+        return name + "." + new String(bytes, offset + 8, extLength, StandardCharsets.US_ASCII).trim();
+    }
+
+    /**
+     * The entries before the end of the directory, which a view can be made of again.
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(bytes, count * ENTRY_SIZE);
+    }
+
+    /**
+     * @param name a name in the form of {@link #encodeName}
+     * @return index of the first entry with the name, or -1
+     */
+    public int indexOf(byte[] name) {
+        for (int i = 0; i < count; i++) {
+            if (nameEquals(offset(i), name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * On-disk form of a path component, or null if no entry can have that name because its parts are
+     * longer than 8.3 or it is not plain ASCII.
+     */
+    public static byte[] encodeName(String fileNameWithExtension) {
+        String name = fileNameWithExtension;
+        String ext = "";
+        if (!name.equals(".") && !name.equals("..")) {
+            int dot = name.indexOf('.');
+            if (dot >= 0) {
+                ext = name.substring(dot + 1);
+                name = name.substring(0, dot);
+                if (ext.isEmpty() || ext.indexOf('.') >= 0) {
+                    return null;
+                }
+            }
+        }
+        if (name.isEmpty() || name.length() > 8 || ext.length() > 3 || !name.equals(name.trim()) || !ext.equals(ext.trim())) {
+            return null;
+        }
+        byte[] encoded = new byte[NAME_SIZE];
+        for (int i = 0; i < NAME_SIZE; i++) {
+            int c = i < 8 ? (i < name.length() ? name.charAt(i) : ' ') : (i - 8 < ext.length() ? ext.charAt(i - 8) : ' ');
+            if (c > 0x7F) {
+                return null;
+            }
+            encoded[i] = (byte) c;
+        }
+        return encoded;
+    }
+
+    /**
+     * Whether the slot at {@code offset} is the . ({@code dots} 1) or .. ({@code dots} 2) entry.
+     */
+    static boolean isDotEntry(byte[] bytes, int offset, int dots) {
+        for (int i = 0; i < 8; i++) {
+            byte b = bytes[offset + i];
+            if (i < dots ? b != '.' : b > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int getInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16 | (bytes[offset + 2] & 0xff) << 8 | bytes[offset + 3] & 0xff;
+    }
+
+    private boolean nameEquals(int offset, byte[] name) {
+        for (int i = 0; i < NAME_SIZE; i++) {
+            byte b = bytes[offset + i];
+            // padding may be spaces or zeros
+            if (b != name[i] && !(b <= ' ' && name[i] == ' ')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int trimmedLength(int offset, int length) {
+        while (length > 0 && bytes[offset + length - 1] <= ' ') {
+            length--;
+        }
+        return length;
+    }
+
+    private int offset(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Entry " + index + " of " + count);
+        }
+        return index * ENTRY_SIZE;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append("name = ").append(fileNameWithExtension(i))
+                    .append(", attr = ").append(attribute(i))
+                    .append(", isDir = ").append(isDir(i))
+                    .append(", size = ").append(fileSize(i))
+                    .append('\n');
+        }
+        if (count > 0) {
+            builder.setLength(builder.length() - 1);
+        }
+        return builder.toString();
+    }
+}
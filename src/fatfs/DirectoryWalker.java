@@ -0,0 +1,138 @@
+package fatfs;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.LongUnaryOperator;
+import java.util.function.Predicate;
+
+/**
+ * Depth-first iterator over a directory tree that descends by cluster. Every open directory keeps
+ * only the cluster it is reading and a slot index, so memory grows with the depth of the walk and
+ * the cluster size, not with the number of entries. Each depth reads into one array for the whole
+ * walk.
+ */
+class DirectoryWalker implements Iterator<WalkEntry> {
+    private static final int ENTRY_SIZE = 32;
+
+    private final ClusterReader readCluster;
+    private final LongUnaryOperator nextCluster;
+    private final int bytesInCluster;
+    private final List<byte[]> depthBuffers = new ArrayList<>(); // by position in levels
+    private final int maxDepth;
+    private final Predicate<WalkEntry> descend;
+    private final Deque<Level> levels = new ArrayDeque<>();
+    private WalkEntry next;
+
+    interface ClusterReader {
+        void read(long cluster, byte[] bytes);
+    }
+
+    private static class Level {
+        final String path;
+        final int depth;
+        final byte[] bytes;
+        long cluster;
+        boolean loaded;
+        int offset;
+        boolean ended;
+
+        Level(String path, int depth, long cluster, byte[] bytes) {
+            this.path = path;
+            this.depth = depth;
+            this.cluster = cluster;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * @param readCluster fills the array, one cluster long, with the cluster
+     * @param nextCluster cluster that follows the given one in its chain, or -1 at the end
+     * @param descend     directories it rejects are returned but not walked into
+     */
+    DirectoryWalker(ClusterReader readCluster, LongUnaryOperator nextCluster, int bytesInCluster, String path, int depth, long cluster,
+                    int maxDepth, Predicate<WalkEntry> descend) {
+        this.readCluster = readCluster;
+        this.nextCluster = nextCluster;
+        this.bytesInCluster = bytesInCluster;
+        this.maxDepth = maxDepth;
+        this.descend = descend;
+        if (depth < maxDepth) {
+            push(path.equals("/") ? "" : path, depth, cluster);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            next = advance();
+        }
+        return next != null;
+    }
+
+    @Override
+    public WalkEntry next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        WalkEntry result = next;
+        next = null;
+        if (result.isDir() && result.depth < maxDepth && descend.test(result)) {
+            push(result.path, result.depth, result.entry.initialCluster);
+        }
+        return result;
+    }
+
+    private void push(String path, int depth, long cluster) {
+        if (depthBuffers.size() == levels.size()) {
+            depthBuffers.add(new byte[bytesInCluster]);
+        }
+        levels.push(new Level(path, depth, cluster, depthBuffers.get(levels.size())));
+    }
+
+    private WalkEntry advance() {
+        while (!levels.isEmpty()) {
+            Level level = levels.peek();
+            DirectoryEntry entry = nextEntry(level);
+            if (entry == null) {
+                levels.pop();
+            } else {
+                return new WalkEntry(level.path + "/" + entry.fileNameWithExtension(), level.depth + 1, entry);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Next entry of the level other than . and .., or null at its end.
+     */
+    private DirectoryEntry nextEntry(Level level) {
+        while (!level.ended) {
+            if (!level.loaded) {
+                readCluster.read(level.cluster, level.bytes);
+                level.loaded = true;
+                level.offset = 0;
+            }
+            if (level.offset + ENTRY_SIZE > level.bytes.length) {
+                level.cluster = nextCluster.applyAsLong(level.cluster);
+                level.loaded = false;
+                level.ended = level.cluster == -1;
+                continue;
+            }
+            if (DirectoryEntry.isEndOfDirectory(level.bytes, level.offset)) {
+                level.ended = true;
+                break;
+            }
+            int offset = level.offset;
+            level.offset += ENTRY_SIZE;
+            if (DirectoryView.isDotEntry(level.bytes, offset, 1) || DirectoryView.isDotEntry(level.bytes, offset, 2)) {
+                continue;
+            }
+            return DirectoryEntry.read(level.bytes, offset);
+        }
+        return null;
+    }
+}
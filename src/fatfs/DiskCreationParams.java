@@ -1,3 +1,5 @@
+package fatfs;
+
 public class DiskCreationParams {
     final int bytesInSector; //11-12 bytes. Accept only 512, 1024, 2048 or 4096
     final int sectorsInCluster; //13 byte. Accept only power of 2, must be smaller that 32K
@@ -7,6 +9,8 @@ public class DiskCreationParams {
     final long sectorsOnDisk; //19-20 bytes if fits (less that or equal to 0xFFFF). Otherwise, 32-35 bytes
     final int sectorsOnTrack; //24-25 bytes.
     final int sectorsBeforeStart; //28-31 bytes.
+    final boolean quickFormat; // write only the boot record, the non-zero FAT sectors and the root directory
+    final boolean preallocate; // with quickFormat, extend the image to its full size in one call
 
     private DiskCreationParams() {
         this.bytesInSector = 512;
@@ -17,6 +21,8 @@ public class DiskCreationParams {
         this.sectorsOnDisk = 32;
         this.sectorsOnTrack = 4;
         this.sectorsBeforeStart = 0;
+        this.quickFormat = false;
+        this.preallocate = false;
     }
 
     private DiskCreationParams(int bytesInSector, int sectorsInCluster, long sectorsOnDisk) {
@@ -28,6 +34,40 @@ public class DiskCreationParams {
         this.sectorsOnDisk = sectorsOnDisk;
         this.sectorsOnTrack = 4;
         this.sectorsBeforeStart = 0;
+        this.quickFormat = false;
+        this.preallocate = false;
+    }
+
+    private DiskCreationParams(DiskCreationParams params, int numberOfFATCopies, boolean quickFormat, boolean preallocate) {
+        this.bytesInSector = params.bytesInSector;
+        this.sectorsInCluster = params.sectorsInCluster;
+        this.reservedAreaInSector = params.reservedAreaInSector;
+        this.numberOfFATCopies = numberOfFATCopies;
+        this.maxFilesInRoot = params.maxFilesInRoot;
+        this.sectorsOnDisk = params.sectorsOnDisk;
+        this.sectorsOnTrack = params.sectorsOnTrack;
+        this.sectorsBeforeStart = params.sectorsBeforeStart;
+        this.quickFormat = quickFormat;
+        this.preallocate = preallocate;
+    }
+
+    /**
+     * Same geometry, created as a sparse image. The disk is opened with the FAT loaded on demand afterwards,
+     * so the untouched parts of the table are never written.
+     */
+    DiskCreationParams quickFormat(boolean preallocate) {
+        return new DiskCreationParams(this, numberOfFATCopies, true, preallocate);
+    }
+
+    /**
+     * Same geometry with {@code copies} copies of the FAT. Only the active copy is written by every
+     * operation, the mirrors are brought up to date in the background or on close.
+     */
+    DiskCreationParams withFATCopies(int copies) {
+        if (copies < 1 || copies > 15) {
+            throw new IllegalArgumentException("Number of FAT copies must be between 1 and 15");
+        }
+        return new DiskCreationParams(this, copies, quickFormat, preallocate);
     }
 
     static DiskCreationParams small() {
@@ -0,0 +1,52 @@
+package fatfs;
+
+public class DiskOpenParams {
+    static final long DEFAULT_FAT_CACHE_BYTES = 4 * 1024 * 1024;
+
+    final boolean pagedFat; // load FAT sectors on demand instead of decoding the whole table on open
+    final long fatCacheBytes; // memory budget of the FAT page cache, used only with pagedFat
+    final boolean offHeapFat; // keep the whole encoded table in a direct buffer outside of the heap
+    final boolean mirrorFatInBackground; // update FAT copies from a background thread, otherwise only on close
+    final boolean mappedFile; // open an image file through a memory mapping, used only when opening by path
+
+    private DiskOpenParams(boolean pagedFat, long fatCacheBytes, boolean offHeapFat, boolean mirrorFatInBackground, boolean mappedFile) {
+        this.pagedFat = pagedFat;
+        this.fatCacheBytes = fatCacheBytes;
+        this.offHeapFat = offHeapFat;
+        this.mirrorFatInBackground = mirrorFatInBackground;
+        this.mappedFile = mappedFile;
+    }
+
+    static DiskOpenParams standard() {
+        return new DiskOpenParams(false, 0, false, true, false);
+    }
+
+    static DiskOpenParams offHeap() {
+        return new DiskOpenParams(false, 0, true, true, false);
+    }
+
+    /**
+     * Same params, with FAT copies written only when the disk is closed.
+     */
+    DiskOpenParams mirrorOnClose() {
+        return new DiskOpenParams(pagedFat, fatCacheBytes, offHeapFat, false, mappedFile);
+    }
+
+    /**
+     * Same params, with the image file accessed through a {@link MappedBlockDevice}.
+     */
+    DiskOpenParams mapped() {
+        return new DiskOpenParams(pagedFat, fatCacheBytes, offHeapFat, mirrorFatInBackground, true);
+    }
+
+    /**
+     * Params that page the FAT through a cache of about {@code fatCacheBytes}. Dirty pages stay cached
+     * until the FAT is flushed, so a deferred commit can hold the cache above its budget.
+     */
+    static DiskOpenParams paged(long fatCacheBytes) {
+        if (fatCacheBytes <= 0) {
+            throw new IllegalArgumentException("FAT cache budget must be positive");
+        }
+        return new DiskOpenParams(true, fatCacheBytes, false, true, false);
+    }
+}
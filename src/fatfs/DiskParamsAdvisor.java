@@ -0,0 +1,258 @@
+package fatfs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recommends a disk geometry for a {@link Workload}. Every cluster size from one sector up to
+ * {@link #MAX_CLUSTER_BYTES} is simulated on the boot record the disk would get: as many clusters as
+ * the files and directories take plus headroom, which decides the FAT type and the size of the table.
+ * <p>
+ * A candidate costs the bytes it wastes, slack at the end of chains and the FAT copies, plus one
+ * device call per cluster for a full pass over the files, each weighted as {@code ioCallBytes} wasted
+ * bytes. Small clusters lose on calls and table size, large ones on slack.
+ */
+public class DiskParamsAdvisor {
+    static final int BYTES_IN_SECTOR = 512; // the sector size only matters through the cluster size
+    static final int MAX_CLUSTER_BYTES = 32 * 1024;
+    static final long MAX_CLUSTERS = 0x0FFFFFF6L;
+    static final long MAX_FILE_BYTES = 0xFFFFFFFFL;
+    static final long DEFAULT_IO_CALL_BYTES = 4096;
+    static final double DEFAULT_HEADROOM = 0.25;
+    static final int MAX_BENCHMARK_FILES = 10_000;
+
+    public static class Candidate {
+        final int bytesInSector;
+        final int sectorsInCluster;
+        final long sectorsOnDisk;
+        final FATType type;
+        final long clusters; // in the table, including the two reserved ones
+        final long fatBytes; // all copies
+        final long imageBytes;
+        final long slackBytes; // allocated but not used by files and directory entries
+        final double clustersPerFile;
+        final long maxClustersPerFile;
+        final long ioCalls; // device calls to write or read every file once
+        final double cost;
+
+        Candidate(int bytesInSector, int sectorsInCluster, long sectorsOnDisk, FATType type, long clusters, long fatBytes, long imageBytes,
+                  long slackBytes, double clustersPerFile, long maxClustersPerFile, long ioCalls, double cost) {
+            this.bytesInSector = bytesInSector;
+            this.sectorsInCluster = sectorsInCluster;
+            this.sectorsOnDisk = sectorsOnDisk;
+            this.type = type;
+            this.clusters = clusters;
+            this.fatBytes = fatBytes;
+            this.imageBytes = imageBytes;
+            this.slackBytes = slackBytes;
+            this.clustersPerFile = clustersPerFile;
+            this.maxClustersPerFile = maxClustersPerFile;
+            this.ioCalls = ioCalls;
+            this.cost = cost;
+        }
+
+        public int bytesInCluster() {
+            return bytesInSector * sectorsInCluster;
+        }
+
+        public DiskCreationParams toParams() {
+            return DiskCreationParams.custom(bytesInSector, sectorsInCluster, sectorsOnDisk);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%7d %7d %6s %11d %11d %13d %12d %9.1f %9d %14.0f",
+                    bytesInCluster(), sectorsOnDisk, type, clusters, fatBytes, imageBytes, slackBytes, clustersPerFile, maxClustersPerFile, cost);
+        }
+    }
+
+    public static class Advice {
+        final Workload workload;
+        final List<Candidate> candidates; // cheapest first
+        final long tooLargeFiles; // above what a directory entry can hold, left out of the simulation
+
+        Advice(Workload workload, List<Candidate> candidates, long tooLargeFiles) {
+            this.workload = workload;
+            this.candidates = Collections.unmodifiableList(candidates);
+            this.tooLargeFiles = tooLargeFiles;
+        }
+
+        /**
+         * @return null if no geometry can hold the workload
+         */
+        public Candidate getRecommended() {
+            return candidates.isEmpty() ? null : candidates.get(0);
+        }
+
+        public List<Candidate> getCandidates() {
+            return candidates;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder(workload.toString()).append('\n');
+            if (tooLargeFiles > 0) {
+                builder.append(tooLargeFiles).append(" files over 4 GiB cannot be stored and were left out\n");
+            }
+            builder.append(String.format("%7s %7s %6s %11s %11s %13s %12s %9s %9s %14s",
+                    "cluster", "sectors", "type", "clusters", "FAT bytes", "image bytes", "slack bytes", "cl/file", "max cl", "cost"));
+            for (Candidate c : candidates) {
+                builder.append('\n').append(c);
+            }
+            Candidate recommended = getRecommended();
+            builder.append('\n').append(recommended == null
+                    ? "No geometry can hold the workload"
+                    : "Recommended: " + recommended.bytesInSector + " bytes in sector, " + recommended.sectorsInCluster
+                    + " sectors in cluster, " + recommended.sectorsOnDisk + " sectors on disk (" + recommended.type + ")");
+            return builder.toString();
+        }
+    }
+
+    public static class BenchmarkResult {
+        final Candidate candidate;
+        final long files;
+        final long bytes;
+        final long writeNanos;
+        final long readNanos;
+
+        BenchmarkResult(Candidate candidate, long files, long bytes, long writeNanos, long readNanos) {
+            this.candidate = candidate;
+            this.files = files;
+            this.bytes = bytes;
+            this.writeNanos = writeNanos;
+            this.readNanos = readNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d byte clusters: %d files, %d bytes, write %.1f MB/s %.0f files/s, read %.1f MB/s %.0f files/s",
+                    candidate.bytesInCluster(), files, bytes,
+                    bytes / 1e6 / (writeNanos / 1e9), files / (writeNanos / 1e9),
+                    bytes / 1e6 / (readNanos / 1e9), files / (readNanos / 1e9));
+        }
+    }
+
+    private DiskParamsAdvisor() {
+    }
+
+    /**
+     * @param headroom    free space to leave on the disk as a share of what the workload takes
+     * @param ioCallBytes wasted bytes that one device call is taken to cost as much as
+     */
+    static Advice advise(Workload workload, double headroom, long ioCallBytes) {
+        if (headroom < 0 || ioCallBytes < 0) {
+            throw new IllegalArgumentException("Headroom and call cost cannot be negative");
+        }
+        long tooLarge = workload.fileSizes.tailMap(MAX_FILE_BYTES, false).values().stream().mapToLong(v -> v).sum();
+        List<Candidate> candidates = new ArrayList<>();
+        for (int sectorsInCluster = 1; BYTES_IN_SECTOR * sectorsInCluster <= MAX_CLUSTER_BYTES; sectorsInCluster *= 2) {
+            Candidate candidate = simulate(workload, sectorsInCluster, headroom, ioCallBytes);
+            if (candidate != null) {
+                candidates.add(candidate);
+            }
+        }
+        candidates.sort(Comparator.comparingDouble(c -> c.cost));
+        return new Advice(workload, candidates, tooLarge);
+    }
+
+    private static Candidate simulate(Workload workload, int sectorsInCluster, double headroom, long ioCallBytes) {
+        long bytesInCluster = (long) BYTES_IN_SECTOR * sectorsInCluster;
+        long fileClusters = 0;
+        long maxClustersPerFile = 0;
+        long files = 0;
+        long usedBytes = 0;
+        for (Map.Entry<Long, Long> e : workload.fileSizes.headMap(MAX_FILE_BYTES, true).entrySet()) {
+            long clusters = Math.max(1, (e.getKey() + bytesInCluster - 1) / bytesInCluster);
+            fileClusters += clusters * e.getValue();
+            maxClustersPerFile = Math.max(maxClustersPerFile, clusters);
+            files += e.getValue();
+            usedBytes += e.getKey() * e.getValue();
+        }
+        long directoryClusters = 0;
+        for (long entries : workload.directoryEntries) {
+            long bytes = (entries + 2) * DirectoryView.ENTRY_SIZE; // with . and ..
+            directoryClusters += Math.max(1, (bytes + bytesInCluster - 1) / bytesInCluster);
+            usedBytes += bytes;
+        }
+        long needed = fileClusters + Math.max(1, directoryClusters);
+        long clusters = (long) Math.ceil(needed * (1 + headroom)) + 2;
+        long sectorsOnDisk = Math.max(16, clusters) * sectorsInCluster;
+        if (clusters > MAX_CLUSTERS || sectorsOnDisk > 0xFFFFFFFFL) {
+            return null;
+        }
+        BootRecord bootRecord = new BootRecord(DiskCreationParams.custom(BYTES_IN_SECTOR, sectorsInCluster, sectorsOnDisk));
+        long fatBytes = bootRecord.getFatSectionSizeInBytes() * bootRecord.fatCopies();
+        long imageBytes = bootRecord.firstSectorOffset() + bootRecord.clustersOnDisk() * bytesInCluster;
+        long slackBytes = needed * bytesInCluster - usedBytes;
+        double cost = slackBytes + fatBytes + (double) fileClusters * ioCallBytes;
+        return new Candidate(BYTES_IN_SECTOR, sectorsInCluster, sectorsOnDisk, bootRecord.getSystemType(), bootRecord.clustersOnDisk(),
+                fatBytes, imageBytes, slackBytes, files == 0 ? 0 : (double) fileClusters / files, maxClustersPerFile, fileClusters, cost);
+    }
+
+    /**
+     * Writes and reads back a sample of the workload of at most {@code sampleBytes} on a RAM disk with
+     * the geometry of the candidate. Files keep their sizes and the share of every size. The sample is
+     * run once to warm up and once to be measured.
+     */
+    static BenchmarkResult benchmark(Workload workload, Candidate candidate, long sampleBytes) {
+        double share = Math.min(1, Math.min((double) sampleBytes / Math.max(1, workload.bytes), (double) MAX_BENCHMARK_FILES / Math.max(1, workload.files)));
+        List<Long> sizes = new ArrayList<>();
+        double carry = 0;
+        for (Map.Entry<Long, Long> e : workload.fileSizes.headMap(Math.min(sampleBytes, MAX_FILE_BYTES), true).entrySet()) {
+            carry += e.getValue() * share;
+            for (; carry >= 1; carry--) {
+                sizes.add(e.getKey());
+            }
+        }
+        run(sizes, candidate);
+        return run(sizes, candidate);
+    }
+
+    private static BenchmarkResult run(List<Long> sizes, Candidate candidate) {
+        FAT fat = new FAT();
+        RamBlockDevice device = RamBlockDevice.heap();
+        try {
+            OperationResult created = fat.createDisk(device, candidate.toParams().quickFormat(false));
+            if (!created.isOk) {
+                throw new IllegalStateException(created.message, created.error);
+            }
+            long bytes = 0;
+            long startedAt = System.nanoTime();
+            for (int i = 0; i < sizes.size(); i++) {
+                String path = path(i);
+                if (i % 128 == 0) {
+                    check(fat.mkDir(path.substring(0, path.lastIndexOf('/'))));
+                }
+                byte[] content = new byte[(int) Math.min(sizes.get(i), Integer.MAX_VALUE - 8)];
+                check(fat.preallocate(path, content.length));
+                check(fat.writeFile(path, 0, content));
+                bytes += content.length;
+            }
+            long writeNanos = System.nanoTime() - startedAt;
+            startedAt = System.nanoTime();
+            for (int i = 0; i < sizes.size(); i++) {
+                if (fat.readFile(path(i), 0, Integer.MAX_VALUE - 8) == null) {
+                    throw new IllegalStateException("Cannot read back " + path(i));
+                }
+            }
+            long readNanos = System.nanoTime() - startedAt;
+            return new BenchmarkResult(candidate, sizes.size(), bytes, Math.max(1, writeNanos), Math.max(1, readNanos));
+        } finally {
+            fat.close();
+            device.close();
+        }
+    }
+
+    private static String path(int file) {
+        return "/B" + file / 128 + "/F" + file % 128 + ".BIN";
+    }
+
+    private static void check(OperationResult result) {
+        if (!result.isOk) {
+            throw new IllegalStateException(result.message, result.error);
+        }
+    }
+}
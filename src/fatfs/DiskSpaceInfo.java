@@ -1,3 +1,5 @@
+package fatfs;
+
 public class DiskSpaceInfo {
     String systemName;
     long allBytes;
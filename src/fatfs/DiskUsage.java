@@ -0,0 +1,31 @@
+package fatfs;
+
+public class DiskUsage {
+    String path;
+    long clusters; // allocated, including the clusters of the directories themselves
+    long allocatedBytes;
+    long logicalBytes; // sum of file sizes
+    long files;
+    long directories; // below the path, not counting the directory itself
+
+    public DiskUsage(String path, long clusters, long allocatedBytes, long logicalBytes, long files, long directories) {
+        this.path = path;
+        this.clusters = clusters;
+        this.allocatedBytes = allocatedBytes;
+        this.logicalBytes = logicalBytes;
+        this.files = files;
+        this.directories = directories;
+    }
+
+    @Override
+    public String toString() {
+        return "DiskUsage{" +
+                "path=" + path +
+                ", clusters=" + clusters +
+                ", allocatedBytes=" + allocatedBytes +
+                ", logicalBytes=" + logicalBytes +
+                ", files=" + files +
+                ", directories=" + directories +
+                '}';
+    }
+}
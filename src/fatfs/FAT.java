@@ -0,0 +1,1803 @@
+package fatfs;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public class FAT implements FATFileSystem {
+    private static final int TRANSFER_BYTES = 1024 * 1024; // largest device call of bulk cluster copies
+
+    private String currentPath = "/";
+    private BootRecord bootRecord;
+    private FileAllocationTable fat;
+    private BlockDevice device;
+    private boolean ownsDevice; // opened from a path here, so closed with the disk
+    private boolean isDiskOpen = false;
+    private FATMetrics metrics;
+    private UsageCache usageCache;
+    private boolean commitDeferred;
+    private boolean commitPending;
+    private FATMirrorWriter mirrorWriter;
+    private SyncPolicy syncPolicy = SyncPolicy.writeThrough();
+    private BackgroundFlusher flusher;
+    private final ChangeTracker changes = new ChangeTracker();
+    private final List<long[]> unlinkedChains = new ArrayList<>(); // allocated by copies, not in a directory yet
+    private ClusterBufferPool buffers;
+    private byte[] pathScratch;
+
+    @Override
+    public synchronized OperationResult close() {
+        awaitUnlinkedChains();
+        OperationResult result = OperationResult.ok();
+        try {
+            stopFlusher();
+        } catch (Throwable e) {
+            result = OperationResult.error("Background flush failed", e);
+        }
+        try {
+            commitDeferred = false;
+            if (isDiskOpen && commitPending) {
+                writeMetadata();
+            }
+            if (isDiskOpen && mirrorWriter != null) {
+                mirrorWriter.schedule(fat.takeDirtySectors());
+                mirrorWriter.finish();
+                bootRecord.setFatMirrored(true);
+            }
+            if (isDiskOpen && bootRecord.getSystemType() == FATType.FAT32) {
+                bootRecord.setVolumeDirty(false);
+                writeBootRecord();
+            }
+            if (isDiskOpen) {
+                device.flush();
+            }
+        } catch (Throwable e) {
+            result = result.isOk ? OperationResult.error("Cannot mark disk as cleanly closed", e) : result;
+        }
+        if (device != null && ownsDevice) {
+            try {
+                device.close();
+            } catch (IOException e) {
+                result = result.isOk ? OperationResult.error("Cannot close disk", e) : result;
+            }
+        }
+        mirrorWriter = null;
+        changes.clear();
+        pathScratch = null;
+        buffers = null;
+        if (metrics != null) {
+            metrics.unregister();
+            metrics = null;
+        }
+        isDiskOpen = false;
+        commitPending = false;
+        currentPath = "/";
+        bootRecord = null;
+        fat = null;
+        usageCache = null;
+        device = null;
+        ownsDevice = false;
+        return result;
+    }
+
+    // copies write their clusters without the lock, the disk they allocated in stays open until they are done
+    private void awaitUnlinkedChains() {
+        boolean interrupted = false;
+        while (!unlinkedChains.isEmpty()) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public synchronized OperationResult createDisk(String systemPath, DiskCreationParams diskParams) {
+        try {
+            File systemFile = new File(systemPath);
+            if (systemFile.exists()) {
+                throw new IllegalArgumentException("File at path " + systemPath + " already exists");
+            }
+            if (isDiskOpen) {
+                close();
+            }
+            FileBlockDevice newDevice = FileBlockDevice.create(systemFile);
+            try {
+                format(newDevice, diskParams);
+            } catch (Throwable e) {
+                newDevice.close();
+                throw e;
+            }
+            ownsDevice = true;
+        } catch (Throwable e) {
+            return OperationResult.error("Cannot create disk at path " + systemPath, e);
+        }
+        return OperationResult.ok("Creation succeed");
+    }
+
+    /**
+     * Formats an empty device and opens it. The device stays open when the disk is closed, so a RAM
+     * disk keeps its image.
+     */
+    @Override
+    public synchronized OperationResult createDisk(BlockDevice device, DiskCreationParams diskParams) {
+        try {
+            if (device.size() != 0) {
+                throw new IllegalArgumentException("Device " + device + " is not empty");
+            }
+            if (isDiskOpen) {
+                close();
+            }
+            format(device, diskParams);
+        } catch (Throwable e) {
+            return OperationResult.error("Cannot create disk on " + device, e);
+        }
+        return OperationResult.ok("Creation succeed");
+    }
+
+    @Override
+    public synchronized OperationResult openDisk(String systemPath) {
+        return openDisk(systemPath, DiskOpenParams.standard());
+    }
+
+    @Override
+    public synchronized OperationResult openDisk(String systemPath, DiskOpenParams openParams) {
+        try {
+            File systemFile = new File(systemPath);
+            if (!systemFile.exists()) {
+                throw new IllegalArgumentException("File at path " + systemPath + " does not exist");
+            }
+            if (systemFile.isDirectory()) {
+                throw new IllegalArgumentException("File at path " + systemPath + " is a directory");
+            }
+            if (isDiskOpen) {
+                close();
+            }
+            BlockDevice newDevice = openParams.mappedFile ? MappedBlockDevice.open(systemFile) : FileBlockDevice.open(systemFile);
+            try {
+                initWithParams(BootRecord.read(newDevice), newDevice, openParams, false);
+            } catch (Throwable e) {
+                newDevice.close();
+                throw e;
+            }
+            ownsDevice = true;
+        } catch (Throwable e) {
+            return OperationResult.error("Cannot open disk at path " + systemPath, e);
+        }
+        return OperationResult.ok("Open succeed");
+    }
+
+    /**
+     * Opens the image on the device. The device stays open when the disk is closed.
+     */
+    @Override
+    public synchronized OperationResult openDisk(BlockDevice device, DiskOpenParams openParams) {
+        try {
+            if (isDiskOpen) {
+                close();
+            }
+            initWithParams(BootRecord.read(device), device, openParams, false);
+        } catch (Throwable e) {
+            return OperationResult.error("Cannot open disk on " + device, e);
+        }
+        return OperationResult.ok("Open succeed");
+    }
+
+    /**
+     * Only the allocation and the directory update hold the disk lock, the host file is read and the
+     * data clusters are written without it, so copies into the same disk run in parallel. Until its
+     * entry is linked the chain is listed in {@link #unlinkedChains}, so {@link #check} does not take it
+     * for lost and free it, and {@link #close} waits for it, so the disk and its device cannot be
+     * swapped under the write.
+     */
+    @Override
+    public OperationResult copyFileFromSystem(String systemPath, String diskPath) {
+        FileAllocationTable allocatedIn = null;
+        long[] clusters = null;
+        FATEvents.Operation event = FATEvents.Operation.begin("copy-in", diskPath);
+        try {
+            File systemFile = new File(systemPath);
+            if (!systemFile.exists()) {
+                throw new IllegalArgumentException("File at path " + systemPath + " does not exists");
+            }
+            if (systemFile.isDirectory()) {
+                throw new IllegalArgumentException("File at path " + systemPath + " is a directory");
+            }
+            String[] fileName = splitFileName(diskPath);
+            String name = fileName[0];
+            String ext = fileName.length > 1 ? fileName[1] : "";
+            byte[] bytes = Files.readAllBytes(systemFile.toPath());
+            event.bytes = bytes.length;
+            synchronized (this) {
+                checkCopyTarget(systemPath, diskPath);
+                clusters = allocateClusters(bytes.length);
+                allocatedIn = fat;
+                unlinkedChains.add(clusters);
+            }
+            writeClusters(clusters, bytes);
+            synchronized (this) {
+                unlinkedChains.remove(clusters);
+                notifyAll();
+                FATDirectory parentDir = checkCopyTarget(systemPath, diskPath);
+                for (long cluster : clusters) {
+                    changes.clusterWritten(cluster);
+                }
+                parentDir.appendEntry(DirectoryEntry.file(
+                        name,
+                        ext,
+                        clusters[0],
+                        bytes.length
+                ));
+                allocatedIn = null;
+                updateFileAtDisk(parentDir.toByteArray(), parentDir.getSelfDirCluster());
+                usageCache.add(parentDir.getSelfDirCluster(), clusters.length, bytes.length, 1, 0);
+            }
+        } catch (Throwable e) {
+            synchronized (this) {
+                if (unlinkedChains.remove(clusters)) {
+                    notifyAll();
+                }
+                if (allocatedIn != null && fat == allocatedIn) {
+                    fat.deleteClusters(clusters);
+                    writeDiskToFile();
+                }
+            }
+            return OperationResult.error("Copy failed " + systemPath, e);
+        } finally {
+            event.commit();
+        }
+        return OperationResult.ok("Copy succeed");
+    }
+
+    /**
+     * @return directory the copy goes to
+     */
+    private FATDirectory checkCopyTarget(String systemPath, String diskPath) {
+        DirectoryEntry file = getFileOrNull(diskPath);
+        if (file != null) {
+            throw new IllegalArgumentException("File at path " + systemPath + " already exists");
+        }
+        FATDirectory parentDir = getParentDirOrNull(diskPath);
+        if (parentDir == null) {
+            throw new IllegalArgumentException("File at path " + diskPath + " does not exists");
+        }
+        return parentDir;
+    }
+
+    /**
+     * Copies the file or the directory tree at {@code srcDiskPath} to {@code dstDiskPath} without
+     * leaving the image. Space for the whole tree is checked before anything is written, each chain is
+     * taken in one allocation and data moves between clusters in runs of up to a MiB. The copy shows
+     * up in its parent only after all of its clusters were written, and the FAT is written once at the
+     * end.
+     */
+    @Override
+    public synchronized OperationResult copy(String srcDiskPath, String dstDiskPath) {
+        FATEvents.Operation event = FATEvents.Operation.begin("copy", dstDiskPath);
+        List<long[]> allocated = new ArrayList<>();
+        try {
+            DirectoryEntry source = getFileOrNull(srcDiskPath);
+            if (source == null) {
+                throw new IllegalArgumentException("File at path " + srcDiskPath + " does not exist");
+            }
+            FATDirectory parentDir = checkCopyTarget(srcDiskPath, dstDiskPath);
+            String[] split = splitPath(dstDiskPath);
+            String name = split[split.length - 1].trim();
+            if (name.isEmpty() || name.equals(".") || name.equals("..")) {
+                throw new IllegalArgumentException("File cannot have a name \"" + name + "\"");
+            }
+            if (source.isDir()) {
+                for (FATDirectory dir = parentDir; ; dir = readDirectoryAt(dir.getParentDirCluster())) {
+                    if (dir.getSelfDirCluster() == source.initialCluster) {
+                        throw new IllegalArgumentException("Cannot copy " + srcDiskPath + " into itself");
+                    }
+                    if (dir.getSelfDirCluster() == bootRecord.getRootCluster() || dir.getParentDirCluster() < 2) {
+                        break;
+                    }
+                }
+            }
+            long[] totals = new long[2];
+            measureCopy(source, totals);
+            if (totals[0] > Integer.MAX_VALUE || !fat.canPutClusters((int) totals[0])) {
+                metrics.allocationFailed();
+                throw new IllegalStateException("Space limit was reached");
+            }
+            event.bytes = totals[1];
+            DirectoryEntry copied = copyTree(source, parentDir.getSelfDirCluster(), allocated);
+            String[] fileName = name.split("\\.");
+            parentDir.appendEntry(source.isDir()
+                    ? DirectoryEntry.directory(name, copied.initialCluster)
+                    : DirectoryEntry.file(fileName[0], fileName.length > 1 ? fileName[1] : "", copied.initialCluster, (int) source.size));
+            allocated.clear();
+            updateFileAtDisk(parentDir.toByteArray(), parentDir.getSelfDirCluster());
+        } catch (Throwable e) {
+            if (!allocated.isEmpty()) {
+                for (long[] clusters : allocated) {
+                    fat.deleteClusters(clusters);
+                }
+                usageCache.clear();
+                writeDiskToFile();
+            }
+            return OperationResult.error("Copy failed " + srcDiskPath, e);
+        } finally {
+            event.commit();
+        }
+        return OperationResult.ok("Copy succeed");
+    }
+
+    /**
+     * Adds the clusters the copy of the file or directory tree takes to {@code totals[0]} and the
+     * bytes of its files to {@code totals[1]}.
+     */
+    private void measureCopy(DirectoryEntry source, long[] totals) {
+        if (!source.isDir()) {
+            totals[0] += fat.chainLength(source.initialCluster);
+            totals[1] += source.size;
+            return;
+        }
+        FATDirectory dir = readDirectory(source);
+        totals[0] += clustersOf(dir.entries.length * DirectoryView.ENTRY_SIZE);
+        for (DirectoryEntry e : dir.entries) {
+            if (!e.isSelfDir() && !e.isParentDir()) {
+                measureCopy(e, totals);
+            }
+        }
+    }
+
+    /**
+     * Copies the file or directory tree into new clusters, each directory written once after its
+     * entries are known.
+     *
+     * @param allocated gets every chain taken, so a failed copy can give them back
+     * @return entry of the copy with the name of {@code source}
+     */
+    private DirectoryEntry copyTree(DirectoryEntry source, long parentCluster, List<long[]> allocated) {
+        if (!source.isDir()) {
+            long[] chain = fat.getFileSequenceWithStartingCluster(source.initialCluster);
+            if (chain.length == 0) {
+                throw new IllegalStateException("File " + source.fileNameWithExtension() + " has no clusters");
+            }
+            long[] target = fat.putClusters(chain.length);
+            allocated.add(target);
+            copyClusters(chain, target);
+            usageCache.add(parentCluster, target.length, source.size, 1, 0);
+            return source.withInitialCluster(target[0]);
+        }
+        FATDirectory dir = readDirectory(source);
+        long[] target = fat.putClusters(clustersOf(dir.entries.length * DirectoryView.ENTRY_SIZE));
+        allocated.add(target);
+        usageCache.directoryAdded(parentCluster, target[0], target.length);
+        FATDirectory copy = FATDirectory.empty(parentCluster);
+        for (DirectoryEntry e : dir.entries) {
+            if (!e.isSelfDir() && !e.isParentDir()) {
+                copy.appendEntry(copyTree(e, target[0], allocated));
+            }
+        }
+        copy.setSelfCluster(target[0]);
+        fillClusters(copy.toByteArray(), bootRecord.bytesInCluster(), target);
+        return source.withInitialCluster(target[0]);
+    }
+
+    private int clustersOf(int bytes) {
+        int bytesInCluster = bootRecord.bytesInCluster();
+        return Math.max(1, (bytes + bytesInCluster - 1) / bytesInCluster);
+    }
+
+    /**
+     * Creates a file of {@code size} zero bytes with all of its clusters taken up front, in one run if
+     * there is one long enough and in as few runs as possible otherwise. {@link #writeFile} fills it
+     * later without changing the FAT.
+     */
+    @Override
+    public synchronized OperationResult preallocate(String diskPath, long size) {
+        FATEvents.Operation event = FATEvents.Operation.begin("preallocate", diskPath);
+        event.bytes = size;
+        try {
+            if (size < 0 || size > 0xFFFFFFFFL) {
+                throw new IllegalArgumentException("File size " + size + " is out of range");
+            }
+            if (getFileOrNull(diskPath) != null) {
+                throw new IllegalArgumentException("File at path " + diskPath + " already exists");
+            }
+            FATDirectory parentDir = getParentDirOrNull(diskPath);
+            if (parentDir == null) {
+                throw new IllegalArgumentException("File at path " + diskPath + " does not exists");
+            }
+            String[] fileName = splitFileName(diskPath);
+            int bytesInCluster = bootRecord.bytesInCluster();
+            int count = (int) Math.max(1, (size + bytesInCluster - 1) / bytesInCluster);
+            if (!fat.canPutClusters(count)) {
+                metrics.allocationFailed();
+                throw new IllegalStateException("Space limit was reached");
+            }
+            long[] clusters = fat.putClustersInFewestExtents(count);
+            zeroClusters(clusters);
+            parentDir.appendEntry(DirectoryEntry.file(
+                    fileName[0],
+                    fileName.length > 1 ? fileName[1] : "",
+                    clusters[0],
+                    (int) size
+            ));
+            updateFileAtDisk(parentDir.toByteArray(), parentDir.getSelfDirCluster());
+            usageCache.add(parentDir.getSelfDirCluster(), count, size, 1, 0);
+        } catch (Throwable e) {
+            return OperationResult.error("Preallocation failed " + diskPath, e);
+        } finally {
+            event.commit();
+        }
+        return OperationResult.ok("Preallocation succeed");
+    }
+
+    /**
+     * Writes {@code bytes} into the file from {@code offset}, which may be at most the size of the file.
+     * Within the current size only data clusters are written, neither the FAT nor the directory. Writing
+     * past the end grows the chain and the size like any other write.
+     */
+    @Override
+    public synchronized OperationResult writeFile(String diskPath, long offset, byte[] bytes) {
+        FATEvents.Operation event = FATEvents.Operation.begin("write", diskPath);
+        event.bytes = bytes.length;
+        try {
+            DirectoryEntry file = getFileOrNull(diskPath);
+            if (file == null) {
+                throw new IllegalArgumentException("File at path " + diskPath + " does not exist");
+            }
+            if (file.isDir()) {
+                throw new IllegalArgumentException("File at path " + diskPath + " is a directory");
+            }
+            long end = offset + bytes.length;
+            if (offset < 0 || offset > file.size) {
+                throw new IllegalArgumentException("Offset " + offset + " is outside of the file of " + file.size + " bytes");
+            }
+            if (end > 0xFFFFFFFFL) {
+                throw new IllegalArgumentException("File size " + end + " is out of range");
+            }
+            if (end <= file.size) {
+                writeBytesAt(fat.getFileSequenceWithStartingCluster(file.initialCluster), offset, bytes);
+                dataWritten();
+                return OperationResult.ok("Write succeed");
+            }
+            FATDirectory parentDir = getParentDirOrNull(diskPath);
+            if (parentDir == null) {
+                throw new IllegalStateException("Cannot find file at path " + diskPath);
+            }
+            int bytesInCluster = bootRecord.bytesInCluster();
+            long before = fat.chainLength(file.initialCluster);
+            int count = (int) Math.max(before, (end + bytesInCluster - 1) / bytesInCluster);
+            if (!fat.canPutClusters((int) (count - before))) {
+                metrics.allocationFailed();
+                throw new IllegalStateException("Space limit was reached");
+            }
+            writeBytesAt(fat.updateClusterSequence(count, file.initialCluster), offset, bytes);
+            parentDir.replaceEntry(file.withSize(end));
+            updateFileAtDisk(parentDir.toByteArray(), parentDir.getSelfDirCluster());
+            usageCache.add(parentDir.getSelfDirCluster(), count - before, end - file.size, 0, 0);
+        } catch (Throwable e) {
+            return OperationResult.error("Write failed " + diskPath, e);
+        } finally {
+            event.commit();
+        }
+        return OperationResult.ok("Write succeed");
+    }
+
+    /**
+     * Up to {@code length} bytes of the file from {@code offset}, reading only the clusters they are in.
+     *
+     * @return fewer bytes at the end of the file, null if there is no file at the path
+     */
+    @Override
+    public synchronized byte[] readFile(String diskPath, long offset, int length) {
+        FATEvents.Operation event = FATEvents.Operation.begin("read", diskPath);
+        try {
+            DirectoryEntry file = getFileOrNull(diskPath);
+            if (file == null || file.isDir() || offset < 0 || length < 0) {
+                return null;
+            }
+            byte[] bytes = new byte[(int) Math.max(0, Math.min(length, file.size - offset))];
+            event.bytes = bytes.length;
+            if (bytes.length > 0) {
+                readBytesAt(fat.getFileSequenceWithStartingCluster(file.initialCluster), offset, bytes);
+            }
+            return bytes;
+        } catch (Throwable e) {
+            return null;
+        } finally {
+            event.commit();
+        }
+    }
+
+    @Override
+    public synchronized OperationResult copyFileToSystem(String diskPath, String systemPath) {
+        FATEvents.Operation event = FATEvents.Operation.begin("copy-out", diskPath);
+        try {
+            File systemFile = new File(systemPath);
+            if (systemFile.exists()) {
+                throw new IllegalArgumentException("File at path " + systemPath + " exists. Override option is not supported yet");
+            }
+            if (systemFile.isDirectory()) {
+                throw new IllegalArgumentException("File at path " + systemPath + " is a directory");
+            }
+            DirectoryEntry file = getFileOrNull(diskPath);
+            if (file == null) {
+                throw new IllegalArgumentException("File at path " + diskPath + " does not exist");
+            }
+            if (file.isDir()) {
+                throw new IllegalArgumentException("File at path " + diskPath + " is a directory");
+            }
+            event.bytes = file.size;
+
+            try (FileOutputStream fos = new FileOutputStream(systemFile);
+                 ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+                readFileFromDisk(baos, file);
+                baos.writeTo(fos);
+            } catch (IOException ioe) {
+                throw new IllegalStateException("Cannot write to file", ioe);
+            }
+
+        } catch (Throwable e) {
+            return OperationResult.error("Copy failed", e);
+        } finally {
+            event.commit();
+        }
+        return OperationResult.ok("Copy succeed");
+    }
+
+    @Override
+    public synchronized FATDirectory listDir(String diskPath) {
+        FATEvents.Operation event = FATEvents.Operation.begin("ls", diskPath);
+        try {
+            if (diskPath.equals("/")) {
+                return getRootDir();
+            }
+            DirectoryEntry file = getFileOrNull(diskPath);
+            if (file != null && file.isDir()) {
+                return readDirectory(file);
+            }
+        } catch (Throwable e) {
+            return null;
+        } finally {
+            event.commit();
+        }
+        return null;
+    }
+
+    /**
+     * Directory at the path as a {@link DirectoryView}, without decoding its entries.
+     *
+     * @return null if there is no directory at the path
+     */
+    @Override
+    public synchronized DirectoryView viewDir(String diskPath) {
+        FATEvents.Operation event = FATEvents.Operation.begin("ls", diskPath);
+        try {
+            DirectoryEntry file = getFileOrNull(diskPath);
+            if (file != null && file.isDir()) {
+                return viewDirectoryAt(file.initialCluster);
+            }
+        } catch (Throwable e) {
+            return null;
+        } finally {
+            event.commit();
+        }
+        return null;
+    }
+
+    /**
+     * Keeps boot record and FAT changes in memory until {@link #commit} or {@link #close}, whatever the
+     * sync policy. Data and directory clusters are still written right away, so an image left without
+     * its commit has to be repaired with {@link #check}.
+     */
+    public synchronized OperationResult deferCommit() {
+        if (!isDiskOpen) {
+            return OperationResult.error("Disk is not open");
+        }
+        commitDeferred = true;
+        return OperationResult.ok();
+    }
+
+    /**
+     * Writes the metadata kept in memory since {@link #deferCommit} and writes every later change
+     * right away again.
+     */
+    public synchronized OperationResult commit() {
+        try {
+            commitDeferred = false;
+            if (isDiskOpen) {
+                writePendingMetadata();
+                if (syncPolicy.forceEachChange) {
+                    device.flush();
+                }
+            }
+        } catch (Throwable e) {
+            return OperationResult.error("Commit failed", e);
+        }
+        return OperationResult.ok();
+    }
+
+    /**
+     * Writes the metadata kept pending by the sync policy or a deferred commit and forces the device,
+     * so everything done so far survives a crash. A deferred commit stays deferred.
+     */
+    @Override
+    public synchronized OperationResult sync() {
+        try {
+            if (!isDiskOpen) {
+                throw new IllegalStateException("Disk is not open");
+            }
+            if (flusher != null) {
+                flusher.checkFailure();
+            }
+            writePendingMetadata();
+            device.flush();
+        } catch (Throwable e) {
+            return OperationResult.error("Sync failed", e);
+        }
+        return OperationResult.ok();
+    }
+
+    /**
+     * Sets when metadata is written and the device forced, for the open disk and the ones opened
+     * later. Switching away from a policy that keeps metadata pending writes it first.
+     */
+    public synchronized OperationResult setSyncPolicy(SyncPolicy policy) {
+        try {
+            stopFlusher();
+            syncPolicy = policy;
+            if (isDiskOpen) {
+                if (policy.writeEachChange && !commitDeferred) {
+                    writePendingMetadata();
+                }
+                startFlusher();
+            }
+        } catch (Throwable e) {
+            return OperationResult.error("Cannot change sync policy", e);
+        }
+        return OperationResult.ok("Sync policy is " + policy);
+    }
+
+    public SyncPolicy getSyncPolicy() {
+        return syncPolicy;
+    }
+
+    /**
+     * Writes the pending metadata and starts recording the clusters and FAT sectors changed from now
+     * on under {@code name}, replacing an earlier checkpoint of that name. A copy of the image taken
+     * right after it is the base that {@link #exportDelta} brings up to date.
+     */
+    @Override
+    public synchronized OperationResult checkpoint(String name) {
+        try {
+            if (!isDiskOpen) {
+                throw new IllegalStateException("Disk is not open");
+            }
+            writePendingMetadata();
+            fat.trackDirtySectors(bootRecord.bytesInSector);
+            fat.takeDirtySectors();
+            changes.start(name);
+        } catch (Throwable e) {
+            return OperationResult.error("Checkpoint failed", e);
+        }
+        return OperationResult.ok();
+    }
+
+    /**
+     * Writes everything changed since the checkpoint into a delta file at {@code systemPath}. The
+     * checkpoint keeps recording, so a later delta holds this one's changes too.
+     */
+    @Override
+    public synchronized OperationResult exportDelta(String name, String systemPath) {
+        long bytes;
+        try {
+            ChangeTracker.Changes recorded = changes.get(name);
+            if (!isDiskOpen || recorded == null) {
+                throw new IllegalArgumentException("There is no checkpoint " + name);
+            }
+            File systemFile = new File(systemPath);
+            if (systemFile.exists()) {
+                throw new IllegalArgumentException("File at path " + systemPath + " already exists");
+            }
+            writePendingMetadata();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(systemFile)))) {
+                bytes = ImageDelta.export(name, recorded, bootRecord, device, out);
+            }
+        } catch (Throwable e) {
+            return OperationResult.error("Delta export failed", e);
+        }
+        return OperationResult.ok("Exported " + bytes + " bytes changed since " + name);
+    }
+
+    @Override
+    public OperationResult applyDelta(String deltaPath, String imagePath) {
+        File imageFile = new File(imagePath);
+        if (isDiskOpen && device.toString().equals(imageFile.getAbsolutePath())) {
+            return OperationResult.error("Cannot apply a delta to the open disk");
+        }
+        try (FileBlockDevice base = FileBlockDevice.open(imageFile)) {
+            return applyDelta(deltaPath, base);
+        } catch (Throwable e) {
+            return OperationResult.error("Cannot open image at path " + imagePath, e);
+        }
+    }
+
+    /**
+     * Brings a copy of an image taken at a checkpoint up to the state of a delta exported from it.
+     * Deltas of one checkpoint are cumulative, so only the latest one has to be applied.
+     */
+    @Override
+    public OperationResult applyDelta(String deltaPath, BlockDevice base) {
+        long bytes;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(deltaPath)))) {
+            bytes = ImageDelta.apply(in, base);
+        } catch (Throwable e) {
+            return OperationResult.error("Delta apply failed", e);
+        }
+        return OperationResult.ok("Applied " + bytes + " bytes");
+    }
+
+    private void writePendingMetadata() {
+        if (commitPending) {
+            writeMetadata();
+        }
+    }
+
+    private void startFlusher() {
+        if (syncPolicy.isBackground()) {
+            flusher = new BackgroundFlusher(this, () -> {
+                if (isDiskOpen && commitPending && !commitDeferred) {
+                    synchronized (fat) {
+                        writeMetadata();
+                    }
+                }
+            }, device, syncPolicy);
+        }
+    }
+
+    private void stopFlusher() {
+        if (flusher != null) {
+            BackgroundFlusher stopping = flusher;
+            flusher = null;
+            stopping.stop();
+        }
+    }
+
+    public boolean isCommitDeferred() {
+        return commitDeferred;
+    }
+
+    public boolean isDiskOpen() {
+        return isDiskOpen;
+    }
+
+    public FATMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public synchronized DiskSpaceInfo getDiskSpaceInfo() {
+        if (bootRecord == null) {
+            return null;
+        }
+        long allBytes = bootRecord.sectorsOnDisk * bootRecord.bytesInSector;
+        long freeBytes = fat.getAvailableClustersCount() * bootRecord.sectorsInCluster * bootRecord.bytesInSector;
+        publishClusterCounts();
+        return new DiskSpaceInfo(
+                bootRecord.getSystemType().name(),
+                allBytes,
+                freeBytes,
+                allBytes - freeBytes
+        );
+    }
+
+    @Override
+    public synchronized OperationResult deleteFile(String diskPath) {
+        FATEvents.Operation event = FATEvents.Operation.begin("delete", diskPath);
+        try {
+            DirectoryEntry file = getFileOrNull(diskPath);
+            if (file == null) {
+                return OperationResult.ok("There was no file at path " + diskPath);
+            }
+            delete(diskPath, file);
+        } catch (Throwable e) {
+            return OperationResult.error("Delete failed", e);
+        } finally {
+            event.commit();
+        }
+        return OperationResult.ok("Delete succeed");
+    }
+
+    @Override
+    public synchronized OperationResult mkDir(String diskPath) {
+        FATEvents.Operation event = FATEvents.Operation.begin("mkdir", diskPath);
+        try {
+            DirectoryEntry file = getFileOrNull(diskPath);
+            if (file != null) {
+                if (file.isDir()) {
+                    return OperationResult.ok("Directory was already created");
+                } else {
+                    throw new IllegalArgumentException("There is a file at path " + diskPath);
+                }
+            }
+            FATDirectory parentDir = getParentDirOrNull(diskPath);
+            if (parentDir == null) {
+                throw new IllegalArgumentException("Cannot find parent for " + diskPath);
+            }
+            FATDirectory newDir = FATDirectory.empty(parentDir.getSelfDirCluster());
+            long start = writeBytesToDisk(newDir.toByteArray());
+            String[] split = Arrays.stream(diskPath.split("/")).filter(v -> !v.trim().isEmpty()).toArray(String[]::new);
+            String name = split[split.length - 1].trim();
+            if (name.isEmpty() || name.equals(".") || name.equals("..")) {
+                throw new IllegalArgumentException("Directory cannot have a name \"" + name + "\"");
+            }
+            parentDir.appendEntry(DirectoryEntry.directory(name, start));
+            updateFileAtDisk(parentDir.toByteArray(), parentDir.getSelfDirCluster());
+            usageCache.directoryAdded(parentDir.getSelfDirCluster(), start, fat.chainLength(start));
+            newDir.setSelfCluster(start);
+            updateFileAtDisk(newDir.toByteArray(), start);
+        } catch (Throwable e) {
+            return OperationResult.error("Make dir failed", e);
+        } finally {
+            event.commit();
+        }
+        return OperationResult.ok();
+    }
+
+    @Override
+    public synchronized OperationResult goToDir(String diskPath) {
+        try {
+            DirectoryEntry file = getFileOrNull(diskPath);
+            if (file == null) {
+                throw new IllegalArgumentException("File at path " + diskPath + " does not exist");
+            }
+            if (!file.isDir()) {
+                throw new IllegalArgumentException("File at path " + diskPath + " is not a directory");
+            }
+        } catch (Throwable e) {
+            return OperationResult.error("Dir change failed", e);
+        }
+        currentPath = diskPath;
+        return OperationResult.ok();
+    }
+
+    @Override
+    public synchronized OperationResult cat(String diskPath) {
+        try {
+            DirectoryEntry file = getFileOrNull(diskPath);
+            if (file == null) {
+                throw new IllegalArgumentException("File at path " + diskPath + " does not exist");
+            }
+            if (file.isDir()) {
+                throw new IllegalArgumentException("File at path " + diskPath + " is a directory");
+            }
+
+            try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+                readFileFromDisk(baos, file);
+                return OperationResult.ok(new String(baos.toByteArray(), StandardCharsets.US_ASCII));
+            } catch (IOException ioe) {
+                throw new IllegalStateException("Cannot write to file", ioe);
+            }
+
+        } catch (Throwable e) {
+            return OperationResult.error("Cat failed", e);
+        }
+    }
+
+    @Override
+    public Stream<WalkEntry> walk(String diskPath, int maxDepth) {
+        return walk(diskPath, maxDepth, e -> true, false);
+    }
+
+    /**
+     * Lazily walks the tree under the directory at {@code diskPath} depth first, without the directory
+     * itself. Directories are read cluster by cluster when the stream reaches them, each step under the
+     * disk lock, and the stream fails if the disk is closed or reopened before it is done.
+     *
+     * @param maxDepth number of levels to walk, 1 for the children only
+     * @param descend  directories it rejects are returned but their subtrees are skipped
+     * @param parallel walk the subtrees of the children in parallel, in no particular order
+     * @return null if there is no directory at the path
+     */
+    @Override
+    public synchronized Stream<WalkEntry> walk(String diskPath, int maxDepth, Predicate<WalkEntry> descend, boolean parallel) {
+        long startCluster;
+        FileAllocationTable table = fat;
+        int bytesInCluster;
+        try {
+            bytesInCluster = bootRecord.bytesInCluster();
+            DirectoryEntry start = getFileOrNull(diskPath);
+            if (start == null || !start.isDir()) {
+                return null;
+            }
+            startCluster = start.initialCluster;
+        } catch (Throwable e) {
+            return null;
+        }
+        String path = diskPath.equals("/") ? "" : diskPath;
+        if (!parallel) {
+            return walkFrom(table, bytesInCluster, path, 0, startCluster, maxDepth, descend);
+        }
+        return walkFrom(table, bytesInCluster, path, 0, startCluster, Math.min(maxDepth, 1), descend)
+                .parallel()
+                .flatMap(child -> child.isDir() && maxDepth > 1 && descend.test(child)
+                        ? Stream.concat(Stream.of(child), walkFrom(table, bytesInCluster, child.path, 1, child.entry.initialCluster, maxDepth, descend))
+                        : Stream.of(child));
+    }
+
+    /**
+     * @param table FAT of the disk the walk started on, every step checks that it is still the open one
+     */
+    private Stream<WalkEntry> walkFrom(FileAllocationTable table, int bytesInCluster, String path, int depth, long cluster, int maxDepth, Predicate<WalkEntry> descend) {
+        DirectoryWalker walker = new DirectoryWalker(
+                (c, bytes) -> {
+                    synchronized (this) {
+                        checkWalkedDisk(table);
+                        readCluster(c, bytes);
+                    }
+                },
+                c -> {
+                    synchronized (this) {
+                        checkWalkedDisk(table);
+                        return table.nextCluster(c);
+                    }
+                },
+                bytesInCluster, path, depth, cluster, maxDepth, descend);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(walker, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    private void checkWalkedDisk(FileAllocationTable table) {
+        if (!isDiskOpen || fat != table) {
+            throw new IllegalStateException("Disk was closed during the walk");
+        }
+    }
+
+    /**
+     * Allocated clusters and logical bytes of the file or the whole subtree at {@code diskPath}.
+     * Directory totals are computed in parallel once and then kept up to date by every change.
+     *
+     * @return null if there is nothing at the path
+     */
+    @Override
+    public synchronized DiskUsage getDiskUsage(String diskPath) {
+        try {
+            DirectoryEntry file = getFileOrNull(diskPath);
+            if (file == null) {
+                return null;
+            }
+            int bytesInCluster = bootRecord.bytesInCluster();
+            if (!file.isDir()) {
+                long clusters = fat.chainLength(file.initialCluster);
+                return new DiskUsage(diskPath, clusters, clusters * bytesInCluster, file.size, 1, 0);
+            }
+            UsageCache.Node node = usageCache.get(file.initialCluster, ForkJoinPool.commonPool());
+            return new DiskUsage(diskPath, node.clusters, node.clusters * bytesInCluster, node.bytes, node.files, node.directories);
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized FragmentationReport getFragmentationReport() {
+        try {
+            List<FragmentationReport.FileFragmentation> files = new ArrayList<>();
+            collectFragmentation(getRootDir(), "", files);
+            return new FragmentationReport(files, fat.countFreeExtents());
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    /**
+     * Moves fragmented files and directories into the lowest free runs long enough to hold them whole.
+     * Chains without such a run are left as they are. The budget is checked before every chain, so
+     * repeated calls continue where the previous one stopped. The root directory is not moved.
+     */
+    @Override
+    public synchronized OperationResult defragment(DefragmentBudget budget) {
+        int[] counters = new int[3]; // relocated, left without a free run, fragmented
+        long[] ioBytes = new long[1];
+        boolean complete;
+        try {
+            complete = defragmentDirectory(getRootDir(), FreeRuns.of(fat), budget, System.nanoTime(), ioBytes, counters);
+        } catch (Throwable e) {
+            return OperationResult.error("Defragmentation failed after " + counters[0] + " files", e);
+        }
+        return OperationResult.ok((complete ? "Defragmentation complete" : "Defragmentation budget exhausted")
+                + ", relocated " + counters[0] + " of " + counters[2] + " fragmented files and directories, "
+                + counters[1] + " without a free run, " + ioBytes[0] + " bytes moved");
+    }
+
+    /**
+     * Checks the whole image in parallel. With {@code repair} lost chains are freed, chains that are
+     * broken or cross-linked are cut where they stop being the entry's own, chains longer than the
+     * file size are trimmed and sizes beyond the chain are reduced to it. Entries without a single
+     * cluster of their own are removed. Duplicate names and unreadable directories are only reported.
+     */
+    @Override
+    public synchronized CheckReport check(boolean repair) {
+        if (!isDiskOpen) {
+            return null;
+        }
+        try {
+            FATChecker checker = new FATChecker(bootRecord, fat, device, unlinkedChains);
+            CheckReport report = checker.run(ForkJoinPool.commonPool());
+            if (repair && !report.isClean()) {
+                report.repaired = repair(checker);
+            }
+            return report;
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    private int repair(FATChecker checker) {
+        int repaired = 0;
+        // chains first, so every directory can be read when its entries are rewritten
+        Map<Long, Map<Integer, DirectoryEntry>> byParent = new LinkedHashMap<>(); // parent -> slot -> repaired entry
+        for (FATChecker.EntryFix fix : checker.getFixes()) {
+            DirectoryEntry repairedEntry = repairChain(fix);
+            if (fix.entry != null) {
+                byParent.computeIfAbsent(fix.parentCluster, k -> new LinkedHashMap<>()).put(fix.slot, repairedEntry);
+            }
+            repaired++;
+        }
+        for (Map.Entry<Long, Map<Integer, DirectoryEntry>> e : byParent.entrySet()) {
+            FATDirectory parentDir = readDirectoryAt(e.getKey());
+            for (Map.Entry<Integer, DirectoryEntry> entry : e.getValue().entrySet()) {
+                if (entry.getValue() == null) {
+                    parentDir.removeEntryAt(entry.getKey());
+                } else {
+                    parentDir.replaceEntryAt(entry.getKey(), entry.getValue());
+                }
+            }
+            updateFileAtDisk(parentDir.toByteArray(), parentDir.getSelfDirCluster());
+        }
+        usageCache.clear();
+        long[] lost = checker.getLostClusters();
+        if (lost.length > 0) {
+            fat.deleteClusters(lost);
+            repaired++;
+        }
+        writeDiskToFile();
+        return repaired;
+    }
+
+    /**
+     * @return entry pointing at the repaired chain, or null if the entry has to be removed
+     */
+    private DirectoryEntry repairChain(FATChecker.EntryFix fix) {
+        DirectoryEntry entry = fix.entry;
+        long[] chain = fix.chain;
+        if (chain.length == 0) {
+            return null;
+        }
+        if (entry == null) {
+            fat.terminateChainAt(chain[chain.length - 1]);
+            return null;
+        }
+        long size = entry.size;
+        if (!entry.isDir()) {
+            int needed = (int) Math.max(1, (size + bootRecord.bytesInCluster() - 1) / bootRecord.bytesInCluster());
+            if (chain.length > needed) {
+                fat.terminateChainAt(chain[needed - 1]);
+                fat.deleteClusters(Arrays.copyOfRange(chain, needed, chain.length));
+                chain = Arrays.copyOf(chain, needed);
+            } else if (fix.cut) {
+                fat.terminateChainAt(chain[chain.length - 1]);
+            }
+            size = Math.min(size, (long) chain.length * bootRecord.bytesInCluster());
+        } else if (fix.cut) {
+            fat.terminateChainAt(chain[chain.length - 1]);
+        }
+        return new DirectoryEntry(entry.name, entry.extension, entry.attribute, (int) chain[0], (int) size);
+    }
+
+    private void collectFragmentation(FATDirectory dir, String path, List<FragmentationReport.FileFragmentation> files) {
+        for (DirectoryEntry e : dir.entries) {
+            if (e.isSelfDir() || e.isParentDir() || e.initialCluster < 2) {
+                continue;
+            }
+            String entryPath = path + "/" + e.fileNameWithExtension();
+            long[] chain = fat.getFileSequenceWithStartingCluster(e.initialCluster);
+            files.add(new FragmentationReport.FileFragmentation(entryPath, e.isDir(), chain.length, FileAllocationTable.countExtents(chain)));
+            if (e.isDir()) {
+                collectFragmentation(readDirectory(e), entryPath, files);
+            }
+        }
+    }
+
+    /**
+     * @param freeRuns free runs of the table, read once per pass and kept up to date by {@link #relocate}
+     */
+    private boolean defragmentDirectory(FATDirectory dir, FreeRuns freeRuns, DefragmentBudget budget, long startedAt, long[] ioBytes, int[] counters) {
+        for (DirectoryEntry e : dir.entries) {
+            if (e.isSelfDir() || e.isParentDir() || e.initialCluster < 2) {
+                continue;
+            }
+            DirectoryEntry current = e;
+            long[] chain = fat.getFileSequenceWithStartingCluster(e.initialCluster);
+            if (FileAllocationTable.countExtents(chain) > 1) {
+                counters[2]++;
+                if (budget.isExhausted(startedAt, ioBytes[0])) {
+                    return false;
+                }
+                long start = freeRuns.take(chain.length);
+                if (start == -1) {
+                    counters[1]++;
+                } else {
+                    current = relocate(dir, e, chain, start, freeRuns);
+                    ioBytes[0] += 2L * chain.length * bootRecord.bytesInCluster();
+                    counters[0]++;
+                }
+            }
+            if (current.isDir() && !defragmentDirectory(readDirectory(current), freeRuns, budget, startedAt, ioBytes, counters)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies the chain into the free run, points the directory entry at it and only then frees the
+     * old chain, so an interruption leaves at worst a lost chain, never a file without data. A moved
+     * directory gets its . entry and the .. entries of its subdirectories pointed at the new chain.
+     *
+     * @return entry pointing at the new chain
+     */
+    private DirectoryEntry relocate(FATDirectory parentDir, DirectoryEntry file, long[] chain, long start, FreeRuns freeRuns) {
+        long[] target = fat.putClustersAt(start, chain.length);
+        if (file.isDir()) {
+            FATDirectory moved = readDirectory(file);
+            moved.setSelfCluster(target[0]);
+            fillClusters(moved.toByteArray(), bootRecord.bytesInCluster(), target);
+            for (DirectoryEntry child : moved.entries) {
+                if (child.isDir() && !child.isSelfDir() && !child.isParentDir() && child.initialCluster >= 2) {
+                    FATDirectory childDir = readDirectory(child);
+                    childDir.replaceEntry(childDir.getParentDirEntry().withInitialCluster(target[0]));
+                    updateFileAtDisk(childDir.toByteArray(), childDir.getSelfDirCluster());
+                }
+            }
+            usageCache.clear();
+        } else {
+            copyClusters(chain, target);
+        }
+        DirectoryEntry relocated = file.withInitialCluster(target[0]);
+        parentDir.replaceEntry(relocated);
+        updateFileAtDisk(parentDir.toByteArray(), parentDir.getSelfDirCluster());
+        fat.deleteClusters(chain);
+        freeRuns.add(chain);
+        writeDiskToFile();
+        return relocated;
+    }
+
+    /**
+     * Copies every cluster of {@code from} into {@code to}, which is at least as long, through one pooled
+     * buffer of up to {@link #TRANSFER_BYTES} with a device call per run of consecutive clusters.
+     */
+    private void copyClusters(long[] from, long[] to) {
+        int bytesInCluster = bootRecord.bytesInCluster();
+        long total = (long) from.length * bytesInCluster;
+        try (ClusterBufferPool.Buffer buffer = buffers.acquire((int) Math.min(total, Math.max(bytesInCluster, TRANSFER_BYTES / bytesInCluster * bytesInCluster)))) {
+            byte[] chunk = buffer.array();
+            for (long offset = 0; offset < total; offset += buffer.length()) {
+                int length = (int) Math.min(buffer.length(), total - offset);
+                readBytesAt(from, offset, chunk, length);
+                writeBytesAt(to, offset, chunk, length);
+            }
+        }
+    }
+
+    private void delete(String diskPath, DirectoryEntry file) {
+        if (getRootDir().getSelfDirEntry().initialCluster == file.initialCluster) {
+            throw new IllegalArgumentException("Cannot delete root directory");
+        }
+        FATDirectory parentDir = getParentDirOrNull(diskPath);
+        if (parentDir == null) {
+            throw new IllegalStateException("Cannot find file at path " + diskPath);
+        }
+        parentDir.markForDeletion(file);
+        if (!file.isDir()) {
+            usageCache.add(parentDir.getSelfDirCluster(), -fat.chainLength(file.initialCluster), -file.size, -1, 0);
+            fat.deleteClustersFrom(file.initialCluster);
+        } else {
+            usageCache.directoryRemoved(parentDir.getSelfDirCluster(), file.initialCluster);
+            deleteRecursively(file);
+        }
+        updateFileAtDisk(parentDir.toByteArray(), parentDir.getSelfDirCluster());
+    }
+
+    private void deleteRecursively(DirectoryEntry file) {
+        if (!file.isDir()) {
+            fat.deleteClustersFrom(file.initialCluster);
+            return;
+        }
+        FATDirectory dirToDelete = readDirectory(file);
+        for (DirectoryEntry e : dirToDelete.entries) {
+            if (!e.isSelfDir() && !e.isParentDir())
+                deleteRecursively(e);
+        }
+        fat.deleteClustersFrom(dirToDelete.getSelfDirCluster());
+        usageCache.remove(dirToDelete.getSelfDirCluster());
+    }
+
+    /**
+     * Walks the path over {@link DirectoryView}s of one reused buffer, decoding only the entry it ends at.
+     */
+    private DirectoryEntry getFileOrNull(@NotNull String diskPath) {
+        long startedAt = System.nanoTime();
+        int index = 0;
+        try {
+            DirectoryView current = scratchView(bootRecord.getRootCluster());
+            if (diskPath.equals("/")) {
+                for (int i = 0; i < current.size(); i++) {
+                    if (current.isSelfDir(i)) {
+                        return current.entry(i);
+                    }
+                }
+                throw new IllegalStateException("Directory does not have a . reference");
+            }
+            String[] split = splitPath(diskPath);
+            while (index < split.length) {
+                byte[] name = DirectoryView.encodeName(split[index]);
+                int found = name == null ? -1 : current.indexOf(name);
+                if (found == -1) {
+                    return null;
+                }
+                index = index + 1;
+                if (index == split.length) {
+                    return current.entry(found);
+                }
+                if (!current.isDir(found)) {
+                    return null;
+                }
+                current = scratchView(current.initialCluster(found));
+            }
+            return null;
+        } finally {
+            metrics.pathResolved(index, System.nanoTime() - startedAt);
+        }
+    }
+
+    private FATDirectory getParentDirOrNull(@NotNull String diskPath) {
+        long startedAt = System.nanoTime();
+        int index = 0;
+        try {
+            String[] split = splitPath(diskPath);
+            if (diskPath.equals("/") || split.length == 1) {
+                return getRootDir();
+            }
+            DirectoryView current = scratchView(bootRecord.getRootCluster());
+            while (index < split.length - 1) {
+                byte[] name = DirectoryView.encodeName(split[index]);
+                int found = name == null ? -1 : current.indexOf(name);
+                if (found == -1 || !current.isDir(found)) {
+                    return null;
+                }
+                index = index + 1;
+                if (index == split.length - 1) {
+                    return readDirectoryAt(current.initialCluster(found));
+                }
+                current = scratchView(current.initialCluster(found));
+            }
+            return null;
+        } finally {
+            metrics.pathResolved(index, System.nanoTime() - startedAt);
+        }
+    }
+
+    private static String[] splitPath(@NotNull String diskPath) {
+        return Arrays.stream(diskPath.split("/")).filter(v -> !v.trim().isEmpty()).toArray(String[]::new);
+    }
+
+    private void readFileFromDisk(@NotNull ByteArrayOutputStream stream, @NotNull DirectoryEntry file) throws IOException {
+        if (file.isDir()) {
+            stream.write(readDirectory(file).toByteArray());
+        } else {
+            readFileBytesFromCluster(stream, file.initialCluster, file.size);
+        }
+    }
+
+    private void readFileBytesFromCluster(@NotNull ByteArrayOutputStream stream, @NotNull long startingCluster, @NotNull long size) throws IOException {
+        long[] clusters = fat.getFileSequenceWithStartingCluster(startingCluster);
+        long readCount = size / bootRecord.bytesInCluster();
+        int last = (int) (size % bootRecord.bytesInCluster());
+        if (last > 0) readCount++;
+        if (readCount > clusters.length) {
+            throw new IllegalStateException("Clusters are corrupted");
+        }
+        byte[] bytes = new byte[(int) size];
+        readBytesAt(clusters, 0, bytes);
+        stream.write(bytes);
+    }
+
+    private long writeBytesToDisk(@NotNull byte[] bytes) {
+        long[] clusters = allocateClusters(bytes.length);
+        fillClusters(bytes, bootRecord.bytesInCluster(), clusters);
+        return clusters[0];
+    }
+
+    private long[] allocateClusters(int bytes) {
+        int bytesInCluster = bootRecord.bytesInCluster();
+        int clustersCount = bytes / bytesInCluster;
+        int last = bytes % bytesInCluster;
+        if (last > 0) clustersCount++;
+        if (!fat.canPutClusters(clustersCount)) {
+            metrics.allocationFailed();
+            throw new IllegalStateException("Space limit was reached");
+        }
+        return fat.putClusters(clustersCount);
+    }
+
+    /**
+     * Writes {@code bytes} into {@code clusters} with the rest of the last cluster zeroed, one device
+     * write per run of consecutive clusters straight from the array. The padding of the last run is
+     * gathered into the same write. Does not need the disk lock and does not record the clusters as
+     * changed, callers do that when the clusters are linked in.
+     */
+    private void writeClusters(long[] clusters, byte[] bytes) throws IOException {
+        int bytesInCluster = bootRecord.bytesInCluster();
+        long firstSectorOffset = bootRecord.firstSectorOffset();
+        for (int first = 0; first < clusters.length; ) {
+            int last = first;
+            while (last + 1 < clusters.length && clusters[last + 1] == clusters[last] + 1) {
+                last++;
+            }
+            int from = first * bytesInCluster;
+            int runBytes = (last - first + 1) * bytesInCluster;
+            int length = Math.max(0, Math.min(runBytes, bytes.length - from));
+            ByteBuffer data = ByteBuffer.wrap(bytes, from, length).slice();
+            long position = firstSectorOffset + clusters[first] * bytesInCluster;
+            if (length == runBytes) {
+                device.write(position, data);
+            } else {
+                try (ClusterBufferPool.Buffer padding = buffers.acquire(runBytes - length)) {
+                    byte[] zeros = padding.array();
+                    Arrays.fill(zeros, 0, padding.length(), (byte) 0);
+                    device.write(position, new ByteBuffer[]{data, ByteBuffer.wrap(zeros, 0, padding.length())});
+                }
+            }
+            metrics.clustersWritten(last - first + 1, runBytes);
+            first = last + 1;
+        }
+    }
+
+    private void updateFileAtDisk(@NotNull byte[] bytes, @NotNull long initialCluster) {
+        int bytesInCluster = bootRecord.bytesInCluster();
+        int clustersCount = bytes.length / bytesInCluster;
+        int last = bytes.length % bytesInCluster;
+        if (last > 0) clustersCount++;
+
+        long before = usageCache != null && usageCache.contains(initialCluster) ? fat.chainLength(initialCluster) : -1;
+        long[] clusters;
+        try {
+            clusters = fat.updateClusterSequence(clustersCount, initialCluster);
+        } catch (IllegalStateException e) {
+            if (!fat.canPutClusters(clustersCount)) {
+                metrics.allocationFailed();
+            }
+            throw e;
+        }
+        if (before != -1) {
+            usageCache.add(initialCluster, clusters.length - before, 0, 0, 0);
+        }
+        fillClusters(bytes, bytesInCluster, clusters);
+        writeDiskToFile();
+    }
+
+    private void fillClusters(@NotNull byte[] bytes, int bytesInCluster, long[] clusters) {
+        try {
+            writeClusters(clusters, bytes);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write to cluster", e);
+        }
+        for (long cluster : clusters) {
+            changes.clusterWritten(cluster);
+        }
+    }
+
+    private void writeBytesAt(long[] clusters, long offset, byte[] bytes) {
+        writeBytesAt(clusters, offset, bytes, bytes.length);
+    }
+
+    /**
+     * Writes the first {@code count} bytes at {@code offset} of the file made of {@code clusters}, one
+     * device write per run of consecutive clusters and without filling the rest of partially written
+     * clusters.
+     */
+    private void writeBytesAt(long[] clusters, long offset, byte[] bytes, int count) {
+        int bytesInCluster = bootRecord.bytesInCluster();
+        int written = 0;
+        try {
+            while (written < count) {
+                long fileOffset = offset + written;
+                int first = (int) (fileOffset / bytesInCluster);
+                int last = first;
+                long runBytes = bytesInCluster - fileOffset % bytesInCluster;
+                while (runBytes < count - written && last + 1 < clusters.length && clusters[last + 1] == clusters[last] + 1) {
+                    last++;
+                    runBytes += bytesInCluster;
+                }
+                int length = (int) Math.min(runBytes, count - written);
+                long position = bootRecord.firstSectorOffset() + clusters[first] * bytesInCluster + fileOffset % bytesInCluster;
+                device.write(position, bytes, written, length);
+                for (int i = first; i <= last; i++) {
+                    changes.clusterWritten(clusters[i]);
+                }
+                metrics.clustersWritten(last - first + 1, length);
+                written += length;
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write to cluster", e);
+        }
+    }
+
+    private void readBytesAt(long[] clusters, long offset, byte[] bytes) {
+        readBytesAt(clusters, offset, bytes, bytes.length);
+    }
+
+    /**
+     * Reads {@code count} bytes from {@code offset} of the file made of {@code clusters} into the start
+     * of {@code bytes}, one device read per run of consecutive clusters.
+     */
+    private void readBytesAt(long[] clusters, long offset, byte[] bytes, int count) {
+        int bytesInCluster = bootRecord.bytesInCluster();
+        int read = 0;
+        try {
+            while (read < count) {
+                long fileOffset = offset + read;
+                int first = (int) (fileOffset / bytesInCluster);
+                if (first >= clusters.length) {
+                    throw new IllegalStateException("Clusters are corrupted");
+                }
+                int last = first;
+                long runBytes = bytesInCluster - fileOffset % bytesInCluster;
+                while (runBytes < count - read && last + 1 < clusters.length && clusters[last + 1] == clusters[last] + 1) {
+                    last++;
+                    runBytes += bytesInCluster;
+                }
+                int length = (int) Math.min(runBytes, count - read);
+                long position = bootRecord.firstSectorOffset() + clusters[first] * bytesInCluster + fileOffset % bytesInCluster;
+                device.read(position, bytes, read, length);
+                metrics.clustersRead(last - first + 1, length);
+                read += length;
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read cluster", e);
+        }
+    }
+
+    /**
+     * Zeros the clusters that lie within the device, the ones past its end already read as zeros.
+     */
+    private void zeroClusters(long[] clusters) {
+        int bytesInCluster = bootRecord.bytesInCluster();
+        try (ClusterBufferPool.Buffer buffer = buffers.acquire(Math.max(bytesInCluster, TRANSFER_BYTES / bytesInCluster * bytesInCluster))) {
+            byte[] zeros = buffer.array();
+            Arrays.fill(zeros, 0, buffer.length(), (byte) 0);
+            long deviceSize = device.size();
+            int first = 0;
+            while (first < clusters.length) {
+                int last = first;
+                while (last + 1 < clusters.length && clusters[last + 1] == clusters[last] + 1 && (long) (last + 2 - first) * bytesInCluster <= buffer.length()) {
+                    last++;
+                }
+                long position = bootRecord.firstSectorOffset() + clusters[first] * bytesInCluster;
+                int length = (int) Math.min((long) (last - first + 1) * bytesInCluster, deviceSize - position);
+                if (length > 0) {
+                    device.write(position, zeros, 0, length);
+                    metrics.clustersWritten((length + bytesInCluster - 1) / bytesInCluster, length);
+                    for (int i = first; i <= last; i++) {
+                        changes.clusterWritten(clusters[i]);
+                    }
+                }
+                first = last + 1;
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write to cluster", e);
+        }
+    }
+
+    private static String[] splitFileName(@NotNull String diskPath) {
+        String[] split = splitPath(diskPath);
+        return split[split.length - 1].split("\\.");
+    }
+
+    private FATDirectory readDirectory(@NotNull DirectoryEntry directory) {
+        if (!directory.isDir()) {
+            throw new IllegalArgumentException("Cannot read directory at " + directory.initialCluster);
+        }
+        return readDirectoryAt(directory.initialCluster);
+    }
+
+    /**
+     * Reads into a pooled buffer, the parsed directory does not refer to it.
+     */
+    private FATDirectory readDirectoryAt(long initialCluster) {
+        long[] clusters = directoryChain(initialCluster);
+        try (ClusterBufferPool.Buffer buffer = buffers.acquire(clusters.length * bootRecord.bytesInCluster())) {
+            return FATDirectory.read(readDirectoryBytes(initialCluster, clusters, buffer.array()));
+        }
+    }
+
+    private DirectoryView viewDirectoryAt(long initialCluster) {
+        return new DirectoryView(readDirectoryBytes(initialCluster, null));
+    }
+
+    /**
+     * View over {@link #pathScratch}, valid until the next call. Only for path resolution, which
+     * runs on the caller's thread.
+     */
+    private DirectoryView scratchView(long initialCluster) {
+        pathScratch = readDirectoryBytes(initialCluster, pathScratch);
+        return new DirectoryView(pathScratch);
+    }
+
+    /**
+     * Every cluster of the directory, read straight into one array with one device read per run of
+     * consecutive clusters.
+     *
+     * @param reuse array to read into if it is large enough, the end of the directory is marked in it
+     */
+    private byte[] readDirectoryBytes(long initialCluster, byte[] reuse) {
+        return readDirectoryBytes(initialCluster, directoryChain(initialCluster), reuse);
+    }
+
+    private byte[] readDirectoryBytes(long initialCluster, long[] clusters, byte[] reuse) {
+        metrics.directoryRead();
+        FATEvents.DirectoryRead event = new FATEvents.DirectoryRead();
+        event.begin();
+        int bytesInCluster = bootRecord.bytesInCluster();
+        int length = clusters.length * bytesInCluster;
+        byte[] bytes = reuse != null && reuse.length >= length ? reuse : new byte[length];
+        if (bytes.length > length) {
+            Arrays.fill(bytes, length, length + 3, (byte) 0);
+        }
+        try {
+            for (int first = 0; first < clusters.length; ) {
+                int last = first;
+                while (last + 1 < clusters.length && clusters[last + 1] == clusters[last] + 1) {
+                    last++;
+                }
+                int runBytes = (last - first + 1) * bytesInCluster;
+                device.read(bootRecord.firstSectorOffset() + clusters[first] * bytesInCluster, bytes, first * bytesInCluster, runBytes);
+                metrics.clustersRead(last - first + 1, runBytes);
+                first = last + 1;
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read directory at " + initialCluster, e);
+        }
+        if (event.shouldCommit()) {
+            event.cluster = initialCluster;
+            event.clusters = clusters.length;
+            event.bytes = length;
+            event.commit();
+        }
+        return bytes;
+    }
+
+    private long[] directoryChain(long initialCluster) {
+        synchronized (fat) {
+            return fat.getFileSequenceWithStartingCluster(initialCluster);
+        }
+    }
+
+    private void format(@NotNull BlockDevice device, @NotNull DiskCreationParams diskParams) throws IOException {
+        if (diskParams.quickFormat) {
+            BootRecord newBootRecord = new BootRecord(diskParams);
+            writeQuickFormat(newBootRecord, device, diskParams.preallocate);
+            initWithParams(newBootRecord, device, DiskOpenParams.paged(DiskOpenParams.DEFAULT_FAT_CACHE_BYTES), false);
+        } else {
+            initWithParams(new BootRecord(diskParams), device, DiskOpenParams.standard(), true);
+        }
+    }
+
+    /**
+     * @param format write a fresh table and root directory instead of reading them from the device
+     */
+    private void initWithParams(@NotNull BootRecord bootRecord, @NotNull BlockDevice device, @NotNull DiskOpenParams openParams, boolean format) throws IOException {
+        this.bootRecord = bootRecord;
+        this.device = device;
+        if (metrics != null) {
+            metrics.unregister();
+        }
+        metrics = new FATMetrics(device.toString());
+        buffers = new ClusterBufferPool(bootRecord.bytesInCluster(), ClusterBufferPool.DEFAULT_RETAINED_BYTES);
+        metrics.attach(buffers);
+        boolean trustFreeSpaceInfo = bootRecord.hasTrustedFreeSpaceInfo();
+        bootRecord.setVolumeDirty(true);
+
+        if (format) {
+            long initialCLuster = bootRecord.getRootCluster();
+            fat = FileAllocationTable.createTableWithSize(bootRecord.getSystemType(), bootRecord.clustersOnDisk(), initialCLuster);
+            publishClusterCounts();
+            FATDirectory root = FATDirectory.empty(initialCLuster);
+            updateFileAtDisk(root.toByteArray(), initialCLuster);
+            writeMetadata();
+            startMirroring(openParams);
+        } else {
+            long freeClustersHint = trustFreeSpaceInfo ? bootRecord.fat32_freeClusterCount : -1;
+            long nextFreeHint = trustFreeSpaceInfo ? bootRecord.fat32_nextFreeCluster : -1;
+            if (openParams.offHeapFat) {
+                fat = FileAllocationTable.readOffHeap(bootRecord.getSystemType(), device, bootRecord.activeFatOffset(), bootRecord.clustersOnDisk(), freeClustersHint, nextFreeHint);
+            } else if (openParams.pagedFat) {
+                fat = FileAllocationTable.readPaged(bootRecord.getSystemType(), device, bootRecord.activeFatOffset(), bootRecord.clustersOnDisk(), openParams.fatCacheBytes, freeClustersHint, nextFreeHint);
+            } else {
+                try (InputStream fatStream = bootRecord.getFatSection(device)) {
+                    fat = FileAllocationTable.read(bootRecord.getSystemType(), fatStream, bootRecord.clustersOnDisk(), freeClustersHint, nextFreeHint);
+                }
+            }
+            publishClusterCounts();
+            startMirroring(openParams);
+            if (bootRecord.getSystemType() == FATType.FAT32) {
+                writeBootRecord();
+            }
+        }
+        usageCache = new UsageCache(bootRecord.getRootCluster(), this::viewDirectoryAt, c -> {
+            synchronized (fat) {
+                return fat.chainLength(c);
+            }
+        });
+        metrics.register();
+        isDiskOpen = true;
+        startFlusher();
+    }
+
+    /**
+     * With several FAT copies only the active one is written by operations, the mirrors are updated
+     * by a {@link FATMirrorWriter}. Until a clean close marks the copies as mirrored again, a FAT32
+     * image names the active copy in its fatUpdateMode, so a reader that finds them different knows
+     * which one to trust.
+     */
+    private void startMirroring(@NotNull DiskOpenParams openParams) {
+        if (bootRecord.fatCopies() == 1) {
+            return;
+        }
+        boolean mirrored = bootRecord.isFatMirrored();
+        bootRecord.setFatMirrored(false);
+        fat.trackDirtySectors(bootRecord.bytesInSector);
+        mirrorWriter = new FATMirrorWriter(device, bootRecord, openParams.mirrorFatInBackground);
+        if (!mirrored) {
+            mirrorWriter.scheduleAll();
+        }
+    }
+
+    private void writeQuickFormat(@NotNull BootRecord bootRecord, @NotNull BlockDevice device, boolean preallocate) throws IOException {
+        long rootCluster = bootRecord.getRootCluster();
+        int bytesInCluster = bootRecord.bytesInCluster();
+        if (bootRecord.getSystemType() == FATType.FAT32) {
+            bootRecord.fat32_hasFsInfo = true;
+            bootRecord.fat32_freeClusterCount = bootRecord.clustersOnDisk() - 3;
+            bootRecord.fat32_nextFreeCluster = rootCluster + 1;
+            bootRecord.setFatMirrored(true); // every copy is written below
+        }
+        long rootDirEnd = bootRecord.firstSectorOffset() + (rootCluster + 1) * bytesInCluster;
+        long diskEnd = bootRecord.firstSectorOffset() + bootRecord.clustersOnDisk() * bytesInCluster;
+        device.setSize(preallocate ? Math.max(rootDirEnd, diskEnd) : rootDirEnd);
+        byte[] bootBytes = bootRecord.toByteArray();
+        device.write(0, bootBytes, 0, bootBytes.length);
+        byte[] fatSectors = FileAllocationTable.formattedSectors(bootRecord.getSystemType(), rootCluster, bootRecord.bytesInSector, bootRecord.getFatSectionSizeInBytes());
+        for (int copy = 0; copy < bootRecord.fatCopies(); copy++) {
+            device.write(bootRecord.fatCopyOffset(copy), fatSectors, 0, fatSectors.length);
+        }
+        byte[] rootBytes = FATDirectory.empty(rootCluster).toByteArray();
+        device.write(bootRecord.firstSectorOffset() + rootCluster * bytesInCluster, rootBytes, 0, rootBytes.length);
+    }
+
+    private FATDirectory getRootDir() {
+        return readDirectoryAt(bootRecord.getRootCluster());
+    }
+
+    private void writeBootRecord() {
+        if (bootRecord.getSystemType() == FATType.FAT32) {
+            bootRecord.updateFreeSpaceInfo(fat);
+        }
+        try {
+            byte[] bytes = bootRecord.toByteArray();
+            device.write(0, bytes, 0, bytes.length);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write boot record", e);
+        }
+    }
+
+    /**
+     * Called after every change of the metadata, writes it or leaves it pending as the sync policy says.
+     */
+    private void writeDiskToFile() {
+        publishClusterCounts();
+        if (commitDeferred || !syncPolicy.writeEachChange) {
+            commitPending = true;
+            if (!commitDeferred && flusher != null) {
+                flusher.changed();
+            }
+            return;
+        }
+        writeMetadata();
+        if (syncPolicy.forceEachChange) {
+            try {
+                device.flush();
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot force the device", e);
+            }
+        }
+    }
+
+    /**
+     * Hands the free count to the metrics if the table already knows it, without counting it.
+     */
+    private void publishClusterCounts() {
+        if (fat.isAvailableClustersCountKnown()) {
+            metrics.clustersCounted(fat.getAvailableClustersCount(), fat.getDataClustersCount());
+        }
+    }
+
+    /**
+     * Called after data clusters were written without a metadata change.
+     */
+    private void dataWritten() throws IOException {
+        if (commitDeferred) {
+            return;
+        }
+        if (syncPolicy.forceEachChange) {
+            device.flush();
+        } else if (flusher != null) {
+            flusher.changed();
+        }
+    }
+
+    private void writeMetadata() {
+        commitPending = false;
+        FATEvents.FATFlush event = new FATEvents.FATFlush();
+        event.begin();
+        long startedAt = System.nanoTime();
+        if (bootRecord.getSystemType() == FATType.FAT32) {
+            bootRecord.updateFreeSpaceInfo(fat);
+        }
+        try {
+            byte[] bytes = bootRecord.toByteArray();
+            device.write(0, bytes, 0, bytes.length);
+            long flushed = fat.flush(device, bootRecord.activeFatOffset());
+            metrics.fatFlushed(flushed, System.nanoTime() - startedAt);
+            event.bytes = flushed + bytes.length;
+            event.commit();
+            if (mirrorWriter != null || changes.isTracking()) {
+                BitSet sectors = fat.takeDirtySectors();
+                if (mirrorWriter != null) {
+                    mirrorWriter.schedule(sectors);
+                }
+                changes.fatSectorsWritten(sectors);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write to cluster", e);
+        }
+    }
+
+    private void readCluster(long cluster, byte[] bytes) {
+        try {
+            device.read(bootRecord.firstSectorOffset() + cluster * bootRecord.bytesInCluster(), bytes, 0, bytes.length);
+            metrics.clustersRead(1, bytes.length);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read cluster", e);
+        }
+    }
+
+    public String getCurrentPath() {
+        return currentPath;
+    }
+}
@@ -0,0 +1,274 @@
+package fatfs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * Walks the directory tree of an image with one fork-join task per directory and marks the clusters
+ * of every chain in a shared bitset. A cluster that is already marked when a chain reaches it is
+ * cross-linked, allocated clusters left unmarked after the walk are lost. Works on a snapshot of the
+ * table, so any {@link FATEntries} storage can be checked from several threads.
+ */
+class FATChecker {
+    /**
+     * Entry whose chain or size has to be repaired. {@code chain} holds the clusters that belong to the
+     * entry alone, {@code cut} tells that the chain on disk goes on past them. The entry is found by its
+     * slot, since names within a damaged directory may repeat.
+     */
+    static class EntryFix {
+        final long parentCluster; // -1 for the root directory
+        final int slot; // index of the entry in its parent directory
+        final DirectoryEntry entry;
+        final long[] chain;
+        final boolean cut;
+
+        EntryFix(long parentCluster, int slot, DirectoryEntry entry, long[] chain, boolean cut) {
+            this.parentCluster = parentCluster;
+            this.slot = slot;
+            this.entry = entry;
+            this.chain = chain;
+            this.cut = cut;
+        }
+    }
+
+    private static class Chain {
+        final long[] clusters;
+        final boolean cut;
+
+        Chain(long[] clusters, boolean cut) {
+            this.clusters = clusters;
+            this.cut = cut;
+        }
+    }
+
+    private final BootRecord bootRecord;
+    private final FileAllocationTable table;
+    private final BlockDevice device;
+    private final int bytesInCluster;
+    private final List<long[]> unlinkedChains;
+    private final Queue<CheckReport.Problem> problems = new ConcurrentLinkedQueue<>();
+    private final Queue<EntryFix> fixes = new ConcurrentLinkedQueue<>();
+    private final LongAdder filesChecked = new LongAdder();
+    private int[] entries;
+    private AtomicLongArray claimed;
+    private long[] lostClusters = new long[0];
+
+    /**
+     * @param unlinkedChains chains being written that are not in a directory yet, taken as reachable so
+     *                       a repair does not free them
+     */
+    FATChecker(BootRecord bootRecord, FileAllocationTable table, BlockDevice device, List<long[]> unlinkedChains) {
+        this.bootRecord = bootRecord;
+        this.table = table;
+        this.device = device;
+        this.bytesInCluster = bootRecord.bytesInCluster();
+        this.unlinkedChains = unlinkedChains;
+    }
+
+    Queue<EntryFix> getFixes() {
+        return fixes;
+    }
+
+    long[] getLostClusters() {
+        return lostClusters;
+    }
+
+    CheckReport run(ForkJoinPool pool) throws IOException {
+        long startedAt = System.nanoTime();
+        entries = table.snapshot();
+        claimed = new AtomicLongArray((entries.length + 63) / 64);
+        long rootCluster = bootRecord.getRootCluster();
+        Chain root = claimChain(rootCluster, "/");
+        if (root.cut) {
+            fixes.add(new EntryFix(-1, -1, null, root.clusters, true));
+        }
+        if (root.clusters.length > 0) {
+            pool.invoke(new DirectoryTask(root.clusters, ""));
+        }
+        for (long[] chain : unlinkedChains) {
+            for (long c : chain) {
+                if (c < entries.length) {
+                    claim(c);
+                }
+            }
+        }
+        findLostChains(pool);
+        long inUse = 0;
+        for (int i = 0; i < claimed.length(); i++) {
+            inUse += Long.bitCount(claimed.get(i));
+        }
+        return new CheckReport(new ArrayList<>(problems), filesChecked.sum(), inUse, System.nanoTime() - startedAt);
+    }
+
+    @SuppressWarnings("serial") // never serialized, only run on a pool
+    private class DirectoryTask extends RecursiveAction {
+        private final long[] chain;
+        private final String path;
+
+        DirectoryTask(long[] chain, String path) {
+            this.chain = chain;
+            this.path = path;
+        }
+
+        @Override
+        protected void compute() {
+            FATDirectory dir;
+            try {
+                dir = FATDirectory.read(readClusters(chain));
+            } catch (IllegalArgumentException e) {
+                problem(CheckReport.Kind.UNREADABLE_DIRECTORY, path.isEmpty() ? "/" : path, chain[0], e.getMessage());
+                return;
+            }
+            Set<String> names = new HashSet<>();
+            List<DirectoryTask> subtasks = new ArrayList<>();
+            for (int slot = 0; slot < dir.entries.length; slot++) {
+                DirectoryEntry e = dir.entries[slot];
+                if (e.isSelfDir() || e.isParentDir()) {
+                    continue;
+                }
+                filesChecked.increment();
+                String entryPath = path + "/" + e.fileNameWithExtension();
+                if (!names.add(e.fileNameWithExtension())) {
+                    problem(CheckReport.Kind.DUPLICATE_NAME, entryPath, e.initialCluster, "name is used twice in " + (path.isEmpty() ? "/" : path));
+                }
+                Chain chain = claimChain(e.initialCluster, entryPath);
+                boolean sizeMatches = true;
+                if (!e.isDir()) {
+                    long needed = Math.max(1, (e.size + bytesInCluster - 1) / bytesInCluster);
+                    if (chain.cut ? chain.clusters.length < needed : chain.clusters.length != needed) {
+                        sizeMatches = false;
+                        problem(CheckReport.Kind.SIZE_MISMATCH, entryPath, e.initialCluster,
+                                "size " + e.size + " needs " + needed + " clusters, chain has " + chain.clusters.length);
+                    }
+                }
+                if (chain.cut || !sizeMatches) {
+                    fixes.add(new EntryFix(dir.getSelfDirCluster(), slot, e, chain.clusters, chain.cut));
+                }
+                if (e.isDir() && chain.clusters.length > 0) {
+                    subtasks.add(new DirectoryTask(chain.clusters, entryPath));
+                }
+            }
+            invokeAll(subtasks);
+        }
+    }
+
+    /**
+     * Marks the chain that starts at {@code start} and returns the clusters marked by it, up to the
+     * first one that is invalid or already marked by another chain.
+     */
+    private Chain claimChain(long start, String path) {
+        if (start < 2 || start >= entries.length) {
+            problem(CheckReport.Kind.BROKEN_CHAIN, path, start, "first cluster is out of the table");
+            return new Chain(new long[0], true);
+        }
+        long[] clusters = new long[4];
+        int length = 0;
+        long c = start;
+        while (true) {
+            if (!claim(c)) {
+                problem(CheckReport.Kind.CROSS_LINK, path, c, "cluster is already used by another chain or earlier in this one");
+                return new Chain(Arrays.copyOf(clusters, length), true);
+            }
+            if (length == clusters.length) {
+                clusters = Arrays.copyOf(clusters, length * 2);
+            }
+            clusters[length++] = c;
+            long next = Integer.toUnsignedLong(entries[(int) c]);
+            if (table.isCodeFileEnd(next)) {
+                return new Chain(Arrays.copyOf(clusters, length), false);
+            }
+            if (!table.clusterCodeIsData(next) || next >= entries.length) {
+                String reason = table.isCodeAvailable(next) ? "free" : table.isCodeBad(next) ? "bad" : "invalid";
+                problem(CheckReport.Kind.BROKEN_CHAIN, path, c, "chain continues to a " + reason + " cluster " + next);
+                return new Chain(Arrays.copyOf(clusters, length), true);
+            }
+            c = next;
+        }
+    }
+
+    private boolean claim(long cluster) {
+        int word = (int) (cluster >>> 6);
+        long bit = 1L << cluster;
+        while (true) {
+            long current = claimed.get(word);
+            if ((current & bit) != 0) {
+                return false;
+            }
+            if (claimed.compareAndSet(word, current, current | bit)) {
+                return true;
+            }
+        }
+    }
+
+    private boolean isClaimed(int cluster) {
+        return (claimed.get(cluster >>> 6) & 1L << cluster) != 0;
+    }
+
+    private void findLostChains(ForkJoinPool pool) {
+        int[] lost;
+        try {
+            lost = pool.submit(() -> IntStream.range(2, entries.length).parallel()
+                    .filter(c -> !isClaimed(c) && !table.isCodeAvailable(entries[c]) && !table.isCodeBad(entries[c]))
+                    .toArray()).get();
+        } catch (Exception e) {
+            throw new IllegalStateException("Cannot scan the table for lost clusters", e);
+        }
+        if (lost.length == 0) {
+            return;
+        }
+        Set<Integer> lostSet = new HashSet<>(lost.length * 2);
+        Set<Integer> pointedTo = new HashSet<>();
+        for (int c : lost) {
+            lostSet.add(c);
+        }
+        for (int c : lost) {
+            if (lostSet.contains(entries[c])) {
+                pointedTo.add(entries[c]);
+            }
+        }
+        Set<Integer> visited = new HashSet<>(lost.length * 2);
+        // heads first, then whatever is left is a loop without a head
+        for (int pass = 0; pass < 2; pass++) {
+            for (int head : lost) {
+                if (visited.contains(head) || pass == 0 && pointedTo.contains(head)) {
+                    continue;
+                }
+                int length = 0;
+                int c = head;
+                while (lostSet.contains(c) && visited.add(c)) {
+                    length++;
+                    c = entries[c];
+                }
+                problem(CheckReport.Kind.LOST_CHAIN, "", head, length + " clusters are not reachable from any directory");
+            }
+        }
+        lostClusters = Arrays.stream(lost).asLongStream().toArray();
+    }
+
+    private byte[] readClusters(long[] chain) {
+        byte[] bytes = new byte[chain.length * bytesInCluster];
+        try {
+            for (int i = 0; i < chain.length; i++) {
+                device.read(bootRecord.firstSectorOffset() + chain[i] * bytesInCluster, bytes, i * bytesInCluster, bytesInCluster);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read directory clusters", e);
+        }
+        return bytes;
+    }
+
+    private void problem(CheckReport.Kind kind, String path, long cluster, String detail) {
+        problems.add(new CheckReport.Problem(kind, path, cluster, detail));
+    }
+}
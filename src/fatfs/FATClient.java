@@ -0,0 +1,221 @@
+package fatfs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Blocking client of a {@link FATServer}, one request at a time per client. Operations report failures
+ * of the server the way {@link FAT} does, in an {@link OperationResult} or as a null result, and
+ * failures of the connection as {@link IOException}.
+ */
+public class FATClient implements Closeable {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private int nextId;
+
+    private FATClient(Socket socket) throws IOException {
+        this.socket = socket;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    public static FATClient connect(InetSocketAddress address) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(address);
+            return new FATClient(socket);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the image at a path under the server's root, or joins the clients that have it open.
+     *
+     * @return handle for the other operations
+     */
+    public int open(String imagePath) throws IOException {
+        Response response = call(FATProtocol.OPEN, -1, args -> args.writeUTF(imagePath));
+        if (!response.ok) {
+            throw new IOException("Cannot open image at path " + imagePath + ": " + response.in.readUTF());
+        }
+        return response.in.readInt();
+    }
+
+    public int create(String imagePath, DiskCreationParams params) throws IOException {
+        Response response = call(FATProtocol.CREATE, -1, args -> {
+            args.writeUTF(imagePath);
+            args.writeInt(params.bytesInSector);
+            args.writeInt(params.sectorsInCluster);
+            args.writeLong(params.sectorsOnDisk);
+            args.writeInt(params.numberOfFATCopies);
+            args.writeBoolean(params.quickFormat);
+        });
+        if (!response.ok) {
+            throw new IOException("Cannot create image at path " + imagePath + ": " + response.in.readUTF());
+        }
+        return response.in.readInt();
+    }
+
+    public OperationResult close(int handle) throws IOException {
+        return result(call(FATProtocol.CLOSE, handle, args -> {
+        }));
+    }
+
+    /**
+     * @return null if there is no directory at the path
+     */
+    public DirectoryView listDir(int handle, String diskPath) throws IOException {
+        Response response = call(FATProtocol.LIST, handle, args -> args.writeUTF(diskPath));
+        return response.ok ? new DirectoryView(FATProtocol.readBytes(response.in)) : null;
+    }
+
+    public OperationResult mkDir(int handle, String diskPath) throws IOException {
+        return result(call(FATProtocol.MKDIR, handle, args -> args.writeUTF(diskPath)));
+    }
+
+    public OperationResult deleteFile(int handle, String diskPath) throws IOException {
+        return result(call(FATProtocol.DELETE, handle, args -> args.writeUTF(diskPath)));
+    }
+
+    /**
+     * Copies a file under the server's root into the image.
+     */
+    public OperationResult copyFileFromSystem(int handle, String systemPath, String diskPath) throws IOException {
+        return result(call(FATProtocol.COPY_IN, handle, args -> {
+            args.writeUTF(systemPath);
+            args.writeUTF(diskPath);
+        }));
+    }
+
+    /**
+     * Copies a file of the image to a path under the server's root.
+     */
+    public OperationResult copyFileToSystem(int handle, String diskPath, String systemPath) throws IOException {
+        return result(call(FATProtocol.COPY_OUT, handle, args -> {
+            args.writeUTF(diskPath);
+            args.writeUTF(systemPath);
+        }));
+    }
+
+    /**
+     * @return up to {@code length} bytes from {@code offset}, null if the file cannot be read
+     */
+    public byte[] readFile(int handle, String diskPath, long offset, int length) throws IOException {
+        Response response = call(FATProtocol.READ, handle, args -> {
+            args.writeUTF(diskPath);
+            args.writeLong(offset);
+            args.writeInt(length);
+        });
+        return response.ok ? FATProtocol.readBytes(response.in) : null;
+    }
+
+    public OperationResult writeFile(int handle, String diskPath, long offset, byte[] bytes) throws IOException {
+        return result(call(FATProtocol.WRITE, handle, args -> {
+            args.writeUTF(diskPath);
+            args.writeLong(offset);
+            FATProtocol.writeBytes(args, bytes);
+        }));
+    }
+
+    public OperationResult copy(int handle, String srcDiskPath, String dstDiskPath) throws IOException {
+        return result(call(FATProtocol.COPY, handle, args -> {
+            args.writeUTF(srcDiskPath);
+            args.writeUTF(dstDiskPath);
+        }));
+    }
+
+    public OperationResult preallocate(int handle, String diskPath, long size) throws IOException {
+        return result(call(FATProtocol.PREALLOCATE, handle, args -> {
+            args.writeUTF(diskPath);
+            args.writeLong(size);
+        }));
+    }
+
+    public DiskSpaceInfo getDiskSpaceInfo(int handle) throws IOException {
+        Response response = call(FATProtocol.SPACE, handle, args -> {
+        });
+        if (!response.ok) {
+            return null;
+        }
+        return new DiskSpaceInfo(response.in.readUTF(), response.in.readLong(), response.in.readLong(), response.in.readLong());
+    }
+
+    public OperationResult sync(int handle) throws IOException {
+        return result(call(FATProtocol.SYNC, handle, args -> {
+        }));
+    }
+
+    /**
+     * @return the report as text, null if the check failed
+     */
+    public String check(int handle, boolean repair) throws IOException {
+        Response response = call(FATProtocol.CHECK, handle, args -> args.writeBoolean(repair));
+        return response.ok ? response.in.readUTF() : null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    private interface Arguments {
+        void write(DataOutputStream args) throws IOException;
+    }
+
+    private static class Response {
+        final boolean ok;
+        final DataInputStream in;
+
+        Response(boolean ok, DataInputStream in) {
+            this.ok = ok;
+            this.in = in;
+        }
+    }
+
+    private synchronized Response call(byte opcode, int handle, Arguments arguments) throws IOException {
+        int id = nextId++;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream request = new DataOutputStream(bytes);
+        request.writeInt(id);
+        request.writeByte(opcode);
+        if (handle >= 0) {
+            request.writeInt(handle);
+        }
+        arguments.write(request);
+        if (bytes.size() > FATProtocol.MAX_FRAME_BYTES) {
+            throw new IOException("Request of " + bytes.size() + " bytes is too large");
+        }
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+        out.flush();
+
+        int length = in.readInt();
+        if (length < 5 || length > FATProtocol.MAX_FRAME_BYTES) {
+            throw new IOException("Frame of " + length + " bytes is out of range");
+        }
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        DataInputStream response = new DataInputStream(new ByteArrayInputStream(frame));
+        if (response.readInt() != id) {
+            throw new IOException("Response does not match request " + id);
+        }
+        return new Response(response.readByte() == FATProtocol.STATUS_OK, response);
+    }
+
+    private static OperationResult result(Response response) throws IOException {
+        String message = response.in.readUTF();
+        return response.ok ? OperationResult.ok(message) : OperationResult.error(message);
+    }
+}
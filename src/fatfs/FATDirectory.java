@@ -1,3 +1,5 @@
+package fatfs;
+
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
@@ -6,6 +8,7 @@ public class FATDirectory {
     final DirectoryEntry[] entries;
 
     private Set<String> deletion = new HashSet<>();
+    private Set<Integer> removedSlots = new HashSet<>();
     private Set<String> appendingSet = new HashSet<>();
     private List<DirectoryEntry> appending = new LinkedList<>();
     private long selfDirCluster;
@@ -25,6 +28,15 @@ public class FATDirectory {
         throw new IllegalStateException("Directory does not have a . reference");
     }
 
+    public DirectoryEntry getParentDirEntry() {
+        for (DirectoryEntry e : entries) {
+            if (e.isParentDir()) {
+                return e;
+            }
+        }
+        throw new IllegalStateException("Directory does not have a .. reference");
+    }
+
     public long getParentDirCluster() {
         return parentDirCluster;
     }
@@ -47,12 +59,37 @@ public class FATDirectory {
         }
     }
 
+    /**
+     * Replaces the entry with the same name, keeping its position.
+     */
+    public void replaceEntry(DirectoryEntry entry) {
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i].fileNameWithExtension().equals(entry.fileNameWithExtension())) {
+                entries[i] = entry;
+                return;
+            }
+        }
+        throw new IllegalArgumentException("Directory does not contain " + entry.fileNameWithExtension());
+    }
+
+    /**
+     * Replaces the entry in the slot, even if other entries have the same name.
+     */
+    public void replaceEntryAt(int slot, DirectoryEntry entry) {
+        entries[slot] = entry;
+    }
+
+    /**
+     * Removes the entry in the slot only, even if other entries have the same name.
+     */
+    public void removeEntryAt(int slot) {
+        removedSlots.add(slot);
+    }
+
     private FATDirectory(DirectoryEntry[] entries) {
         this.entries = entries;
         for (DirectoryEntry e : entries) {
-            if (!appendingSet.add(e.fileNameWithExtension())) {
-                System.out.println("wrong name " + e.fileNameWithExtension() + "cluster = " + e.initialCluster);
-            }
+            appendingSet.add(e.fileNameWithExtension());
         }
         selfDirCluster = -1;
         parentDirCluster = -1;
@@ -71,25 +108,29 @@ public class FATDirectory {
     }
 
     public byte[] toByteArray() {
-        ByteBuffer buffer = ByteBuffer.allocate((entries.length - deletion.size() + appending.size()) * 32);
-        Collections.addAll(appending, entries);
+        for (int i = 0; i < entries.length; i++) {
+            if (!removedSlots.contains(i)) {
+                appending.add(entries[i]);
+            }
+        }
+        appending.removeIf(entry -> deletion.contains(entry.fileNameWithExtension()));
+        ByteBuffer buffer = ByteBuffer.allocate(appending.size() * 32);
         HashSet<String> set = new HashSet<>();
         for (DirectoryEntry entry : appending) {
             if (!set.add(entry.fileNameWithExtension())) {
                 System.out.println("Wrong name " + entry.fileNameWithExtension());
             }
-            if (!deletion.contains(entry.fileNameWithExtension())) {
-                buffer
-                        .put(entry.name.getBytes(StandardCharsets.US_ASCII))
-                        .put(entry.extension.getBytes(StandardCharsets.US_ASCII))
-                        .put(entry.attribute)
-                        .put(new byte[12])
-                        .putInt((int) (entry.isSelfDir() && newStartingCluster > 0 ? newStartingCluster : entry.initialCluster))
-                        .putInt((int) entry.size);
-            }
+            buffer
+                    .put(entry.name.getBytes(StandardCharsets.US_ASCII))
+                    .put(entry.extension.getBytes(StandardCharsets.US_ASCII))
+                    .put(entry.attribute)
+                    .put(new byte[12])
+                    .putInt((int) (entry.isSelfDir() && newStartingCluster > 0 ? newStartingCluster : entry.initialCluster))
+                    .putInt((int) entry.size);
         }
         appending.clear();
         deletion.clear();
+        removedSlots.clear();
         return buffer.array();
     }
 
@@ -101,39 +142,11 @@ public class FATDirectory {
     }
 
     public static FATDirectory read(byte[] bytes) {
-        List<DirectoryEntry> entries = new LinkedList<>();
-        for (int entryStart = 0; entryStart < bytes.length; entryStart += 32) {
-            if (entryStart + 32 < bytes.length) {
-                boolean isEnded = true;
-                for (byte b : Arrays.copyOfRange(bytes, entryStart, entryStart + 3)) {
-                    if (b != 0) {
-                        isEnded = false;
-                        break;
-                    }
-                }
-                if (isEnded) {
-                    DirectoryEntry[] array = new DirectoryEntry[entries.size()];
-                    for (int i = 0; i < array.length; i++) {
-                        array[i] = entries.get(i);
-                    }
-                    return new FATDirectory(array);
-                }
-                ByteBuffer buffer = ByteBuffer.wrap(bytes, entryStart + 24, 8);
-                entries.add(
-                        new DirectoryEntry(
-                                new String(Arrays.copyOfRange(bytes, entryStart, entryStart + 8), StandardCharsets.US_ASCII), //name
-                                new String(Arrays.copyOfRange(bytes, entryStart + 8, entryStart + 11), StandardCharsets.US_ASCII), // ext
-                                bytes[entryStart + 11], //attr
-                                buffer.getInt(), //cluster
-                                buffer.getInt() // size
-                        ));
-            }
-        }
-        DirectoryEntry[] array = new DirectoryEntry[entries.size()];
-        for (int i = 0; i < array.length; i++) {
-            array[i] = entries.get(i);
+        DirectoryEntry[] entries = new DirectoryEntry[DirectoryView.countEntries(bytes)];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = DirectoryEntry.read(bytes, i * DirectoryView.ENTRY_SIZE);
         }
-        return new FATDirectory(array);
+        return new FATDirectory(entries);
     }
 
     @Override
@@ -0,0 +1,67 @@
+package fatfs;
+
+import java.nio.ByteBuffer;
+
+/**
+ * On-disk encoding of FAT entries: big-endian, two 12-bit entries packed into three bytes for FAT12.
+ * Offsets are relative to a buffer that starts at an even entry.
+ */
+final class FATEncoding {
+    private FATEncoding() {
+    }
+
+    static int bitsPerEntry(FATType type) {
+        switch (type) {
+            case FAT12:
+                return 12;
+            case FAT16:
+                return 16;
+            case FAT32:
+                return 32;
+        }
+        throw new IllegalStateException("Unknown FAT type " + type);
+    }
+
+    static long sizeInBytes(FATType type, long entries) {
+        return (entries * bitsPerEntry(type) + 7) / 8;
+    }
+
+    static long get(FATType type, ByteBuffer buffer, int index) {
+        switch (type) {
+            case FAT12: {
+                int offset = index / 2 * 3;
+                int middle = buffer.get(offset + 1) & 0xff;
+                if (index % 2 == 0) {
+                    return (buffer.get(offset) & 0xff) << 4 | middle >> 4;
+                }
+                return (middle & 0x0f) << 8 | (buffer.get(offset + 2) & 0xff);
+            }
+            case FAT16:
+                return buffer.getShort(index * 2) & 0xffff;
+            default:
+                return buffer.getInt(index * 4) & 0xffffffffL;
+        }
+    }
+
+    static void set(FATType type, ByteBuffer buffer, int index, long value) {
+        switch (type) {
+            case FAT12: {
+                int offset = index / 2 * 3;
+                int middle = buffer.get(offset + 1) & 0xff;
+                if (index % 2 == 0) {
+                    buffer.put(offset, (byte) (value >> 4));
+                    buffer.put(offset + 1, (byte) ((value << 4) & 0xf0 | middle & 0x0f));
+                } else {
+                    buffer.put(offset + 1, (byte) (middle & 0xf0 | (value >> 8) & 0x0f));
+                    buffer.put(offset + 2, (byte) value);
+                }
+                break;
+            }
+            case FAT16:
+                buffer.putShort(index * 2, (short) value);
+                break;
+            default:
+                buffer.putInt(index * 4, (int) value);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package fatfs;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Storage of the raw values of a {@link FileAllocationTable}, indexed by cluster.
+ */
+interface FATEntries {
+    long size();
+
+    long get(long cluster);
+
+    void set(long cluster, long value);
+
+    /**
+     * Writes every entry in the on-disk encoding.
+     */
+    void write(DataOutput stream) throws IOException;
+
+    /**
+     * Persists the entries into the FAT section that starts at {@code fatOffset} of the image.
+     *
+     * @return number of bytes written
+     */
+    long flush(BlockDevice device, long fatOffset) throws IOException;
+}
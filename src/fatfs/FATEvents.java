@@ -0,0 +1,117 @@
+package fatfs;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder events of {@link FAT} and {@link FileAllocationTable}, under the "FAT File System"
+ * category. Operations, FAT flushes and allocations are recorded by default; directory reads and
+ * chain walks happen for every path and are off unless a .jfc file turns them on with
+ * {@code <event name="fatfs.ChainWalk"><setting name="enabled">true</setting></event>}. A disabled
+ * event costs a check of its enabled flag.
+ */
+final class FATEvents {
+    private static final String CATEGORY = "FAT File System";
+
+    private FATEvents() {
+    }
+
+    @Name("fatfs.Operation")
+    @Label("FAT Operation")
+    @Category(CATEGORY)
+    @Description("A file system operation from its start to its end")
+    static final class Operation extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Path")
+        String path;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        static Operation begin(String operation, String path) {
+            Operation event = new Operation();
+            event.operation = operation;
+            event.path = path;
+            event.begin();
+            return event;
+        }
+    }
+
+    @Name("fatfs.DirectoryRead")
+    @Label("Directory Read")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static final class DirectoryRead extends Event {
+        @Label("First Cluster")
+        long cluster;
+
+        @Label("Clusters")
+        int clusters;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("fatfs.FATFlush")
+    @Label("FAT Flush")
+    @Category(CATEGORY)
+    @Description("Boot record and FAT written to the image")
+    static final class FATFlush extends Event {
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("fatfs.ChainWalk")
+    @Label("Chain Walk")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static final class ChainWalk extends Event {
+        @Label("First Cluster")
+        long cluster;
+
+        @Label("Length")
+        long length;
+    }
+
+    @Name("fatfs.Allocation")
+    @Label("Cluster Allocation")
+    @Category(CATEGORY)
+    static final class Allocation extends Event {
+        @Label("First Cluster")
+        long cluster;
+
+        @Label("Clusters")
+        int clusters;
+
+        @Label("Extents")
+        @Description("Runs of consecutive clusters")
+        int extents;
+
+        static void commit(Allocation event, long[] allocated) {
+            if (event.shouldCommit()) {
+                event.cluster = allocated.length == 0 ? -1 : allocated[0];
+                event.clusters = allocated.length;
+                event.extents = 0;
+                for (int i = 0; i < allocated.length; i++) {
+                    if (i == 0 || allocated[i] != allocated[i - 1] + 1) {
+                        event.extents++;
+                    }
+                }
+                event.commit();
+            }
+        }
+    }
+}
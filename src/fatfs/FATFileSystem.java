@@ -0,0 +1,69 @@
+package fatfs;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+public interface FATFileSystem {
+    OperationResult createDisk(@Nullable String systemPath, @Nullable DiskCreationParams diskParams);
+
+    OperationResult createDisk(@NotNull BlockDevice device, @NotNull DiskCreationParams diskParams);
+
+    OperationResult openDisk(@NotNull String systemPath);
+
+    OperationResult openDisk(@NotNull String systemPath, @NotNull DiskOpenParams openParams);
+
+    OperationResult openDisk(@NotNull BlockDevice device, @NotNull DiskOpenParams openParams);
+
+    OperationResult copyFileFromSystem(@NotNull String systemPath, @NotNull String diskPath);
+
+    OperationResult copyFileToSystem(@NotNull String diskPath, @NotNull String systemPath);
+
+    OperationResult copy(@NotNull String srcDiskPath, @NotNull String dstDiskPath);
+
+    OperationResult preallocate(@NotNull String diskPath, long size);
+
+    OperationResult writeFile(@NotNull String diskPath, long offset, @NotNull byte[] bytes);
+
+    byte[] readFile(@NotNull String diskPath, long offset, int length);
+
+    OperationResult mkDir(@NotNull String diskPath);
+
+    FATDirectory listDir(@NotNull String diskPath);
+
+    DirectoryView viewDir(@NotNull String diskPath);
+
+    OperationResult goToDir(@NotNull String diskPath);
+
+    OperationResult deleteFile(@NotNull String diskPath);
+
+    OperationResult cat(@NotNull String diskPath);
+
+    OperationResult sync();
+
+    OperationResult close();
+
+    DiskSpaceInfo getDiskSpaceInfo();
+
+    Stream<WalkEntry> walk(@NotNull String diskPath, int maxDepth);
+
+    Stream<WalkEntry> walk(@NotNull String diskPath, int maxDepth, @NotNull Predicate<WalkEntry> descend, boolean parallel);
+
+    DiskUsage getDiskUsage(@NotNull String diskPath);
+
+    FragmentationReport getFragmentationReport();
+
+    OperationResult defragment(@NotNull DefragmentBudget budget);
+
+    CheckReport check(boolean repair);
+
+    OperationResult checkpoint(@NotNull String name);
+
+    OperationResult exportDelta(@NotNull String name, @NotNull String systemPath);
+
+    OperationResult applyDelta(@NotNull String deltaPath, @NotNull String imagePath);
+
+    OperationResult applyDelta(@NotNull String deltaPath, @NotNull BlockDevice base);
+}
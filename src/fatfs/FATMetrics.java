@@ -0,0 +1,228 @@
+package fatfs;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+public class FATMetrics implements FATMetricsMXBean {
+    private static final AtomicInteger ids = new AtomicInteger();
+
+    private final String imagePath;
+    private final ObjectName objectName;
+    private volatile ClusterBufferPool buffers;
+    private volatile long freeClusters = -1; // -1 until the table knows its free count
+    private volatile long dataClusters;
+
+    private final LongAdder clusterReads = new LongAdder();
+    private final LongAdder clusterWrites = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder fatBytesFlushed = new LongAdder();
+    private final LogHistogram fatFlushNanos = new LogHistogram();
+    private final LongAdder directoryReads = new LongAdder();
+    private final LogHistogram pathResolutionDepth = new LogHistogram();
+    private final LogHistogram pathResolutionNanos = new LogHistogram();
+    private final LongAdder allocationFailures = new LongAdder();
+
+    public FATMetrics(String imagePath) {
+        this.imagePath = imagePath;
+        try {
+            objectName = new ObjectName("fatfs:type=FAT,id=" + ids.incrementAndGet() + ",image=" + ObjectName.quote(imagePath));
+        } catch (JMException e) {
+            throw new IllegalArgumentException("Cannot create metrics name for " + imagePath, e);
+        }
+    }
+
+    /**
+     * Publishes the cluster counts of the table. The disk calls it under its lock, so reading the
+     * attributes never touches the table from a JMX thread.
+     */
+    void clustersCounted(long free, long data) {
+        dataClusters = data;
+        freeClusters = free;
+    }
+
+    void attach(ClusterBufferPool buffers) {
+        this.buffers = buffers;
+    }
+
+    void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot register metrics for " + imagePath, e);
+        }
+    }
+
+    void unregister() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot unregister metrics for " + imagePath, e);
+        }
+    }
+
+    public ObjectName getObjectName() {
+        return objectName;
+    }
+
+    /**
+     * @param clusters clusters the device call touched, even if only in part
+     */
+    void clustersRead(int clusters, int bytes) {
+        clusterReads.add(clusters);
+        bytesRead.add(bytes);
+    }
+
+    /**
+     * @param clusters clusters the device call touched, even if only in part
+     */
+    void clustersWritten(int clusters, int bytes) {
+        clusterWrites.add(clusters);
+        bytesWritten.add(bytes);
+    }
+
+    void fatFlushed(long bytes, long nanos) {
+        fatBytesFlushed.add(bytes);
+        fatFlushNanos.record(nanos);
+    }
+
+    void directoryRead() {
+        directoryReads.increment();
+    }
+
+    void pathResolved(int depth, long nanos) {
+        pathResolutionDepth.record(depth);
+        pathResolutionNanos.record(nanos);
+    }
+
+    void allocationFailed() {
+        allocationFailures.increment();
+    }
+
+    @Override
+    public String getImagePath() {
+        return imagePath;
+    }
+
+    @Override
+    public long getClusterReads() {
+        return clusterReads.sum();
+    }
+
+    @Override
+    public long getClusterWrites() {
+        return clusterWrites.sum();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public long getFatFlushes() {
+        return fatFlushNanos.getCount();
+    }
+
+    @Override
+    public long getFatBytesFlushed() {
+        return fatBytesFlushed.sum();
+    }
+
+    @Override
+    public double getFatFlushMeanMicros() {
+        return fatFlushNanos.getMean() / 1000;
+    }
+
+    @Override
+    public long getFatFlushP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(fatFlushNanos.getPercentile(0.99));
+    }
+
+    @Override
+    public long getDirectoryReads() {
+        return directoryReads.sum();
+    }
+
+    @Override
+    public long getPathResolutions() {
+        return pathResolutionNanos.getCount();
+    }
+
+    @Override
+    public double getPathResolutionMeanDepth() {
+        return pathResolutionDepth.getMean();
+    }
+
+    @Override
+    public long getPathResolutionMaxDepth() {
+        return pathResolutionDepth.getMax();
+    }
+
+    @Override
+    public double getPathResolutionMeanMicros() {
+        return pathResolutionNanos.getMean() / 1000;
+    }
+
+    @Override
+    public long getPathResolutionP50Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(pathResolutionNanos.getPercentile(0.5));
+    }
+
+    @Override
+    public long getPathResolutionP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(pathResolutionNanos.getPercentile(0.99));
+    }
+
+    @Override
+    public long getPathResolutionP999Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(pathResolutionNanos.getPercentile(0.999));
+    }
+
+    @Override
+    public long getAllocationFailures() {
+        return allocationFailures.sum();
+    }
+
+    @Override
+    public long getFreeClusters() {
+        return freeClusters;
+    }
+
+    @Override
+    public long getUsedClusters() {
+        long free = freeClusters;
+        return free == -1 ? -1 : dataClusters - free;
+    }
+
+    @Override
+    public long getBuffersInUse() {
+        ClusterBufferPool b = buffers;
+        return b == null ? 0 : b.inUse();
+    }
+
+    @Override
+    public long getBufferReuses() {
+        ClusterBufferPool b = buffers;
+        return b == null ? 0 : b.reused();
+    }
+
+    @Override
+    public long getBufferLeaks() {
+        ClusterBufferPool b = buffers;
+        return b == null ? 0 : b.leaked();
+    }
+}
@@ -0,0 +1,69 @@
+package fatfs;
+
+/**
+ * Counters and latencies of one open image, registered under {@code fatfs:type=FAT} while the disk is open.
+ * Latencies are in microseconds.
+ */
+public interface FATMetricsMXBean {
+    String getImagePath();
+
+    /**
+     * Clusters read, each cluster of a multi-cluster device call counted on its own.
+     */
+    long getClusterReads();
+
+    /**
+     * Clusters written, each cluster of a multi-cluster device call counted on its own.
+     */
+    long getClusterWrites();
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    long getFatFlushes();
+
+    long getFatBytesFlushed();
+
+    double getFatFlushMeanMicros();
+
+    long getFatFlushP99Micros();
+
+    long getDirectoryReads();
+
+    long getPathResolutions();
+
+    double getPathResolutionMeanDepth();
+
+    long getPathResolutionMaxDepth();
+
+    double getPathResolutionMeanMicros();
+
+    long getPathResolutionP50Micros();
+
+    long getPathResolutionP99Micros();
+
+    long getPathResolutionP999Micros();
+
+    long getAllocationFailures();
+
+    /**
+     * Count as of the last change, -1 while the free clusters of the image have not been counted yet.
+     */
+    long getFreeClusters();
+
+    /**
+     * -1 while the free clusters of the image have not been counted yet.
+     */
+    long getUsedClusters();
+
+    long getBuffersInUse();
+
+    long getBufferReuses();
+
+    /**
+     * Pooled buffers that were collected without being closed, zero unless there is a bug. Only counted
+     * when the {@code fatfs.trackBufferLeaks} system property is set.
+     */
+    long getBufferLeaks();
+}
@@ -0,0 +1,132 @@
+package fatfs;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copies changed sectors of the active FAT into the other FAT copies of the image. Sectors are
+ * scheduled after the active copy has been written, and are read back from it, so the mirrors never
+ * get ahead of the active copy. A sector changed again while it is being copied is scheduled again
+ * by the next flush.
+ */
+class FATMirrorWriter {
+    private final BlockDevice device;
+    private final long activeOffset;
+    private final long[] mirrorOffsets;
+    private final int bytesInSector;
+    private final long fatSizeInBytes;
+    private final ExecutorService executor;
+    private final BitSet pending = new BitSet();
+    private boolean drainScheduled;
+    private IOException failure;
+
+    /**
+     * @param background copy from a daemon thread as soon as sectors are scheduled, otherwise only in {@link #finish}
+     */
+    FATMirrorWriter(BlockDevice device, BootRecord bootRecord, boolean background) {
+        this.device = device;
+        this.activeOffset = bootRecord.activeFatOffset();
+        this.mirrorOffsets = new long[bootRecord.fatCopies() - 1];
+        int active = bootRecord.activeFatCopy();
+        for (int copy = 0, i = 0; copy < bootRecord.fatCopies(); copy++) {
+            if (copy != active) {
+                mirrorOffsets[i++] = bootRecord.fatCopyOffset(copy);
+            }
+        }
+        this.bytesInSector = bootRecord.bytesInSector;
+        this.fatSizeInBytes = bootRecord.getFatSectionSizeInBytes();
+        this.executor = background ? Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "fat-mirror-writer");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    void schedule(BitSet sectors) {
+        synchronized (this) {
+            pending.or(sectors);
+            if (executor == null || drainScheduled || pending.isEmpty()) {
+                return;
+            }
+            drainScheduled = true;
+        }
+        executor.execute(() -> {
+            synchronized (this) {
+                drainScheduled = false;
+            }
+            try {
+                drain();
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                }
+            }
+        });
+    }
+
+    /**
+     * Schedules the whole table, for mirrors that may be out of date.
+     */
+    void scheduleAll() {
+        BitSet all = new BitSet();
+        all.set(0, (int) ((fatSizeInBytes + bytesInSector - 1) / bytesInSector));
+        schedule(all);
+    }
+
+    /**
+     * Waits for the background writer and copies whatever is still pending.
+     */
+    void finish() throws IOException {
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    throw new IOException("FAT mirror writer did not stop");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the FAT mirror writer", e);
+            }
+        }
+        synchronized (this) {
+            if (failure != null) {
+                pending.set(0, (int) ((fatSizeInBytes + bytesInSector - 1) / bytesInSector));
+                failure = null;
+            }
+        }
+        drain();
+    }
+
+    private void drain() throws IOException {
+        BitSet sectors;
+        synchronized (this) {
+            sectors = (BitSet) pending.clone();
+            pending.clear();
+        }
+        if (sectors.isEmpty() || mirrorOffsets.length == 0) {
+            return;
+        }
+        byte[] bytes = new byte[bytesInSector];
+        try {
+            for (int sector = sectors.nextSetBit(0); sector >= 0; sector = sectors.nextSetBit(sector + 1)) {
+                long start = (long) sector * bytesInSector;
+                int length = (int) Math.min(bytesInSector, fatSizeInBytes - start);
+                if (length <= 0) {
+                    break;
+                }
+                device.read(activeOffset + start, bytes, 0, length);
+                for (long mirror : mirrorOffsets) {
+                    device.write(mirror + start, bytes, 0, length);
+                }
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                pending.or(sectors);
+            }
+            throw e;
+        }
+    }
+}
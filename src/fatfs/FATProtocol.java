@@ -0,0 +1,59 @@
+package fatfs;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Binary protocol of {@link FATServer}. Every frame is an int length followed by that many bytes: a
+ * request holds an id, an opcode and its arguments, a response the id of its request, a status and the
+ * result. Strings are written with {@link DataOutput#writeUTF}, byte arrays as an int length and the bytes.
+ * <p>
+ * Every request except {@link #OPEN} and {@link #CREATE} starts with the handle of an image opened on
+ * the connection. An error response holds only a message. Image and system paths are host paths, resolved
+ * against the root directory of the server, which refuses any that leave it.
+ */
+final class FATProtocol {
+    static final int MAX_FRAME_BYTES = 64 * 1024 * 1024;
+
+    static final byte OPEN = 1; // image path -> handle
+    static final byte CREATE = 2; // image path, bytes in sector, sectors in cluster, sectors on disk, FAT copies, quick format -> handle
+    static final byte CLOSE = 3; // -> message
+    static final byte LIST = 4; // disk path -> raw directory entries
+    static final byte MKDIR = 5; // disk path -> message
+    static final byte DELETE = 6; // disk path -> message
+    static final byte COPY_IN = 7; // system path, disk path -> message
+    static final byte COPY_OUT = 8; // disk path, system path -> message
+    static final byte READ = 9; // disk path, long offset, int length -> bytes
+    static final byte WRITE = 10; // disk path, long offset, bytes -> message
+    static final byte PREALLOCATE = 11; // disk path, long size -> message
+    static final byte SPACE = 12; // -> system name, all bytes, free bytes, used bytes
+    static final byte SYNC = 13; // -> message
+    static final byte CHECK = 14; // boolean repair -> report
+    static final byte COPY = 15; // source disk path, target disk path -> message
+
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_ERROR = 1;
+
+    private FATProtocol() {
+    }
+
+    static void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static byte[] readBytes(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME_BYTES) {
+            throw new IOException("Byte array of " + length + " bytes is out of range");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    static void writeMessage(DataOutput out, String message) throws IOException {
+        out.writeUTF(message == null ? "" : message);
+    }
+}
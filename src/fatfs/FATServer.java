@@ -0,0 +1,579 @@
+package fatfs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves images to clients over a loopback socket with the {@link FATProtocol}. One selector thread
+ * does all socket I/O and hands complete requests to a pool of workers, so a slow operation holds up
+ * neither other clients nor other images. An image opened by several clients is opened once and shared,
+ * its operations are serialized by the {@link FAT} itself. Images are opened, formatted and closed
+ * outside of the lock on the image table. Responses on one connection may come back in any order and
+ * are matched to requests by id.
+ * <p>
+ * The server has no authentication, so image paths and the host files of copies are resolved against
+ * a root directory and refused if their canonical path leaves it.
+ */
+public class FATServer implements Closeable {
+    // requests of one connection read but not answered yet, reading stops at this many until answers go out
+    static final int MAX_IN_FLIGHT = 8;
+
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final ExecutorService workers;
+    private final Thread selectorThread;
+    private final Path root; // canonical
+    private final Queue<Connection> writable = new ConcurrentLinkedQueue<>();
+    private final Map<Integer, Image> images = new HashMap<>(); // by handle, guarded by itself
+    private final Map<String, Image> imagesByPath = new HashMap<>(); // open or being opened, guarded by images
+    private final Map<String, Image> closingByPath = new HashMap<>(); // guarded by images
+    private int nextHandle = 1;
+    private volatile boolean running = true;
+
+    private static class Image {
+        final int handle;
+        final String path;
+        final FAT fat = new FAT();
+        final CountDownLatch opened = new CountDownLatch(1);
+        final CountDownLatch closed = new CountDownLatch(1);
+        volatile String failure; // set before opened counts down if the image could not be opened
+        int clients; // including the ones waiting for it to open
+
+        Image(int handle, String path) {
+            this.handle = handle;
+            this.path = path;
+        }
+    }
+
+    private class Connection {
+        final SocketChannel channel;
+        final ByteBuffer header = ByteBuffer.allocate(4);
+        final Queue<ByteBuffer> responses = new ConcurrentLinkedQueue<>();
+        final Map<Integer, Integer> opened = new HashMap<>(); // handle -> times opened, guarded by images
+        boolean disconnected; // guarded by images
+        ByteBuffer body;
+        SelectionKey key;
+        int inFlight; // selector thread only
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    private FATServer(ServerSocketChannel serverChannel, Selector selector, int workerCount, Path root) {
+        this.serverChannel = serverChannel;
+        this.root = root;
+        this.selector = selector;
+        AtomicInteger workerNumber = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerCount, r -> {
+            Thread thread = new Thread(r, "fat-server-worker-" + workerNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.selectorThread = new Thread(this::run, "fat-server-selector");
+        this.selectorThread.setDaemon(true);
+    }
+
+    /**
+     * Starts serving the working directory on the loopback address.
+     *
+     * @param port    0 to pick a free one, see {@link #getAddress}
+     * @param workers number of threads running operations
+     */
+    public static FATServer start(int port, int workers) throws IOException {
+        return start(port, workers, Paths.get(""));
+    }
+
+    /**
+     * Starts serving on the loopback address.
+     *
+     * @param port    0 to pick a free one, see {@link #getAddress}
+     * @param workers number of threads running operations
+     * @param root    directory every host path of a request must stay in, relative paths start there
+     */
+    public static FATServer start(int port, int workers, Path root) throws IOException {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Server needs at least one worker");
+        }
+        File rootDir = root.toFile().getCanonicalFile();
+        if (!rootDir.isDirectory()) {
+            throw new IllegalArgumentException("Root " + root + " is not a directory");
+        }
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        Selector selector = Selector.open();
+        try {
+            serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            serverChannel.close();
+            selector.close();
+            throw e;
+        }
+        FATServer server = new FATServer(serverChannel, selector, workers, rootDir.toPath());
+        server.selectorThread.start();
+        return server;
+    }
+
+    public InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Stops accepting requests, waits for the running ones and closes every image.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        try {
+            selectorThread.join();
+            workers.shutdown();
+            workers.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+        List<Image> open;
+        synchronized (images) {
+            open = new ArrayList<>(images.values());
+            images.clear();
+            imagesByPath.clear();
+        }
+        for (Image image : open) {
+            image.fat.close();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                selector.select();
+                for (Connection connection; (connection = writable.poll()) != null; ) {
+                    if (connection.key.isValid()) {
+                        connection.key.interestOps(interestOps(connection));
+                    }
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            read(connection);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(connection);
+                        }
+                    } catch (IOException e) {
+                        disconnect(connection);
+                    }
+                }
+                selector.selectedKeys().clear();
+            } catch (IOException e) {
+                // the selector itself failed, nothing can be served any more
+                running = false;
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+    }
+
+    /**
+     * Reads whatever is available, handing every complete frame to the workers. Stops at
+     * {@link #MAX_IN_FLIGHT} unanswered requests, so a client that sends faster than it is served holds
+     * a bounded number of frames in memory instead of filling the worker queue.
+     */
+    private void read(Connection connection) throws IOException {
+        while (true) {
+            ByteBuffer target = connection.body != null ? connection.body : connection.header;
+            int read = connection.channel.read(target);
+            if (read < 0) {
+                disconnect(connection);
+                return;
+            }
+            if (target.hasRemaining()) {
+                return;
+            }
+            if (connection.body == null) {
+                int length = connection.header.getInt(0);
+                if (length < 5 || length > FATProtocol.MAX_FRAME_BYTES) {
+                    throw new IOException("Frame of " + length + " bytes is out of range");
+                }
+                connection.body = ByteBuffer.allocate(length);
+            } else {
+                byte[] request = connection.body.array();
+                connection.body = null;
+                connection.header.clear();
+                workers.execute(() -> respond(connection, request));
+                if (++connection.inFlight >= MAX_IN_FLIGHT) {
+                    connection.key.interestOps(interestOps(connection));
+                    return;
+                }
+            }
+        }
+    }
+
+    private void write(Connection connection) throws IOException {
+        for (ByteBuffer response; (response = connection.responses.peek()) != null; ) {
+            connection.channel.write(response);
+            if (response.hasRemaining()) {
+                return;
+            }
+            connection.responses.poll();
+            connection.inFlight--;
+        }
+        // a worker queuing a response after this also queues the connection in writable
+        connection.key.interestOps(interestOps(connection));
+    }
+
+    /**
+     * Reads while the connection is below {@link #MAX_IN_FLIGHT}, writes while it has responses queued.
+     */
+    private static int interestOps(Connection connection) {
+        int ops = connection.inFlight < MAX_IN_FLIGHT ? SelectionKey.OP_READ : 0;
+        return connection.responses.isEmpty() ? ops : ops | SelectionKey.OP_WRITE;
+    }
+
+    private void disconnect(Connection connection) {
+        connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException ignored) {
+            // the connection is gone either way
+        }
+        workers.execute(() -> {
+            List<Image> unused = new ArrayList<>();
+            synchronized (images) {
+                connection.disconnected = true;
+                for (Map.Entry<Integer, Integer> e : connection.opened.entrySet()) {
+                    for (int i = 0; i < e.getValue(); i++) {
+                        release(images.get(e.getKey()), unused);
+                    }
+                }
+                connection.opened.clear();
+            }
+            closeAll(unused);
+        });
+    }
+
+    private void respond(Connection connection, byte[] request) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int id = -1;
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(request));
+             DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0); // frame length, set below
+            id = in.readInt();
+            out.writeInt(id);
+            try {
+                ByteArrayOutputStream result = new ByteArrayOutputStream();
+                execute(connection, in.readByte(), in, new DataOutputStream(result));
+                out.writeByte(FATProtocol.STATUS_OK);
+                result.writeTo(out);
+            } catch (Exception e) {
+                bytes.reset();
+                out.writeInt(0);
+                out.writeInt(id);
+                out.writeByte(FATProtocol.STATUS_ERROR);
+                FATProtocol.writeMessage(out, e.getMessage() != null ? e.getMessage() : e.toString());
+            }
+        } catch (IOException e) {
+            // writing into memory does not fail
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer response = ByteBuffer.wrap(bytes.toByteArray());
+        response.putInt(0, response.capacity() - 4);
+        connection.responses.add(response);
+        writable.add(connection);
+        selector.wakeup();
+    }
+
+    private void execute(Connection connection, byte opcode, DataInputStream in, DataOutputStream out) throws IOException {
+        if (opcode == FATProtocol.OPEN || opcode == FATProtocol.CREATE) {
+            out.writeInt(open(connection, opcode, in));
+            return;
+        }
+        int handle = in.readInt();
+        FAT fat;
+        synchronized (images) {
+            if (!connection.opened.containsKey(handle)) {
+                throw new IllegalArgumentException("Image " + handle + " is not open on this connection");
+            }
+            fat = images.get(handle).fat;
+        }
+        switch (opcode) {
+            case FATProtocol.CLOSE:
+                close(connection, handle);
+                FATProtocol.writeMessage(out, "Close succeed");
+                break;
+            case FATProtocol.LIST: {
+                DirectoryView view = fat.viewDir(in.readUTF());
+                if (view == null) {
+                    throw new IllegalArgumentException("There is no directory at the path");
+                }
+                FATProtocol.writeBytes(out, view.toByteArray());
+                break;
+            }
+            case FATProtocol.MKDIR:
+                writeResult(out, fat.mkDir(in.readUTF()));
+                break;
+            case FATProtocol.DELETE:
+                writeResult(out, fat.deleteFile(in.readUTF()));
+                break;
+            case FATProtocol.COPY_IN: {
+                String systemPath = hostPath(in.readUTF());
+                writeResult(out, fat.copyFileFromSystem(systemPath, in.readUTF()));
+                break;
+            }
+            case FATProtocol.COPY_OUT: {
+                String diskPath = in.readUTF();
+                writeResult(out, fat.copyFileToSystem(diskPath, hostPath(in.readUTF())));
+                break;
+            }
+            case FATProtocol.READ: {
+                String diskPath = in.readUTF();
+                long offset = in.readLong();
+                int length = Math.min(in.readInt(), FATProtocol.MAX_FRAME_BYTES - 64);
+                byte[] bytes = fat.readFile(diskPath, offset, length);
+                if (bytes == null) {
+                    throw new IllegalArgumentException("Cannot read file at path " + diskPath);
+                }
+                FATProtocol.writeBytes(out, bytes);
+                break;
+            }
+            case FATProtocol.WRITE: {
+                String diskPath = in.readUTF();
+                long offset = in.readLong();
+                writeResult(out, fat.writeFile(diskPath, offset, FATProtocol.readBytes(in)));
+                break;
+            }
+            case FATProtocol.COPY: {
+                String srcDiskPath = in.readUTF();
+                writeResult(out, fat.copy(srcDiskPath, in.readUTF()));
+                break;
+            }
+            case FATProtocol.PREALLOCATE: {
+                String diskPath = in.readUTF();
+                writeResult(out, fat.preallocate(diskPath, in.readLong()));
+                break;
+            }
+            case FATProtocol.SPACE: {
+                DiskSpaceInfo info = fat.getDiskSpaceInfo();
+                if (info == null) {
+                    throw new IllegalStateException("Disk is not open");
+                }
+                out.writeUTF(info.systemName);
+                out.writeLong(info.allBytes);
+                out.writeLong(info.freeBytes);
+                out.writeLong(info.usedBytes);
+                break;
+            }
+            case FATProtocol.SYNC:
+                writeResult(out, fat.sync());
+                break;
+            case FATProtocol.CHECK:
+                FATProtocol.writeMessage(out, fat.check(in.readBoolean()).toString());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown operation " + opcode);
+        }
+    }
+
+    /**
+     * Opens or formats the image outside of the lock on the image table, with its path reserved so
+     * other clients of the same image wait for it instead of opening it again.
+     *
+     * @return handle of the image, shared with the other clients that have it open
+     */
+    private int open(Connection connection, byte opcode, DataInputStream in) throws IOException {
+        String path = hostPath(in.readUTF());
+        Image image;
+        Image previous;
+        boolean opener = false;
+        synchronized (images) {
+            image = imagesByPath.get(path);
+            previous = closingByPath.get(path);
+            if (image == null) {
+                image = new Image(nextHandle++, path);
+                imagesByPath.put(path, image);
+                opener = true;
+            } else if (opcode == FATProtocol.CREATE) {
+                throw new IllegalArgumentException("Image at path " + path + " is already open");
+            }
+            image.clients++;
+        }
+        if (opener) {
+            try {
+                if (previous != null) {
+                    await(previous.closed);
+                }
+                OperationResult result;
+                if (opcode == FATProtocol.CREATE) {
+                    DiskCreationParams params = DiskCreationParams.custom(in.readInt(), in.readInt(), in.readLong()).withFATCopies(in.readInt());
+                    result = image.fat.createDisk(path, in.readBoolean() ? params.quickFormat(false) : params);
+                } else {
+                    result = image.fat.openDisk(path);
+                }
+                if (!result.isOk) {
+                    image.failure = describe(result);
+                }
+            } catch (Throwable e) {
+                image.failure = e.getMessage() != null ? e.getMessage() : "Cannot open image at path " + path;
+            }
+            synchronized (images) {
+                if (image.failure != null) {
+                    imagesByPath.remove(path);
+                } else {
+                    images.put(image.handle, image);
+                }
+            }
+            image.opened.countDown();
+        } else {
+            await(image.opened);
+        }
+        if (image.failure != null) {
+            throw new IllegalStateException(image.failure);
+        }
+        List<Image> unused = new ArrayList<>();
+        synchronized (images) {
+            if (connection.disconnected) {
+                release(image, unused);
+            } else {
+                connection.opened.merge(image.handle, 1, Integer::sum);
+            }
+        }
+        closeAll(unused);
+        return image.handle;
+    }
+
+    private void close(Connection connection, int handle) {
+        List<Image> unused = new ArrayList<>();
+        synchronized (images) {
+            if (connection.opened.merge(handle, -1, Integer::sum) == 0) {
+                connection.opened.remove(handle);
+            }
+            release(images.get(handle), unused);
+        }
+        closeAll(unused);
+    }
+
+    /**
+     * Drops one client of the image. After the last one the image leaves the table and is added to
+     * {@code unused}, to be closed with {@link #closeAll} once {@link #images} is released. Called with
+     * {@link #images} held.
+     */
+    private void release(Image image, List<Image> unused) {
+        if (image == null || --image.clients > 0) {
+            return;
+        }
+        images.remove(image.handle);
+        imagesByPath.remove(image.path);
+        closingByPath.put(image.path, image);
+        unused.add(image);
+    }
+
+    /**
+     * Closes images dropped by {@link #release}, a later open of the same path waits for this.
+     */
+    private void closeAll(List<Image> unused) {
+        for (Image image : unused) {
+            try {
+                image.fat.close();
+            } finally {
+                synchronized (images) {
+                    closingByPath.remove(image.path, image);
+                }
+                image.closed.countDown();
+            }
+        }
+    }
+
+    /**
+     * @return canonical path of a host file named by a request, relative paths start at the root
+     */
+    private String hostPath(String path) throws IOException {
+        File file = root.resolve(path).toFile().getCanonicalFile();
+        if (!file.toPath().startsWith(root)) {
+            throw new IllegalArgumentException("Path " + path + " is outside of the served directory");
+        }
+        return file.getPath();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the image", e);
+        }
+    }
+
+    private static void writeResult(DataOutputStream out, OperationResult result) throws IOException {
+        if (!result.isOk) {
+            throw new IllegalStateException(describe(result));
+        }
+        FATProtocol.writeMessage(out, result.message);
+    }
+
+    private static String describe(OperationResult result) {
+        String message = result.message != null ? result.message : "Operation failed";
+        if (result.error != null && result.error.getMessage() != null) {
+            message += ": " + result.error.getMessage();
+        }
+        return message;
+    }
+
+    /**
+     * Images open at the moment, for status output.
+     */
+    public List<String> getOpenImages() {
+        synchronized (images) {
+            return new ArrayList<>(imagesByPath.keySet());
+        }
+    }
+}
@@ -1,3 +1,5 @@
+package fatfs;
+
 public enum FATType {
     FAT12,
     FAT16,
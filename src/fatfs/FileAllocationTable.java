@@ -0,0 +1,565 @@
+package fatfs;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+public class FileAllocationTable {
+
+    private static final int FAT_TYPE_12 = 0;
+    private static final int FAT_TYPE_16 = 1;
+    private static final int FAT_TYPE_32 = 2;
+
+    private static final int[] clusterSize = {12, 16, 32};
+
+    private static final int[] availableCodeSet = {0, 0, 0};
+    private static final int[] reservedCodeSet = {1, 1, 1};
+    private static final long[] badClusterSet = {0xFF7, 0xFFF7, 0x0FFFFFF7};
+    private static final long[] endMarkerMinSet = {0xFF8, 0xFFF8, 0x0FFFFFF8};
+    private static final long[] endMarkerMaxSet = {0xFFF, 0xFFFF, 0x0FFFFFFF};
+
+    private static final int FREE_SUMMARY_BLOCK = 4096;
+
+    private final int availableCode;
+    private final int reservedCode;
+    private final long badCluster;
+    private final long endMarkerMin;
+    private final long endMarkerMax;
+
+    private final int bitsPerEntry;
+    private final FATEntries table;
+    private final FreeClusters freeClusters;
+    private BitSet dirtySectors;
+    private int bytesInSector;
+
+    private FileAllocationTable(int availableCode, int reservedCode, long badCluster, long endMarkerMin, long endMarkerMax, int bitsPerEntry, FATEntries table, FreeClusters freeClusters) {
+        this.availableCode = availableCode;
+        this.reservedCode = reservedCode;
+        this.badCluster = badCluster;
+        this.endMarkerMin = endMarkerMin;
+        this.endMarkerMax = endMarkerMax;
+        this.bitsPerEntry = bitsPerEntry;
+        this.table = table;
+        this.freeClusters = freeClusters;
+    }
+
+    private static FileAllocationTable createTableWithSource(FATType fatType, FATEntries table, FreeClusters freeClusters) {
+        int fatIndex = getFATTypeIndex(fatType);
+        return new FileAllocationTable(
+                availableCodeSet[fatIndex],
+                reservedCodeSet[fatIndex],
+                badClusterSet[fatIndex],
+                endMarkerMinSet[fatIndex],
+                endMarkerMaxSet[fatIndex],
+                clusterSize[fatIndex],
+                table,
+                freeClusters
+        );
+    }
+
+    private static FileAllocationTable createTableWithSource(FATType fatType, long[][] table) {
+        FATEntries entries = new ArrayFATEntries(fatType, table);
+        FreeClusterArenas freeClusters = new FreeClusterArenas(entries, availableCodeSet[getFATTypeIndex(fatType)], FREE_SUMMARY_BLOCK);
+        freeClusters.count();
+        return createTableWithSource(fatType, entries, freeClusters);
+    }
+
+    private static int getFATTypeIndex(FATType type) {
+        switch (type) {
+            case FAT12:
+                return FAT_TYPE_12;
+            case FAT16:
+                return FAT_TYPE_16;
+            case FAT32:
+                return FAT_TYPE_32;
+        }
+        throw new IllegalStateException("Unknown FAT type " + type);
+    }
+
+    public static FileAllocationTable read(FATType fatType, InputStream stream, long clustersCount) throws IOException {
+        return read(fatType, stream, clustersCount, -1, -1);
+    }
+
+    /**
+     * @param freeClustersHint number of available clusters if it is known to be exact (FSInfo), otherwise -1.
+     *                         With a hint the free clusters are not counted up front.
+     * @param nextFreeHint     cluster to start allocating from, or -1
+     */
+    public static FileAllocationTable read(FATType fatType, InputStream stream, long clustersCount, long freeClustersHint, long nextFreeHint) throws IOException {
+        int fatIndex = getFATTypeIndex(fatType);
+        int size = (int) (clustersCount / Integer.MAX_VALUE);
+        int last = (int) (clustersCount % Integer.MAX_VALUE);
+        if (last > 0) {
+            size++;
+        }
+        long[][] table = new long[size][];
+        for (int i = 0; i < size; i++) {
+            if (i != size - 1 || last == 0) {
+                table[i] = new long[Integer.MAX_VALUE];
+            } else {
+                table[i] = new long[last];
+            }
+            if (fatType == FATType.FAT12) {
+                for (int j = 0; j < table[i].length; j += 2) {
+                    byte[] bytes = new byte[3];
+                    int read = stream.read(bytes);
+                    if (read != 3) {
+                        throw new IllegalStateException("Wrong input stream");
+                    }
+                    table[i][j] = (
+                            ((short) bytes[0] & 0xff) << 4 |
+                                    ((short) bytes[1] >> 4 & 0xf)
+                    );
+                    table[i][j + 1] = (
+                            ((short) bytes[1] & 0x0f) << 8 |
+                                    ((short) bytes[2] & 0xff)
+                    );
+                }
+            } else {
+                for (int j = 0; j < table[i].length; j++) {
+                    if (fatType == FATType.FAT16) {
+                        byte[] bytes = new byte[2];
+                        int read = stream.read(bytes);
+                        if (read != 2) {
+                            throw new IllegalStateException("Wrong input stream");
+                        }
+                        table[i][j] = (
+                                ((short) bytes[0] & 0xff) << 8 |
+                                        ((short) bytes[1] & 0xff)
+                        );
+                    } else {
+                        byte[] bytes = new byte[4];
+                        int read = stream.read(bytes);
+                        if (read != 4) {
+                            throw new IllegalStateException("Wrong input stream");
+                        }
+                        table[i][j] = (
+                                ((int) bytes[0] & 0xff) << 24 |
+                                        ((int) bytes[1] & 0xff) << 16 |
+                                        ((int) bytes[2] & 0xff) << 8 |
+                                        ((int) bytes[3] & 0xff)
+                        );
+                    }
+                }
+            }
+        }
+        if (freeClustersHint < 0) {
+            return createTableWithSource(fatType, table);
+        }
+        FATEntries entries = new ArrayFATEntries(fatType, table);
+        FreeClusters freeClusters = new FreeClusterArenas(entries, availableCodeSet[getFATTypeIndex(fatType)], FREE_SUMMARY_BLOCK, FreeClusterArenas.defaultArenas(), freeClustersHint, nextFreeHint);
+        return createTableWithSource(fatType, entries, freeClusters);
+    }
+
+    /**
+     * Opens the table without decoding it: FAT sectors are read on first access and kept in a page cache
+     * of at most {@code cacheBytes}, and free space is summarised per page.
+     *
+     * @param fatOffset position of the FAT section in the image
+     * @see #read(FATType, InputStream, long, long, long) for the hints
+     */
+    public static FileAllocationTable readPaged(FATType fatType, BlockDevice device, long fatOffset, long clustersCount, long cacheBytes, long freeClustersHint, long nextFreeHint) {
+        PagedFATEntries entries = new PagedFATEntries(fatType, device, fatOffset, clustersCount, cacheBytes);
+        FreeClusters freeClusters = new FreeClusterArenas(entries, availableCodeSet[getFATTypeIndex(fatType)], entries.getEntriesPerPage(), FreeClusterArenas.defaultArenas(), freeClustersHint, nextFreeHint);
+        return createTableWithSource(fatType, entries, freeClusters);
+    }
+
+    /**
+     * Reads the table into a direct buffer outside of the Java heap without decoding it, free space is
+     * summarised per block, so heap usage does not grow with the disk size.
+     *
+     * @param fatOffset position of the FAT section in the image
+     * @see #read(FATType, InputStream, long, long, long) for the hints
+     */
+    public static FileAllocationTable readOffHeap(FATType fatType, BlockDevice device, long fatOffset, long clustersCount, long freeClustersHint, long nextFreeHint) throws IOException {
+        FATEntries entries = DirectFATEntries.read(fatType, device, fatOffset, clustersCount);
+        FreeClusters freeClusters = new FreeClusterArenas(entries, availableCodeSet[getFATTypeIndex(fatType)], FREE_SUMMARY_BLOCK, FreeClusterArenas.defaultArenas(), freeClustersHint, nextFreeHint);
+        return createTableWithSource(fatType, entries, freeClusters);
+    }
+
+    public static FileAllocationTable createTableWithSize(FATType fatType, long tableSize, long rootCluster) {
+        int sizeI = (int) (tableSize / Integer.MAX_VALUE);
+        int last = (int) (tableSize % Integer.MAX_VALUE);
+        if (last > 0) {
+            sizeI++;
+        }
+        long[][] table = new long[sizeI][];
+        for (int i = 0; i < sizeI; i++) {
+            if (i != sizeI - 1 || last == 0) {
+                table[i] = new long[Integer.MAX_VALUE];
+            } else {
+                table[i] = new long[last];
+            }
+        }
+        FileAllocationTable result = createTableWithSource(fatType, table);
+        result.setTableValue(rootCluster, result.endMarkerMax);
+        result.freeClusters.reserve(rootCluster);
+        return result;
+    }
+
+    /**
+     * Leading sectors of the FAT of a freshly formatted disk, up to the sector that holds the root directory
+     * entry. The rest of a fresh table is zeros and does not have to be written.
+     */
+    public static byte[] formattedSectors(FATType fatType, long rootCluster, int bytesInSector, long fatSizeInBytes) {
+        long rootEntryEnd = FATEncoding.sizeInBytes(fatType, rootCluster + 2);
+        int length = (int) Math.min(fatSizeInBytes, (rootEntryEnd + bytesInSector - 1) / bytesInSector * bytesInSector);
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        FATEncoding.set(fatType, buffer, (int) rootCluster, endMarkerMaxSet[getFATTypeIndex(fatType)]);
+        return buffer.array();
+    }
+
+    public long getAvailableClustersCount() {
+        return freeClusters.count();
+    }
+
+    public boolean isAvailableClustersCountKnown() {
+        return freeClusters.isCountKnown();
+    }
+
+    public long getNextFreeHint() {
+        return freeClusters.nextFreeHint();
+    }
+
+    public long getDataClustersCount() {
+        return table.size() - 2;
+    }
+
+    public boolean canPutClusters(int count) {
+        return freeClusters.hasAtLeast(count);
+    }
+
+    public long[] updateClusterSequence(int count, long startingCluster) {
+        long[] current = getFileSequenceWithStartingCluster(startingCluster);
+        if (count == current.length) {
+            return current;
+        }
+        long[] resulting = new long[count];
+        if (count > current.length) {
+            int diff = count - current.length;
+            if (!freeClusters.hasAtLeast(diff)) {
+                throw new IllegalStateException("Available space is not enough to update " + count + " clusters");
+            }
+            long[] appending = putClusters(diff, current[current.length - 1]);
+            setTableValue(current[current.length - 1], appending[0]);
+            System.arraycopy(current, 0, resulting, 0, current.length);
+            System.arraycopy(appending, 0, resulting, current.length, appending.length);
+            return resulting;
+        } else {
+            System.arraycopy(current, 0, resulting, 0, resulting.length);
+            setTableValue(resulting[resulting.length - 1], endMarkerMax);
+            deleteClustersFrom(current[resulting.length]);
+            return resulting;
+        }
+    }
+
+    public long[] putClusters(int count) {
+        return putClusters(count, -1);
+    }
+
+    /**
+     * @param near cluster the new clusters continue, they are taken from its arena
+     */
+    private long[] putClusters(int count, long near) {
+        if (count < 0) {
+            return new long[]{};
+        }
+        if (!freeClusters.hasAtLeast(count)) {
+            throw new IllegalStateException("Available space is not enough to store " + count + " clusters");
+        }
+        FATEvents.Allocation event = new FATEvents.Allocation();
+        event.begin();
+        long[] allocated = freeClusters.take(count, near);
+        setTableValue(allocated[allocated.length - 1], endMarkerMax);
+        for (int i = allocated.length - 2; i >= 0; i--) {
+            setTableValue(allocated[i], allocated[i + 1]);
+        }
+        FATEvents.Allocation.commit(event, allocated);
+        return allocated;
+    }
+
+    /**
+     * Takes {@code length} available clusters starting at {@code start} as one contiguous chain.
+     */
+    public long[] putClustersAt(long start, int length) {
+        FATEvents.Allocation event = new FATEvents.Allocation();
+        event.begin();
+        for (long c = start; c < start + length; c++) {
+            if (getTableValue(c) != availableCode) {
+                throw new IllegalStateException("Cluster " + c + " is not available");
+            }
+        }
+        long[] allocated = new long[length];
+        for (int i = 0; i < length; i++) {
+            allocated[i] = start + i;
+            freeClusters.reserve(allocated[i]);
+            setTableValue(allocated[i], i == length - 1 ? endMarkerMax : allocated[i] + 1);
+        }
+        FATEvents.Allocation.commit(event, allocated);
+        return allocated;
+    }
+
+    interface FreeRunConsumer {
+        /**
+         * @return false to stop the scan
+         */
+        boolean accept(long start, long length);
+    }
+
+    /**
+     * Hands every run of available clusters to {@code consumer} in disk order. Blocks the free cluster
+     * counts know to be full are skipped without reading their entries.
+     */
+    public void forEachFreeRun(FreeRunConsumer consumer) {
+        long runStart = -1;
+        long c = 2;
+        while (c < table.size()) {
+            if (getTableValue(c) == availableCode) {
+                if (runStart == -1) {
+                    runStart = c;
+                }
+                c++;
+                continue;
+            }
+            if (runStart != -1) {
+                if (!consumer.accept(runStart, c - runStart)) {
+                    return;
+                }
+                runStart = -1;
+            }
+            c = freeClusters.skipFull(c + 1);
+        }
+        if (runStart != -1) {
+            consumer.accept(runStart, table.size() - runStart);
+        }
+    }
+
+    /**
+     * Takes {@code count} available clusters in as few runs as possible: the lowest run that holds them
+     * all, otherwise the longest runs there are, chained in disk order. Scans the table at most once.
+     */
+    public long[] putClustersInFewestExtents(int count) {
+        if (!freeClusters.hasAtLeast(count)) {
+            throw new IllegalStateException("Available space is not enough to store " + count + " clusters");
+        }
+        List<long[]> runs = new ArrayList<>(); // {start, length}
+        long[] fitting = {-1};
+        forEachFreeRun((start, length) -> {
+            if (length >= count) {
+                fitting[0] = start;
+                return false;
+            }
+            runs.add(new long[]{start, length});
+            return true;
+        });
+        if (fitting[0] != -1) {
+            return putClustersAt(fitting[0], count);
+        }
+        FATEvents.Allocation event = new FATEvents.Allocation();
+        event.begin();
+        runs.sort((a, b) -> Long.compare(b[1], a[1]));
+        List<long[]> picked = new ArrayList<>();
+        long left = count;
+        for (int i = 0; left > 0 && i < runs.size(); i++) {
+            long[] run = runs.get(i);
+            long taken = Math.min(run[1], left);
+            picked.add(new long[]{run[0], taken});
+            left -= taken;
+        }
+        if (left > 0) {
+            throw new IllegalStateException("Available space is not enough to store " + count + " clusters");
+        }
+        picked.sort((a, b) -> Long.compare(a[0], b[0]));
+        long[] allocated = new long[count];
+        int i = 0;
+        for (long[] run : picked) {
+            for (long c = run[0]; c < run[0] + run[1]; c++) {
+                allocated[i++] = c;
+            }
+        }
+        for (i = 0; i < count; i++) {
+            freeClusters.reserve(allocated[i]);
+            setTableValue(allocated[i], i == count - 1 ? endMarkerMax : allocated[i + 1]);
+        }
+        FATEvents.Allocation.commit(event, allocated);
+        return allocated;
+    }
+
+    /**
+     * @return number of runs of consecutive available clusters
+     */
+    public long countFreeExtents() {
+        long[] extents = {0};
+        forEachFreeRun((start, length) -> {
+            extents[0]++;
+            return true;
+        });
+        return extents[0];
+    }
+
+    /**
+     * @return number of runs of consecutive clusters the chain is made of
+     */
+    public static int countExtents(long[] chain) {
+        if (chain.length == 0) {
+            return 0;
+        }
+        int extents = 1;
+        for (int i = 1; i < chain.length; i++) {
+            if (chain[i] != chain[i - 1] + 1) {
+                extents++;
+            }
+        }
+        return extents;
+    }
+
+    public void deleteClusters(long[] clusters) {
+        for (long c : clusters) {
+            if (getTableValue(c) != availableCode) {
+                setTableValue(c, availableCode);
+                freeClusters.release(c);
+            }
+        }
+    }
+
+    public void deleteClustersFrom(long startingCluster) {
+        long[] clusters = getFileSequenceWithStartingCluster(startingCluster);
+        for (long c : clusters) {
+            if (getTableValue(c) != availableCode) {
+                setTableValue(c, availableCode);
+                freeClusters.release(c);
+            }
+        }
+    }
+
+    /**
+     * @return cluster that follows {@code cluster} in its chain, or -1 if the chain ends there
+     */
+    public long nextCluster(long cluster) {
+        long code = getTableValue(cluster);
+        if (clusterCodeIsData(code)) {
+            return code;
+        }
+        if (isCodeFileEnd(code)) {
+            return -1;
+        }
+        throw new IllegalStateException("File sequence is broken at cluster " + cluster);
+    }
+
+    public long chainLength(long startingCluster) {
+        FATEvents.ChainWalk event = new FATEvents.ChainWalk();
+        event.begin();
+        long length = 1;
+        for (long c = nextCluster(startingCluster); c != -1; c = nextCluster(c)) {
+            length++;
+        }
+        if (event.shouldCommit()) {
+            event.cluster = startingCluster;
+            event.length = length;
+            event.commit();
+        }
+        return length;
+    }
+
+    public long[] getFileSequenceWithStartingCluster(long startingCluster) {
+        FATEvents.ChainWalk event = new FATEvents.ChainWalk();
+        event.begin();
+        List<Long> fileSequence = new LinkedList<>();
+        fileSequence.add(startingCluster);
+        long currentCode = getTableValue(startingCluster);
+        while (clusterCodeIsData(currentCode)) {
+            fileSequence.add(currentCode);
+            currentCode = getTableValue(currentCode);
+        }
+        if (event.shouldCommit()) {
+            event.cluster = startingCluster;
+            event.length = fileSequence.size();
+            event.commit();
+        }
+        if (isCodeFileEnd(currentCode))
+            return fileSequence.stream().mapToLong(v -> v).toArray();
+        if (currentCode == badCluster)
+            throw new IllegalStateException("File is corrupted at cluster " + fileSequence.get(fileSequence.size() - 1));
+        throw new IllegalStateException("File sequence is broken at cluster " + fileSequence.get(fileSequence.size() - 1));
+    }
+
+    /**
+     * Copy of every entry, for readers that walk the table from several threads.
+     */
+    public int[] snapshot() {
+        int[] entries = new int[(int) table.size()];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = (int) table.get(i);
+        }
+        return entries;
+    }
+
+    /**
+     * Starts recording which sectors of the encoded table are changed, see {@link #takeDirtySectors}.
+     * Calling it again keeps what has been recorded so far.
+     */
+    public void trackDirtySectors(int bytesInSector) {
+        if (dirtySectors != null) {
+            return;
+        }
+        this.bytesInSector = bytesInSector;
+        this.dirtySectors = new BitSet();
+    }
+
+    /**
+     * @return indexes of the sectors changed since the previous call, relative to the start of the table
+     */
+    public BitSet takeDirtySectors() {
+        BitSet result = dirtySectors;
+        dirtySectors = new BitSet();
+        return result;
+    }
+
+    public void terminateChainAt(long cluster) {
+        setTableValue(cluster, endMarkerMax);
+    }
+
+    boolean clusterCodeIsData(long code) {
+        return code > reservedCode && code < badCluster;
+    }
+
+    boolean isCodeFileEnd(long code) {
+        return (code >= endMarkerMin && code <= endMarkerMax);
+    }
+
+    boolean isCodeAvailable(long code) {
+        return code == availableCode;
+    }
+
+    boolean isCodeBad(long code) {
+        return code == badCluster;
+    }
+
+    private void setTableValue(long cluster, long value) {
+        table.set(cluster, value);
+        if (dirtySectors != null) {
+            long first = cluster * bitsPerEntry / 8;
+            long last = ((cluster + 1) * bitsPerEntry - 1) / 8;
+            dirtySectors.set((int) (first / bytesInSector), (int) (last / bytesInSector) + 1);
+        }
+    }
+
+    private long getTableValue(long cluster) {
+        return table.get(cluster);
+    }
+
+    public void write(FATType type, DataOutput stream) throws IOException {
+        table.write(stream);
+    }
+
+    /**
+     * Writes the table back into the FAT section of the image at {@code fatOffset}. A paged table only
+     * writes the pages changed since the previous flush, an off-heap table the changed byte range.
+     *
+     * @return number of bytes written
+     */
+    public long flush(BlockDevice device, long fatOffset) throws IOException {
+        return table.flush(device, fatOffset);
+    }
+
+}
@@ -0,0 +1,99 @@
+package fatfs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Image in a plain file, accessed with positional channel reads and writes.
+ */
+public class FileBlockDevice implements BlockDevice {
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+
+    private FileBlockDevice(File file) throws IOException {
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+    }
+
+    public static FileBlockDevice open(File file) throws IOException {
+        if (!file.isFile()) {
+            throw new IllegalArgumentException("File at path " + file + " does not exist or is a directory");
+        }
+        return new FileBlockDevice(file);
+    }
+
+    public static FileBlockDevice create(File file) throws IOException {
+        if (!file.createNewFile()) {
+            throw new IllegalArgumentException("File at path " + file + " already exists");
+        }
+        return new FileBlockDevice(file);
+    }
+
+    @Override
+    public void read(long position, ByteBuffer dst) throws IOException {
+        long start = position - dst.position();
+        while (dst.hasRemaining()) {
+            if (channel.read(dst, start + dst.position()) < 0) {
+                while (dst.hasRemaining()) {
+                    dst.put((byte) 0);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void write(long position, ByteBuffer src) throws IOException {
+        long start = position - src.position();
+        while (src.hasRemaining()) {
+            channel.write(src, start + src.position());
+        }
+    }
+
+    /**
+     * One gathering write. It goes through the position of the channel, so vectored writes are
+     * serialised among themselves, positional calls are not affected.
+     */
+    @Override
+    public void write(long position, ByteBuffer[] srcs) throws IOException {
+        long remaining = 0;
+        for (ByteBuffer src : srcs) {
+            remaining += src.remaining();
+        }
+        synchronized (channel) {
+            channel.position(position);
+            while (remaining > 0) {
+                remaining -= channel.write(srcs);
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public void setSize(long size) throws IOException {
+        raf.setLength(size);
+    }
+
+    @Override
+    public void close() throws IOException {
+        raf.close();
+    }
+
+    @Override
+    public String toString() {
+        return file.getAbsolutePath();
+    }
+}
@@ -0,0 +1,78 @@
+package fatfs;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Fragmentation of every file and directory of a disk: the number of extents (runs of consecutive
+ * clusters) a chain is made of against the single extent it needs at minimum.
+ */
+public class FragmentationReport {
+    public static class FileFragmentation {
+        final String path;
+        final boolean isDir;
+        final long clusters;
+        final int extents;
+
+        FileFragmentation(String path, boolean isDir, long clusters, int extents) {
+            this.path = path;
+            this.isDir = isDir;
+            this.clusters = clusters;
+            this.extents = extents;
+        }
+
+        public boolean isFragmented() {
+            return extents > 1;
+        }
+
+        @Override
+        public String toString() {
+            return path + ": " + extents + " extents in " + clusters + " clusters";
+        }
+    }
+
+    final List<FileFragmentation> files;
+    final long extents;
+    final long minExtents;
+    final long fragmentedFiles;
+    final long freeExtents;
+
+    FragmentationReport(List<FileFragmentation> files, long freeExtents) {
+        this.files = Collections.unmodifiableList(files);
+        this.freeExtents = freeExtents;
+        long extents = 0;
+        long fragmented = 0;
+        for (FileFragmentation f : files) {
+            extents += f.extents;
+            if (f.isFragmented()) {
+                fragmented++;
+            }
+        }
+        this.extents = extents;
+        this.minExtents = files.size();
+        this.fragmentedFiles = fragmented;
+    }
+
+    public List<FileFragmentation> getFiles() {
+        return files;
+    }
+
+    /**
+     * @return share of extents above the minimum, 0 for a disk without fragmented chains
+     */
+    public double getFragmentation() {
+        return extents == 0 ? 0 : 1 - (double) minExtents / extents;
+    }
+
+    @Override
+    public String toString() {
+        return "FragmentationReport{" +
+                "files=" + files.size() +
+                ", fragmentedFiles=" + fragmentedFiles +
+                ", extents=" + extents +
+                ", minExtents=" + minExtents +
+                ", fragmentation=" + String.format("%.3f", getFragmentation()) +
+                ", freeExtents=" + freeExtents +
+                '}';
+    }
+}
@@ -0,0 +1,282 @@
+package fatfs;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Free cluster counts per block of the table, with the blocks split into arenas of consecutive
+ * cluster ranges. Every thread allocates from an arena of its own, so the files of concurrent writers
+ * do not interleave, and a growing chain continues in the arena of its last cluster. A thread whose
+ * arena runs dry steals from the arena with the most free clusters and stays there.
+ * <p>
+ * Blocks are counted the first time they are needed. Every change keeps the block, arena and total
+ * counts up to date, so the free count is exact and costs nothing once it was counted or given by
+ * FSInfo. Every block keeps a cursor before which none of its clusters is available, so taking a few
+ * clusters reads only the entries from the cursor up to the ones taken.
+ * <p>
+ * Not thread-safe: like the rest of the {@link FileAllocationTable} it is used under the disk lock, so
+ * arenas keep the chains of concurrent writers apart but do not let them allocate at the same time.
+ */
+class FreeClusterArenas implements FreeClusters {
+    private static final int UNKNOWN = -1;
+
+    private final FATEntries table;
+    private final long availableCode;
+    private final int blockSize;
+    private final int[] blockFree;
+    private final int[] blockCursor; // offset in the block before which no cluster is available
+    private final int arenaBlocks; // blocks in every arena but maybe the last one
+    private final int[] arenaCursor; // block the next allocation in the arena starts from
+    private final long[] arenaKnownFree; // free clusters in the counted blocks of the arena
+    private final int[] arenaUnknownBlocks;
+    private final AtomicInteger nextArena;
+    private final ThreadLocal<int[]> threadArena;
+    private long knownFree = 0;
+    private long total;
+
+    FreeClusterArenas(FATEntries table, long availableCode, int blockSize) {
+        this(table, availableCode, blockSize, defaultArenas(), UNKNOWN, UNKNOWN);
+    }
+
+    /**
+     * @param arenas   number of arenas wanted, fewer are made if the table has fewer blocks
+     * @param total    exact number of available clusters, or -1 if it has to be counted
+     * @param nextFree cluster to start allocating from, or -1
+     */
+    FreeClusterArenas(FATEntries table, long availableCode, int blockSize, int arenas, long total, long nextFree) {
+        this.table = table;
+        this.availableCode = availableCode;
+        this.blockSize = blockSize;
+        this.blockFree = new int[(int) Math.max(1, (table.size() + blockSize - 1) / blockSize)];
+        Arrays.fill(blockFree, UNKNOWN);
+        this.blockCursor = new int[blockFree.length];
+        this.arenaBlocks = (blockFree.length + Math.max(1, arenas) - 1) / Math.max(1, arenas);
+        int count = (blockFree.length + arenaBlocks - 1) / arenaBlocks;
+        this.arenaCursor = new int[count];
+        this.arenaKnownFree = new long[count];
+        this.arenaUnknownBlocks = new int[count];
+        for (int a = 0; a < count; a++) {
+            arenaCursor[a] = a * arenaBlocks;
+            arenaUnknownBlocks[a] = arenaEnd(a) - arenaCursor[a];
+        }
+        this.total = total;
+        int firstArena = 0;
+        if (nextFree >= 2 && nextFree < table.size()) {
+            int block = (int) (nextFree / blockSize);
+            firstArena = block / arenaBlocks;
+            arenaCursor[firstArena] = block;
+        }
+        // the first thread gets the arena of the FSInfo hint, so a single writer allocates as before
+        this.nextArena = new AtomicInteger(firstArena);
+        this.threadArena = ThreadLocal.withInitial(() -> new int[]{Math.floorMod(nextArena.getAndIncrement(), count)});
+    }
+
+    static int defaultArenas() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    int arenaCount() {
+        return arenaCursor.length;
+    }
+
+    @Override
+    public long count() {
+        if (total == UNKNOWN) {
+            for (int i = 0; i < blockFree.length; i++) {
+                countBlock(i);
+            }
+            total = knownFree;
+        }
+        return total;
+    }
+
+    @Override
+    public boolean isCountKnown() {
+        return total != UNKNOWN;
+    }
+
+    @Override
+    public long nextFreeHint() {
+        if (total == 0) {
+            return UNKNOWN;
+        }
+        for (int a = 0; a < arenaCursor.length; a++) {
+            if (arenaKnownFree[a] > 0 || arenaUnknownBlocks[a] > 0) {
+                return Math.max(2, (long) arenaCursor[a] * blockSize);
+            }
+        }
+        return UNKNOWN;
+    }
+
+    @Override
+    public boolean hasAtLeast(long count) {
+        if (total != UNKNOWN) {
+            return total >= count;
+        }
+        for (int i = 0; i < blockFree.length && knownFree < count; i++) {
+            countBlock(i);
+        }
+        return knownFree >= count;
+    }
+
+    @Override
+    public long skipFull(long cluster) {
+        int block = (int) (cluster / blockSize);
+        if (block >= blockFree.length || blockFree[block] != 0) {
+            return cluster;
+        }
+        while (block < blockFree.length && blockFree[block] == 0) {
+            block++;
+        }
+        return Math.min(table.size(), (long) block * blockSize);
+    }
+
+    @Override
+    public long[] take(int count, long near) {
+        long[] result = new long[count];
+        if (count == 0) {
+            return result;
+        }
+        if (!hasAtLeast(count)) {
+            throw new IllegalStateException("Available space is not enough to store " + count + " clusters");
+        }
+        int[] home = threadArena.get();
+        int arena = near >= 2 && near < table.size() ? (int) (near / blockSize) / arenaBlocks : home[0];
+        boolean[] visited = new boolean[arenaCursor.length];
+        int found = 0;
+        while (true) {
+            visited[arena] = true;
+            found = takeFromArena(arena, result, found);
+            if (found == count) {
+                break;
+            }
+            arena = richestArena(visited);
+            if (arena == UNKNOWN) {
+                throw new IllegalStateException("Free cluster count is out of date, " + found + " of " + count + " clusters found");
+            }
+            home[0] = arena;
+        }
+        if (total != UNKNOWN) {
+            total -= count;
+        }
+        return result;
+    }
+
+    @Override
+    public void release(long cluster) {
+        int block = (int) (cluster / blockSize);
+        int arena = block / arenaBlocks;
+        if (blockFree[block] != UNKNOWN) {
+            blockFree[block]++;
+            arenaKnownFree[arena]++;
+            knownFree++;
+        }
+        if (total != UNKNOWN) {
+            total++;
+        }
+        int offset = (int) (cluster - (long) block * blockSize);
+        if (offset < blockCursor[block]) {
+            blockCursor[block] = offset;
+        }
+        if (block < arenaCursor[arena]) {
+            arenaCursor[arena] = block;
+        }
+    }
+
+    @Override
+    public void reserve(long cluster) {
+        int block = (int) (cluster / blockSize);
+        if (blockFree[block] != UNKNOWN) {
+            blockFree[block]--;
+            arenaKnownFree[block / arenaBlocks]--;
+            knownFree--;
+        }
+        if (total != UNKNOWN) {
+            total--;
+        }
+    }
+
+    /**
+     * Takes clusters from the blocks of the arena, starting at its cursor and wrapping around once.
+     *
+     * @return number of clusters in {@code result} afterwards
+     */
+    private int takeFromArena(int arena, long[] result, int found) {
+        int first = arena * arenaBlocks;
+        int end = arenaEnd(arena);
+        int block = arenaCursor[arena];
+        for (int visited = 0; visited < end - first; visited++) {
+            if (blockFree[block] != 0) {
+                found = takeFromBlock(block, result, found);
+            }
+            if (found == result.length) {
+                break;
+            }
+            block = block + 1 == end ? first : block + 1;
+        }
+        arenaCursor[arena] = block;
+        return found;
+    }
+
+    /**
+     * Takes clusters from the cursor of the block on, stopping as soon as enough are found or the block
+     * has no more available ones. A block not counted yet is counted first.
+     */
+    private int takeFromBlock(int block, long[] result, int found) {
+        countBlock(block);
+        long start = (long) block * blockSize;
+        long end = Math.min(table.size(), start + blockSize);
+        int taken = 0;
+        long c = Math.max(2, start + blockCursor[block]);
+        for (; c < end && found < result.length && taken < blockFree[block]; c++) {
+            if (table.get(c) == availableCode) {
+                result[found++] = c;
+                taken++;
+            }
+        }
+        blockCursor[block] = (int) (c - start);
+        blockFree[block] -= taken;
+        arenaKnownFree[block / arenaBlocks] -= taken;
+        knownFree -= taken;
+        return found;
+    }
+
+    /**
+     * @return the arena not visited yet that may hold the most free clusters, counting blocks not
+     * counted yet as empty of allocations, or -1 if none can hold any
+     */
+    private int richestArena(boolean[] visited) {
+        int richest = UNKNOWN;
+        long most = 0;
+        for (int a = 0; a < arenaCursor.length; a++) {
+            long free = arenaKnownFree[a] + (long) arenaUnknownBlocks[a] * blockSize;
+            if (!visited[a] && free > most) {
+                richest = a;
+                most = free;
+            }
+        }
+        return richest;
+    }
+
+    private int arenaEnd(int arena) {
+        return Math.min(blockFree.length, (arena + 1) * arenaBlocks);
+    }
+
+    private void countBlock(int block) {
+        if (blockFree[block] != UNKNOWN) {
+            return;
+        }
+        int free = 0;
+        long end = Math.min(table.size(), (long) (block + 1) * blockSize);
+        for (long c = Math.max(2, (long) block * blockSize); c < end; c++) {
+            if (table.get(c) == availableCode) {
+                free++;
+            }
+        }
+        int arena = block / arenaBlocks;
+        blockFree[block] = free;
+        arenaKnownFree[arena] += free;
+        arenaUnknownBlocks[arena]--;
+        knownFree += free;
+    }
+}
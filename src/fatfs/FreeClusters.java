@@ -0,0 +1,38 @@
+package fatfs;
+
+/**
+ * Book-keeping of the available clusters of a {@link FileAllocationTable}.
+ */
+interface FreeClusters {
+    long count();
+
+    /**
+     * Whether {@link #count()} is answered without scanning the table.
+     */
+    boolean isCountKnown();
+
+    /**
+     * Cluster the next allocation is likely to start from, or -1 if there is no free cluster.
+     */
+    long nextFreeHint();
+
+    boolean hasAtLeast(long count);
+
+    /**
+     * @return {@code cluster}, or the first cluster past the blocks from {@code cluster} on that are
+     * known to hold no available cluster, so scans for free clusters can skip them
+     */
+    long skipFull(long cluster);
+
+    /**
+     * Picks {@code count} available clusters. They are still marked as available in the table,
+     * the caller is expected to link them into a chain right away.
+     *
+     * @param near cluster the chain continues from, or -1 for a new chain
+     */
+    long[] take(int count, long near);
+
+    void release(long cluster);
+
+    void reserve(long cluster);
+}
@@ -0,0 +1,70 @@
+package fatfs;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Runs of available clusters, read from the table once and then kept up to date by the caller, so a
+ * pass that places many chains looks through the runs instead of scanning the table for each chain.
+ */
+class FreeRuns {
+    private final TreeMap<Long, Long> runs = new TreeMap<>(); // start -> length
+
+    static FreeRuns of(FileAllocationTable table) {
+        FreeRuns freeRuns = new FreeRuns();
+        table.forEachFreeRun((start, length) -> {
+            freeRuns.runs.put(start, length);
+            return true;
+        });
+        return freeRuns;
+    }
+
+    /**
+     * Removes {@code length} clusters from the start of the lowest run that holds them. The caller
+     * takes them in the table.
+     *
+     * @return first of the clusters, or -1 if no run is long enough
+     */
+    long take(int length) {
+        for (Map.Entry<Long, Long> run : runs.entrySet()) {
+            long start = run.getKey();
+            long runLength = run.getValue();
+            if (runLength >= length) {
+                runs.remove(start);
+                if (runLength > length) {
+                    runs.put(start + length, runLength - length);
+                }
+                return start;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Adds clusters that were just freed in the table, merging them with the runs around them.
+     */
+    void add(long[] clusters) {
+        for (int first = 0; first < clusters.length; ) {
+            int last = first;
+            while (last + 1 < clusters.length && clusters[last + 1] == clusters[last] + 1) {
+                last++;
+            }
+            addRun(clusters[first], last - first + 1);
+            first = last + 1;
+        }
+    }
+
+    private void addRun(long start, long length) {
+        Map.Entry<Long, Long> lower = runs.lowerEntry(start);
+        if (lower != null && lower.getKey() + lower.getValue() == start) {
+            runs.remove(lower.getKey());
+            start = lower.getKey();
+            length += lower.getValue();
+        }
+        Long higher = runs.remove(start + length);
+        if (higher != null) {
+            length += higher;
+        }
+        runs.put(start, length);
+    }
+}
@@ -0,0 +1,120 @@
+package fatfs;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * Incremental copy of an image: the boot record and the byte ranges of the clusters and FAT sectors
+ * changed since a checkpoint. Ranges are streamed from and to the devices, a delta is never held in
+ * memory as a whole.
+ * <p>
+ * Layout: magic, version, checkpoint name, image size, cluster geometry, boot record, then ranges of
+ * (position, length, bytes) ended by a range of length -1.
+ */
+class ImageDelta {
+    private static final int MAGIC = 0x46415444; // FATD
+    private static final int VERSION = 1;
+    private static final int MAX_RUN_BYTES = 1024 * 1024;
+
+    /**
+     * Writes the changes recorded for a checkpoint. FAT sectors are read from the active copy and
+     * written for every copy, so the mirrors of the target are current even if they lag here.
+     *
+     * @return number of range bytes written
+     */
+    static long export(String checkpoint, ChangeTracker.Changes changes, BootRecord bootRecord, BlockDevice device, DataOutputStream out) throws IOException {
+        int bytesInCluster = bootRecord.bytesInCluster();
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(checkpoint);
+        out.writeLong(device.size());
+        out.writeInt(bytesInCluster);
+        out.writeLong(bootRecord.firstSectorOffset());
+        out.writeLong(bootRecord.clustersOnDisk());
+        byte[] boot = new byte[bootRecord.getSystemType() == FATType.FAT32 ? BootRecord.FAT32_SIZE : BootRecord.FAT16_SIZE];
+        device.read(0, boot, 0, boot.length);
+        out.writeInt(boot.length);
+        out.write(boot);
+
+        long written = 0;
+        int bytesInSector = bootRecord.bytesInSector;
+        long fatSize = bootRecord.getFatSectionSizeInBytes();
+        BitSet sectors = changes.fatSectors;
+        for (int start = sectors.nextSetBit(0); start >= 0; start = sectors.nextSetBit(start)) {
+            int end = Math.min(sectors.nextClearBit(start), start + MAX_RUN_BYTES / bytesInSector);
+            long offset = (long) start * bytesInSector;
+            int length = (int) Math.min((long) (end - start) * bytesInSector, fatSize - offset);
+            if (length <= 0) {
+                break;
+            }
+            byte[] bytes = new byte[length];
+            device.read(bootRecord.activeFatOffset() + offset, bytes, 0, length);
+            for (int copy = 0; copy < bootRecord.fatCopies(); copy++) {
+                written += writeRange(out, bootRecord.fatCopyOffset(copy) + offset, bytes);
+            }
+            start = end;
+        }
+        BitSet clusters = changes.clusters;
+        for (int start = clusters.nextSetBit(0); start >= 0; start = clusters.nextSetBit(start)) {
+            int end = Math.min(clusters.nextClearBit(start), start + Math.max(1, MAX_RUN_BYTES / bytesInCluster));
+            byte[] bytes = new byte[(end - start) * bytesInCluster];
+            long position = bootRecord.firstSectorOffset() + (long) start * bytesInCluster;
+            device.read(position, bytes, 0, bytes.length);
+            written += writeRange(out, position, bytes);
+            start = end;
+        }
+        out.writeLong(-1);
+        out.writeInt(-1);
+        return written;
+    }
+
+    /**
+     * Writes the ranges of a delta onto the image it was taken from, the boot record last. The image
+     * has to be in the state of the checkpoint, only its geometry is verified.
+     *
+     * @return number of range bytes written
+     */
+    static long apply(DataInputStream in, BlockDevice device) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IllegalArgumentException("Not an image delta");
+        }
+        in.readUTF();
+        long imageSize = in.readLong();
+        int bytesInCluster = in.readInt();
+        long firstSectorOffset = in.readLong();
+        long clustersOnDisk = in.readLong();
+        BootRecord base = BootRecord.read(device);
+        if (base.bytesInCluster() != bytesInCluster || base.firstSectorOffset() != firstSectorOffset || base.clustersOnDisk() != clustersOnDisk) {
+            throw new IllegalArgumentException("Delta was taken from an image with a different geometry");
+        }
+        byte[] boot = new byte[in.readInt()];
+        in.readFully(boot);
+        if (device.size() < imageSize) {
+            device.setSize(imageSize);
+        }
+        long written = 0;
+        while (true) {
+            long position = in.readLong();
+            int length = in.readInt();
+            if (length < 0) {
+                break;
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            device.write(position, bytes, 0, length);
+            written += length;
+        }
+        device.write(0, boot, 0, boot.length);
+        device.flush();
+        return written;
+    }
+
+    private static int writeRange(DataOutputStream out, long position, byte[] bytes) throws IOException {
+        out.writeLong(position);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        return bytes.length;
+    }
+}
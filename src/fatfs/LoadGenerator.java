@@ -0,0 +1,339 @@
+package fatfs;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Runs a mix of operations from several threads against an open {@link FATFileSystem} and reports
+ * throughput and latency per operation. Every thread works in a directory of its own under a fresh
+ * run directory, so it knows which files it has and what they hold: reads are compared with what was
+ * copied in. At the end every file left is read back once more and the disk is checked.
+ */
+public class LoadGenerator {
+    private static final int MAX_ERROR_MESSAGES = 10;
+
+    public static class Report {
+        final LoadParams params;
+        final String runDir;
+        final Map<LoadParams.Operation, LogHistogram> latencies; // nanoseconds
+        final Map<LoadParams.Operation, Long> errors;
+        final long corruptions; // reads that did not return what was written
+        final long bytesWritten;
+        final long bytesRead;
+        final long elapsedNanos;
+        final long filesVerified;
+        final List<String> errorMessages;
+        final CheckReport check;
+
+        Report(LoadParams params, String runDir, Map<LoadParams.Operation, LogHistogram> latencies, Map<LoadParams.Operation, Long> errors,
+               long corruptions, long bytesWritten, long bytesRead, long elapsedNanos, long filesVerified, List<String> errorMessages, CheckReport check) {
+            this.params = params;
+            this.runDir = runDir;
+            this.latencies = latencies;
+            this.errors = errors;
+            this.corruptions = corruptions;
+            this.bytesWritten = bytesWritten;
+            this.bytesRead = bytesRead;
+            this.elapsedNanos = elapsedNanos;
+            this.filesVerified = filesVerified;
+            this.errorMessages = Collections.unmodifiableList(errorMessages);
+            this.check = check;
+        }
+
+        /**
+         * @return true if no operation failed, every read matched and the check found no problem
+         */
+        public boolean isClean() {
+            return errors.values().stream().mapToLong(e -> e).sum() == 0 && corruptions == 0 && check != null && check.isClean();
+        }
+
+        public long getOperations() {
+            return latencies.values().stream().mapToLong(LogHistogram::getCount).sum();
+        }
+
+        @Override
+        public String toString() {
+            double seconds = elapsedNanos / 1e9;
+            StringBuilder builder = new StringBuilder(params.toString()).append('\n');
+            builder.append(String.format("%-9s %9s %7s %10s %9s %9s %9s %9s%n", "op", "count", "errors", "ops/s", "p50 us", "p99 us", "p999 us", "max us"));
+            for (Map.Entry<LoadParams.Operation, LogHistogram> e : latencies.entrySet()) {
+                LogHistogram h = e.getValue();
+                if (h.getCount() == 0) {
+                    continue;
+                }
+                builder.append(String.format("%-9s %9d %7d %10.0f %9d %9d %9d %9d%n", e.getKey().command, h.getCount(), errors.get(e.getKey()),
+                        h.getCount() / seconds, micros(h.getPercentile(0.5)), micros(h.getPercentile(0.99)), micros(h.getPercentile(0.999)), micros(h.getMax())));
+            }
+            builder.append(String.format("%d operations in %.2f s, %.0f ops/s, written %.1f MB/s, read %.1f MB/s%n",
+                    getOperations(), seconds, getOperations() / seconds, bytesWritten / 1e6 / seconds, bytesRead / 1e6 / seconds));
+            builder.append(corruptions).append(" corrupted reads, ").append(filesVerified).append(" files verified in ").append(runDir).append('\n');
+            for (String message : errorMessages) {
+                builder.append("error: ").append(message).append('\n');
+            }
+            builder.append(check == null ? "Check failed" : check.toString());
+            return builder.toString();
+        }
+
+        private static long micros(long nanos) {
+            return TimeUnit.NANOSECONDS.toMicros(nanos);
+        }
+    }
+
+    private final FATFileSystem fs;
+    private final LoadParams params;
+    private final byte[][] contents; // what a file of every size holds
+    private final Path[] sources; // host files with those contents
+    private final Path hostDir;
+    private final Map<LoadParams.Operation, LogHistogram> latencies = new EnumMap<>(LoadParams.Operation.class);
+    private final Map<LoadParams.Operation, LongAdder> errors = new EnumMap<>(LoadParams.Operation.class);
+    private final LongAdder corruptions = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final AtomicLong issued = new AtomicLong();
+    private final List<String> errorMessages = Collections.synchronizedList(new ArrayList<>());
+    private long deadline;
+
+    private LoadGenerator(FATFileSystem fs, LoadParams params, Path hostDir) throws IOException {
+        this.fs = fs;
+        this.params = params;
+        this.hostDir = hostDir;
+        this.contents = new byte[params.sizes.length][];
+        this.sources = new Path[params.sizes.length];
+        Random random = new Random(params.seed);
+        for (int i = 0; i < contents.length; i++) {
+            contents[i] = new byte[(int) params.sizes[i]];
+            random.nextBytes(contents[i]);
+            sources[i] = Files.write(hostDir.resolve("source-" + i), contents[i]);
+        }
+        for (LoadParams.Operation o : LoadParams.Operation.values()) {
+            latencies.put(o, new LogHistogram());
+            errors.put(o, new LongAdder());
+        }
+    }
+
+    /**
+     * Runs the load in a new directory under the root of the open disk. Source and copied out files
+     * live in a temporary host directory that is removed afterwards.
+     */
+    static Report run(FATFileSystem fs, LoadParams params) throws IOException, InterruptedException {
+        Path hostDir = Files.createTempDirectory("fatfs-load");
+        try {
+            return new LoadGenerator(fs, params, hostDir).run();
+        } finally {
+            try (Stream<Path> paths = Files.walk(hostDir)) {
+                for (Path p : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.deleteIfExists(p);
+                }
+            }
+        }
+    }
+
+    private Report run() throws InterruptedException {
+        String runDir = null;
+        for (int i = 0; runDir == null; i++) {
+            if (fs.viewDir("/LOAD" + i) == null) {
+                runDir = "/LOAD" + i;
+            }
+        }
+        check(fs.mkDir(runDir));
+        Worker[] workers = new Worker[params.threads];
+        for (int t = 0; t < workers.length; t++) {
+            workers[t] = new Worker(t, runDir + "/T" + t, new Random(params.seed * 31 + t));
+            check(fs.mkDir(workers[t].dirs.get(0)));
+        }
+        Thread[] threads = new Thread[workers.length];
+        long startedAt = System.nanoTime();
+        deadline = params.durationMillis == 0 ? Long.MAX_VALUE : startedAt + TimeUnit.MILLISECONDS.toNanos(params.durationMillis);
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(workers[t], "fat-load-" + t);
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - startedAt;
+
+        long verified = 0;
+        for (Worker w : workers) {
+            for (int i = 0; i < w.files.size(); i++) {
+                if (!matches(fs.readFile(w.files.get(i), 0, Integer.MAX_VALUE - 8), w.fileSizes.get(i))) {
+                    corruptions.increment();
+                    error("Verification of " + w.files.get(i) + " failed");
+                }
+                verified++;
+            }
+        }
+        Map<LoadParams.Operation, Long> errorCounts = new EnumMap<>(LoadParams.Operation.class);
+        errors.forEach((o, count) -> errorCounts.put(o, count.sum()));
+        return new Report(params, runDir, latencies, errorCounts, corruptions.sum(), bytesWritten.sum(), bytesRead.sum(),
+                elapsed, verified, new ArrayList<>(errorMessages), fs.check(false));
+    }
+
+    private class Worker implements Runnable {
+        final int id;
+        final Random random;
+        final List<String> dirs = new ArrayList<>();
+        final List<String> files = new ArrayList<>();
+        final List<Integer> fileSizes = new ArrayList<>(); // index into the sizes of the params
+        final LoadParams.Operation[] choices;
+        final int[] sizeChoices;
+        int nextName;
+
+        Worker(int id, String root, Random random) {
+            this.id = id;
+            this.random = random;
+            this.dirs.add(root);
+            this.choices = weighted(params.mix);
+            this.sizeChoices = weighted(params.sizeWeights);
+        }
+
+        @Override
+        public void run() {
+            while (issued.getAndIncrement() < params.operations && System.nanoTime() < deadline) {
+                LoadParams.Operation op = choices[random.nextInt(choices.length)];
+                if (files.isEmpty() && (op == LoadParams.Operation.COPY_OUT || op == LoadParams.Operation.CAT || op == LoadParams.Operation.DELETE)) {
+                    op = LoadParams.Operation.COPY_IN;
+                }
+                long startedAt = System.nanoTime();
+                boolean ok;
+                try {
+                    ok = execute(op);
+                } catch (Throwable e) {
+                    error(op.command + " threw " + e);
+                    ok = false;
+                }
+                latencies.get(op).record(System.nanoTime() - startedAt);
+                if (!ok) {
+                    errors.get(op).increment();
+                }
+            }
+        }
+
+        private boolean execute(LoadParams.Operation op) throws IOException {
+            switch (op) {
+                case MKDIR: {
+                    String path = randomDir() + "/D" + nextName++;
+                    if (!result(op, path, fs.mkDir(path))) {
+                        return false;
+                    }
+                    dirs.add(path);
+                    return true;
+                }
+                case COPY_IN: {
+                    String path = randomDir() + "/F" + nextName++ + ".BIN";
+                    int size = sizeChoices[random.nextInt(sizeChoices.length)];
+                    if (!result(op, path, fs.copyFileFromSystem(sources[size].toString(), path))) {
+                        return false;
+                    }
+                    files.add(path);
+                    fileSizes.add(size);
+                    bytesWritten.add(contents[size].length);
+                    return true;
+                }
+                case COPY_OUT: {
+                    int file = random.nextInt(files.size());
+                    Path target = hostDir.resolve("out-" + id);
+                    try {
+                        if (!result(op, files.get(file), fs.copyFileToSystem(files.get(file), target.toString()))) {
+                            return false;
+                        }
+                        return verify(files.get(file), Files.readAllBytes(target), fileSizes.get(file));
+                    } finally {
+                        Files.deleteIfExists(target);
+                    }
+                }
+                case LS: {
+                    String path = randomDir();
+                    if (fs.viewDir(path) == null) {
+                        error("ls " + path + " failed");
+                        return false;
+                    }
+                    return true;
+                }
+                case CAT: {
+                    int file = random.nextInt(files.size());
+                    return verify(files.get(file), fs.readFile(files.get(file), 0, Integer.MAX_VALUE - 8), fileSizes.get(file));
+                }
+                case DELETE: {
+                    int file = random.nextInt(files.size());
+                    if (!result(op, files.get(file), fs.deleteFile(files.get(file)))) {
+                        return false;
+                    }
+                    files.remove(file);
+                    fileSizes.remove(file);
+                    return true;
+                }
+            }
+            throw new IllegalStateException("Unknown operation " + op);
+        }
+
+        private String randomDir() {
+            return dirs.get(random.nextInt(dirs.size()));
+        }
+
+        private boolean verify(String path, byte[] bytes, int size) {
+            if (bytes == null) {
+                error("Cannot read " + path);
+                return false;
+            }
+            bytesRead.add(bytes.length);
+            if (!matches(bytes, size)) {
+                corruptions.increment();
+                error("Content of " + path + " does not match what was copied in");
+            }
+            return true;
+        }
+    }
+
+    private boolean matches(byte[] bytes, int size) {
+        return bytes != null && Arrays.equals(bytes, contents[size]);
+    }
+
+    private boolean result(LoadParams.Operation op, String path, OperationResult result) {
+        if (!result.isOk) {
+            error(op.command + " " + path + ": " + result.message + (result.error == null ? "" : " (" + result.error.getMessage() + ")"));
+        }
+        return result.isOk;
+    }
+
+    private void error(String message) {
+        synchronized (errorMessages) {
+            if (errorMessages.size() < MAX_ERROR_MESSAGES) {
+                errorMessages.add(message);
+            }
+        }
+    }
+
+    private static void check(OperationResult result) {
+        if (!result.isOk) {
+            throw new IllegalStateException(result.message, result.error);
+        }
+    }
+
+    private static LoadParams.Operation[] weighted(Map<LoadParams.Operation, Integer> weights) {
+        List<LoadParams.Operation> choices = new ArrayList<>();
+        weights.forEach((o, w) -> choices.addAll(Collections.nCopies(w, o)));
+        return choices.toArray(new LoadParams.Operation[0]);
+    }
+
+    private static int[] weighted(int[] weights) {
+        int[] choices = new int[Arrays.stream(weights).sum()];
+        for (int i = 0, next = 0; i < weights.length; i++) {
+            Arrays.fill(choices, next, next += weights[i], i);
+        }
+        return choices;
+    }
+}
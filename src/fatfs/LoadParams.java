@@ -0,0 +1,181 @@
+package fatfs;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * What a {@link LoadGenerator} run does: how many threads, for how long, which operations in what
+ * proportion and what file sizes copy-in picks from.
+ */
+public class LoadParams {
+    public enum Operation {
+        MKDIR("mkdir"),
+        COPY_IN("copy-in"),
+        COPY_OUT("copy-out"),
+        LS("ls"),
+        CAT("cat"),
+        DELETE("delete");
+
+        final String command;
+
+        Operation(String command) {
+            this.command = command;
+        }
+
+        static Operation byCommand(String command) {
+            for (Operation o : values()) {
+                if (o.command.equals(command)) {
+                    return o;
+                }
+            }
+            throw new IllegalArgumentException("Unknown operation " + command);
+        }
+    }
+
+    final int threads;
+    final long operations; // over all threads
+    final long durationMillis; // stop earlier once this long has passed, 0 for no limit
+    final Map<Operation, Integer> mix; // operation -> weight
+    final long[] sizes; // file sizes copy-in picks from
+    final int[] sizeWeights;
+    final long seed;
+
+    private LoadParams(int threads, long operations, long durationMillis, Map<Operation, Integer> mix, long[] sizes, int[] sizeWeights, long seed) {
+        this.threads = threads;
+        this.operations = operations;
+        this.durationMillis = durationMillis;
+        this.mix = mix;
+        this.sizes = sizes;
+        this.sizeWeights = sizeWeights;
+        this.seed = seed;
+    }
+
+    /**
+     * 10000 operations on as many threads as there are cores. Files are mostly small with a few
+     * large ones, and the mix adds files a bit faster than it deletes them.
+     */
+    static LoadParams standard() {
+        Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+        mix.put(Operation.MKDIR, 2);
+        mix.put(Operation.COPY_IN, 30);
+        mix.put(Operation.COPY_OUT, 10);
+        mix.put(Operation.LS, 20);
+        mix.put(Operation.CAT, 25);
+        mix.put(Operation.DELETE, 13);
+        return new LoadParams(Runtime.getRuntime().availableProcessors(), 10_000, 0, mix,
+                new long[]{512, 4 * 1024, 64 * 1024, 1024 * 1024}, new int[]{30, 40, 25, 5}, 1);
+    }
+
+    LoadParams withThreads(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Thread count must be positive");
+        }
+        return new LoadParams(threads, operations, durationMillis, mix, sizes, sizeWeights, seed);
+    }
+
+    LoadParams withOperations(long operations) {
+        if (operations <= 0) {
+            throw new IllegalArgumentException("Operation count must be positive");
+        }
+        return new LoadParams(threads, operations, durationMillis, mix, sizes, sizeWeights, seed);
+    }
+
+    /**
+     * Same params, with the run stopped after {@code millis} even if operations are left.
+     */
+    LoadParams withDuration(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Duration cannot be negative");
+        }
+        return new LoadParams(threads, operations, millis, mix, sizes, sizeWeights, seed);
+    }
+
+    LoadParams withSeed(long seed) {
+        return new LoadParams(threads, operations, durationMillis, mix, sizes, sizeWeights, seed);
+    }
+
+    /**
+     * @param mix weights like {@code copy-in=30,cat=25,delete=13}, operations left out are not run
+     */
+    LoadParams withMix(String mix) {
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String[] pair : pairs(mix)) {
+            weights.put(Operation.byCommand(pair[0]), parseWeight(pair[1]));
+        }
+        if (weights.values().stream().mapToInt(w -> w).sum() == 0) {
+            throw new IllegalArgumentException("Mix " + mix + " has no operation with a positive weight");
+        }
+        return new LoadParams(threads, operations, durationMillis, weights, sizes, sizeWeights, seed);
+    }
+
+    /**
+     * @param sizes weights like {@code 4k=40,64k=25,1m=5}, sizes take a k, m or g suffix
+     */
+    LoadParams withSizes(String sizes) {
+        String[][] pairs = pairs(sizes);
+        long[] values = new long[pairs.length];
+        int[] weights = new int[pairs.length];
+        for (int i = 0; i < pairs.length; i++) {
+            values[i] = parseSize(pairs[i][0]);
+            weights[i] = parseWeight(pairs[i][1]);
+        }
+        if (Arrays.stream(weights).sum() == 0) {
+            throw new IllegalArgumentException("Sizes " + sizes + " have no positive weight");
+        }
+        return new LoadParams(threads, operations, durationMillis, mix, values, weights, seed);
+    }
+
+    private static String[][] pairs(String text) {
+        String[] items = text.split(",");
+        String[][] pairs = new String[items.length][];
+        for (int i = 0; i < items.length; i++) {
+            pairs[i] = items[i].trim().split("=");
+            if (pairs[i].length != 2) {
+                throw new IllegalArgumentException("Expected name=weight but was " + items[i]);
+            }
+        }
+        return pairs;
+    }
+
+    private static int parseWeight(String text) {
+        int weight = Integer.parseInt(text.trim());
+        if (weight < 0) {
+            throw new IllegalArgumentException("Weight cannot be negative");
+        }
+        return weight;
+    }
+
+    private static long parseSize(String text) {
+        String size = text.trim().toLowerCase();
+        long unit = 1;
+        if (size.endsWith("k")) {
+            unit = 1024;
+        } else if (size.endsWith("m")) {
+            unit = 1024 * 1024;
+        } else if (size.endsWith("g")) {
+            unit = 1024 * 1024 * 1024;
+        }
+        long bytes = Long.parseLong(unit == 1 ? size : size.substring(0, size.length() - 1)) * unit;
+        if (bytes <= 0 || bytes > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("File size " + text + " is out of range");
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < sizes.length; i++) {
+            builder.append(i == 0 ? "" : ",").append(sizes[i]).append('=').append(sizeWeights[i]);
+        }
+        return "LoadParams{" +
+                "threads=" + threads +
+                ", operations=" + operations +
+                ", durationMillis=" + durationMillis +
+                ", mix=" + mix +
+                ", sizes=" + builder +
+                ", seed=" + seed +
+                '}';
+    }
+}
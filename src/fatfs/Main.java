@@ -0,0 +1,108 @@
+package fatfs;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
+import java.util.Scanner;
+
+public class Main {
+    /**
+     * Without arguments starts the interactive console.
+     * {@code --batch <command-file>|-} runs the commands of the file or of stdin without prompts,
+     * {@code --single-commit} writes metadata once at the end and {@code --timing} prints
+     * the time of every command and a throughput summary. {@code --serve <port>} serves images to
+     * {@link FATClient}s on the loopback address until stdin is closed, {@code --workers} sets the
+     * number of threads running their operations and {@code --root} the directory that image and host
+     * file paths of clients must stay in, the working directory by default. {@code --load <image-path>|ram} runs a
+     * {@link LoadGenerator} against the image, created if it does not exist, or a RAM disk, prints the
+     * report and exits with 1 if anything failed; {@code --threads}, {@code --ops}, {@code --seconds},
+     * {@code --mix}, {@code --sizes} and {@code --seed} shape the load.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Controller controller = new Controller();
+        String batchSource = null;
+        boolean singleCommit = false;
+        boolean timing = false;
+        int servePort = -1;
+        int workers = Runtime.getRuntime().availableProcessors();
+        String serveRoot = "";
+        String loadImage = null;
+        LoadParams load = LoadParams.standard();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--batch") && i + 1 < args.length) {
+                batchSource = args[++i];
+            } else if (args[i].equals("--single-commit")) {
+                singleCommit = true;
+            } else if (args[i].equals("--timing")) {
+                timing = true;
+            } else if (args[i].equals("--serve") && i + 1 < args.length) {
+                servePort = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--workers") && i + 1 < args.length) {
+                workers = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--root") && i + 1 < args.length) {
+                serveRoot = args[++i];
+            } else if (args[i].equals("--load") && i + 1 < args.length) {
+                loadImage = args[++i];
+            } else if (args[i].equals("--threads") && i + 1 < args.length) {
+                load = load.withThreads(Integer.parseInt(args[++i]));
+            } else if (args[i].equals("--ops") && i + 1 < args.length) {
+                load = load.withOperations(Long.parseLong(args[++i]));
+            } else if (args[i].equals("--seconds") && i + 1 < args.length) {
+                load = load.withDuration(Long.parseLong(args[++i]) * 1000);
+            } else if (args[i].equals("--mix") && i + 1 < args.length) {
+                load = load.withMix(args[++i]);
+            } else if (args[i].equals("--sizes") && i + 1 < args.length) {
+                load = load.withSizes(args[++i]);
+            } else if (args[i].equals("--seed") && i + 1 < args.length) {
+                load = load.withSeed(Long.parseLong(args[++i]));
+            } else {
+                System.err.println("Usage: [--batch <command-file>|-] [--single-commit] [--timing] | --serve <port> [--workers <n>] [--root <dir>]"
+                        + " | --load <image-path>|ram [--threads <n>] [--ops <n>] [--seconds <s>] [--mix <op=weight,...>] [--sizes <size=weight,...>] [--seed <n>]");
+                System.exit(2);
+            }
+        }
+        if (loadImage != null) {
+            System.exit(runLoad(loadImage, load));
+        }
+        if (servePort >= 0) {
+            try (FATServer server = FATServer.start(servePort, workers, Paths.get(serveRoot))) {
+                System.out.println("Serving " + server.getRoot() + " on " + server.getAddress() + ", close stdin to stop");
+                while (System.in.read() >= 0) {
+                    // only the end of input matters
+                }
+            }
+            return;
+        }
+        if (batchSource == null) {
+            controller.start(new Scanner(System.in));
+            return;
+        }
+        InputStream input = batchSource.equals("-") ? System.in : new FileInputStream(batchSource);
+        try (Scanner scanner = new Scanner(input)) {
+            System.exit(controller.runBatch(scanner, singleCommit, timing));
+        }
+    }
+
+    private static int runLoad(String image, LoadParams params) throws IOException, InterruptedException {
+        FAT fat = new FAT();
+        RamBlockDevice ram = image.equals("ram") ? RamBlockDevice.heap() : null;
+        OperationResult opened = ram != null ? fat.createDisk(ram, DiskCreationParams.big())
+                : new File(image).exists() ? fat.openDisk(image) : fat.createDisk(image, DiskCreationParams.big());
+        if (!opened.isOk) {
+            System.err.println(opened);
+            return 1;
+        }
+        try {
+            LoadGenerator.Report report = LoadGenerator.run(fat, params);
+            System.out.println(report);
+            return report.isClean() ? 0 : 1;
+        } finally {
+            fat.close();
+            if (ram != null) {
+                ram.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package fatfs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Image in a memory-mapped file. The file is mapped in segments of {@link #SEGMENT_BYTES} on first
+ * access, so reads and writes are plain memory copies and the page cache does the I/O. Writing past the
+ * end grows the file and maps it again.
+ */
+public class MappedBlockDevice implements BlockDevice {
+    static final int SEGMENT_BYTES = 1 << 30;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private long size;
+    private MappedByteBuffer[] segments;
+
+    private MappedBlockDevice(File file) throws IOException {
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+        this.size = channel.size();
+        this.segments = new MappedByteBuffer[segmentsFor(size)];
+    }
+
+    public static MappedBlockDevice open(File file) throws IOException {
+        if (!file.isFile()) {
+            throw new IllegalArgumentException("File at path " + file + " does not exist or is a directory");
+        }
+        return new MappedBlockDevice(file);
+    }
+
+    public static MappedBlockDevice create(File file) throws IOException {
+        if (!file.createNewFile()) {
+            throw new IllegalArgumentException("File at path " + file + " already exists");
+        }
+        return new MappedBlockDevice(file);
+    }
+
+    @Override
+    public void read(long position, ByteBuffer dst) throws IOException {
+        while (dst.hasRemaining()) {
+            if (position >= size()) {
+                while (dst.hasRemaining()) {
+                    dst.put((byte) 0);
+                }
+                return;
+            }
+            ByteBuffer source = slice(position, dst.remaining());
+            position += source.remaining();
+            dst.put(source);
+        }
+    }
+
+    @Override
+    public void write(long position, ByteBuffer src) throws IOException {
+        long end = position + src.remaining();
+        synchronized (this) {
+            if (end > size) {
+                setSize(end);
+            }
+        }
+        while (src.hasRemaining()) {
+            ByteBuffer target = slice(position, src.remaining());
+            int length = target.remaining();
+            ByteBuffer part = src.duplicate();
+            part.limit(part.position() + length);
+            target.put(part);
+            src.position(src.position() + length);
+            position += length;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        MappedByteBuffer[] mapped;
+        synchronized (this) {
+            mapped = segments.clone();
+        }
+        for (MappedByteBuffer segment : mapped) {
+            if (segment != null) {
+                segment.force();
+            }
+        }
+    }
+
+    @Override
+    public synchronized long size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void setSize(long size) throws IOException {
+        raf.setLength(size);
+        // segments that change length are mapped again, the full ones before them stay valid
+        int kept = (int) (Math.min(size, this.size) / SEGMENT_BYTES);
+        segments = Arrays.copyOf(Arrays.copyOf(segments, kept), segmentsFor(size));
+        this.size = size;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        segments = new MappedByteBuffer[0];
+        size = 0;
+        raf.close();
+    }
+
+    @Override
+    public String toString() {
+        return file.getAbsolutePath() + " (mapped)";
+    }
+
+    /**
+     * View of at most {@code length} bytes from {@code position} to the end of its segment.
+     */
+    private ByteBuffer slice(long position, int length) throws IOException {
+        int index = (int) (position / SEGMENT_BYTES);
+        int offset = (int) (position % SEGMENT_BYTES);
+        ByteBuffer view = segment(index).duplicate();
+        view.position(offset);
+        view.limit((int) Math.min(view.capacity(), (long) offset + length));
+        return view;
+    }
+
+    private synchronized MappedByteBuffer segment(int index) throws IOException {
+        MappedByteBuffer segment = segments[index];
+        if (segment == null) {
+            long start = (long) index * SEGMENT_BYTES;
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(SEGMENT_BYTES, size - start));
+            segments[index] = segment;
+        }
+        return segment;
+    }
+
+    private static int segmentsFor(long size) {
+        return (int) ((size + SEGMENT_BYTES - 1) / SEGMENT_BYTES);
+    }
+}
@@ -1,3 +1,5 @@
+package fatfs;
+
 public class OperationResult {
     String message;
     boolean isOk;
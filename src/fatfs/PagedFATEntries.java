@@ -0,0 +1,140 @@
+package fatfs;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the table on disk and loads it in pages of {@link #PAGE_BYTES} on first access. Pages stay in
+ * their on-disk encoding and the least recently used clean ones are evicted once the cache budget is
+ * exceeded. Dirty pages are written only by {@link #flush}, so deferred and batched commits keep the FAT
+ * region untouched until then; while many pages are dirty the cache may grow past its budget.
+ */
+class PagedFATEntries implements FATEntries {
+    // divisible by every sector size and by the 3 byte FAT12 entry pair
+    static final int PAGE_BYTES = 3 * 4096;
+
+    private final FATType type;
+    private final BlockDevice device;
+    private final long fatOffset;
+    private final long size;
+    private final long sizeInBytes;
+    private final int entriesPerPage;
+    private final int maxPages;
+    private final LinkedHashMap<Integer, Page> pages;
+
+    private static class Page {
+        final ByteBuffer bytes;
+        boolean dirty;
+
+        Page(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    PagedFATEntries(FATType type, BlockDevice device, long fatOffset, long size, long cacheBytes) {
+        this.type = type;
+        this.device = device;
+        this.fatOffset = fatOffset;
+        this.size = size;
+        this.sizeInBytes = FATEncoding.sizeInBytes(type, size);
+        this.entriesPerPage = PAGE_BYTES * 8 / FATEncoding.bitsPerEntry(type);
+        this.maxPages = (int) Math.max(1, Math.min(Integer.MAX_VALUE, cacheBytes / PAGE_BYTES));
+        this.pages = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    int getEntriesPerPage() {
+        return entriesPerPage;
+    }
+
+    int getCachedPagesCount() {
+        return pages.size();
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public long get(long cluster) {
+        return FATEncoding.get(type, page(cluster).bytes, (int) (cluster % entriesPerPage));
+    }
+
+    @Override
+    public void set(long cluster, long value) {
+        Page page = page(cluster);
+        FATEncoding.set(type, page.bytes, (int) (cluster % entriesPerPage), value);
+        page.dirty = true;
+    }
+
+    @Override
+    public void write(DataOutput stream) throws IOException {
+        int count = pagesCount();
+        for (int i = 0; i < count; i++) {
+            Page page = pages.get(i);
+            ByteBuffer bytes = page != null ? page.bytes : load(i);
+            stream.write(bytes.array(), 0, bytes.capacity());
+        }
+    }
+
+    @Override
+    public long flush(BlockDevice device, long fatOffset) throws IOException {
+        long written = 0;
+        for (Map.Entry<Integer, Page> e : pages.entrySet()) {
+            if (e.getValue().dirty) {
+                written += writePage(device, fatOffset, e.getKey(), e.getValue());
+            }
+        }
+        evict(maxPages);
+        return written;
+    }
+
+    private Page page(long cluster) {
+        if (cluster < 0 || cluster >= size) {
+            throw new IllegalArgumentException("Cluster " + cluster + " is out of the table");
+        }
+        int index = (int) (cluster / entriesPerPage);
+        Page page = pages.get(index);
+        if (page == null) {
+            page = new Page(load(index));
+            evict(maxPages - 1);
+            pages.put(index, page);
+        }
+        return page;
+    }
+
+    // drops clean pages in access order until the budget is met, dirty ones wait for the next flush
+    private void evict(int limit) {
+        Iterator<Page> it = pages.values().iterator();
+        while (pages.size() > limit && it.hasNext()) {
+            if (!it.next().dirty) {
+                it.remove();
+            }
+        }
+    }
+
+    private int pagesCount() {
+        return (int) ((size + entriesPerPage - 1) / entriesPerPage);
+    }
+
+    private ByteBuffer load(int index) {
+        long start = (long) index * PAGE_BYTES;
+        byte[] bytes = new byte[(int) Math.min(PAGE_BYTES, sizeInBytes - start)];
+        try {
+            device.read(fatOffset + start, bytes, 0, bytes.length);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read FAT page " + index, e);
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private static int writePage(BlockDevice device, long fatOffset, int index, Page page) throws IOException {
+        device.write(fatOffset + (long) index * PAGE_BYTES, page.bytes.array(), 0, page.bytes.capacity());
+        page.dirty = false;
+        return page.bytes.capacity();
+    }
+}
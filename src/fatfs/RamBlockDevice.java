@@ -0,0 +1,201 @@
+package fatfs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Image kept in memory, on the heap or in direct buffers outside of it. Memory is taken in chunks of
+ * {@link #CHUNK_BYTES} on the first write to them, so a sparse image costs only what has been written.
+ * The image can be loaded from and dumped to a file, which keeps its unwritten chunks sparse.
+ */
+public class RamBlockDevice implements BlockDevice {
+    static final int CHUNK_BYTES = 1 << 20;
+
+    private final boolean direct;
+    private final String name;
+    private long size;
+    private ByteBuffer[] chunks = new ByteBuffer[0];
+
+    private RamBlockDevice(boolean direct, String name) {
+        this.direct = direct;
+        this.name = name;
+    }
+
+    public static RamBlockDevice heap() {
+        return new RamBlockDevice(false, "ram");
+    }
+
+    public static RamBlockDevice offHeap() {
+        return new RamBlockDevice(true, "ram (off-heap)");
+    }
+
+    /**
+     * Reads a whole image into memory. Chunks that hold only zeros are not allocated.
+     */
+    public static RamBlockDevice load(File file, boolean direct) throws IOException {
+        RamBlockDevice device = new RamBlockDevice(direct, "ram from " + file.getAbsolutePath());
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            device.setSize(channel.size());
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK_BYTES);
+            for (int i = 0; i < device.chunks.length; i++) {
+                buffer.clear();
+                long start = (long) i * CHUNK_BYTES;
+                buffer.limit((int) Math.min(CHUNK_BYTES, device.size - start));
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, start + buffer.position()) < 0) {
+                        break;
+                    }
+                }
+                buffer.flip();
+                if (!isZero(buffer)) {
+                    device.write(start, buffer);
+                }
+            }
+        }
+        return device;
+    }
+
+    /**
+     * Writes the image into {@code file}, replacing its content.
+     */
+    public void dump(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer[] snapshot;
+            long length;
+            synchronized (this) {
+                snapshot = chunks.clone();
+                length = size;
+            }
+            raf.setLength(0);
+            raf.setLength(length);
+            for (int i = 0; i < snapshot.length; i++) {
+                if (snapshot[i] == null) {
+                    continue;
+                }
+                ByteBuffer chunk = snapshot[i].duplicate();
+                long start = (long) i * CHUNK_BYTES;
+                chunk.clear().limit((int) Math.min(CHUNK_BYTES, length - start));
+                while (chunk.hasRemaining()) {
+                    channel.write(chunk, start + chunk.position());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void read(long position, ByteBuffer dst) {
+        while (dst.hasRemaining()) {
+            int offset = (int) (position % CHUNK_BYTES);
+            int length = Math.min(dst.remaining(), CHUNK_BYTES - offset);
+            ByteBuffer chunk = chunk(position, false);
+            if (chunk == null) {
+                for (int i = 0; i < length; i++) {
+                    dst.put((byte) 0);
+                }
+            } else {
+                chunk.position(offset).limit(offset + length);
+                dst.put(chunk);
+            }
+            position += length;
+        }
+    }
+
+    @Override
+    public void write(long position, ByteBuffer src) {
+        synchronized (this) {
+            if (position + src.remaining() > size) {
+                setSize(position + src.remaining());
+            }
+        }
+        while (src.hasRemaining()) {
+            int offset = (int) (position % CHUNK_BYTES);
+            int length = Math.min(src.remaining(), CHUNK_BYTES - offset);
+            ByteBuffer chunk = chunk(position, true);
+            ByteBuffer part = src.duplicate();
+            part.limit(part.position() + length);
+            chunk.position(offset);
+            chunk.put(part);
+            src.position(src.position() + length);
+            position += length;
+        }
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public synchronized long size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void setSize(long size) {
+        int count = (int) ((size + CHUNK_BYTES - 1) / CHUNK_BYTES);
+        if (size < this.size && size % CHUNK_BYTES != 0 && count > 0 && count <= chunks.length && chunks[count - 1] != null) {
+            // bytes cut off the last chunk have to read as zeros if the device grows again
+            ByteBuffer tail = chunks[count - 1].duplicate();
+            tail.position((int) (size % CHUNK_BYTES));
+            while (tail.hasRemaining()) {
+                tail.put((byte) 0);
+            }
+        }
+        chunks = Arrays.copyOf(chunks, count);
+        this.size = size;
+    }
+
+    /**
+     * Releases the memory of the image, the device is empty afterwards.
+     */
+    @Override
+    public synchronized void close() {
+        chunks = new ByteBuffer[0];
+        size = 0;
+    }
+
+    /**
+     * Bytes of memory taken by the chunks written so far.
+     */
+    public synchronized long allocatedBytes() {
+        return Arrays.stream(chunks).filter(c -> c != null).count() * CHUNK_BYTES;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * Own view of the chunk holding {@code position}, or null if it was never written and not {@code allocate}.
+     */
+    private synchronized ByteBuffer chunk(long position, boolean allocate) {
+        int index = (int) (position / CHUNK_BYTES);
+        if (index >= chunks.length) {
+            return null;
+        }
+        ByteBuffer chunk = chunks[index];
+        if (chunk == null) {
+            if (!allocate) {
+                return null;
+            }
+            chunk = direct ? ByteBuffer.allocateDirect(CHUNK_BYTES) : ByteBuffer.allocate(CHUNK_BYTES);
+            chunks[index] = chunk;
+        }
+        return chunk.duplicate();
+    }
+
+    private static boolean isZero(ByteBuffer buffer) {
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            if (buffer.get(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,64 @@
+package fatfs;
+
+/**
+ * When the boot record and FAT changed by operations are written to the image and when the device is
+ * forced to storage. Data and directory clusters are always written right away, the policy only
+ * decides when they are forced.
+ */
+public class SyncPolicy {
+    final boolean writeEachChange; // write boot record and FAT after every change instead of keeping them pending
+    final boolean forceEachChange; // force the device after every change
+    final long intervalMillis; // period of the background flusher, 0 for none
+    final int maxChanges; // wake the background flusher once this many changes are pending, 0 for no limit
+
+    private SyncPolicy(boolean writeEachChange, boolean forceEachChange, long intervalMillis, int maxChanges) {
+        this.writeEachChange = writeEachChange;
+        this.forceEachChange = forceEachChange;
+        this.intervalMillis = intervalMillis;
+        this.maxChanges = maxChanges;
+    }
+
+    /**
+     * Metadata written after every change and forced whenever the OS gets to it, the default.
+     */
+    static SyncPolicy writeThrough() {
+        return new SyncPolicy(true, false, 0, 0);
+    }
+
+    /**
+     * Metadata written and the device forced after every change.
+     */
+    static SyncPolicy perOperation() {
+        return new SyncPolicy(true, true, 0, 0);
+    }
+
+    /**
+     * Metadata kept in memory and written, with the device forced, by a background thread every
+     * {@code millis} and as soon as {@code changes} changes are pending. Either bound may be 0 for none.
+     */
+    static SyncPolicy periodic(long millis, int changes) {
+        if (millis < 0 || changes < 0 || millis == 0 && changes == 0) {
+            throw new IllegalArgumentException("Sync period or change count must be positive");
+        }
+        return new SyncPolicy(false, false, millis, changes);
+    }
+
+    /**
+     * Metadata kept in memory until {@link FAT#sync} or the disk is closed.
+     */
+    static SyncPolicy onClose() {
+        return new SyncPolicy(false, false, 0, 0);
+    }
+
+    boolean isBackground() {
+        return intervalMillis > 0 || maxChanges > 0;
+    }
+
+    @Override
+    public String toString() {
+        if (isBackground()) {
+            return "periodic(" + intervalMillis + " ms, " + maxChanges + " changes)";
+        }
+        return writeEachChange ? forceEachChange ? "per-operation" : "write-through" : "on-close";
+    }
+}
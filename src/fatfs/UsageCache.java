@@ -0,0 +1,155 @@
+package fatfs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.LongFunction;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Subtree totals per directory cluster. A directory is only cached together with its whole subtree,
+ * so when a directory is not cached none of its ancestors are, and a change under a directory only
+ * has to be added to the cached chain of its ancestors.
+ */
+class UsageCache {
+    static class Node {
+        final long parentCluster; // -1 for the root directory
+        long clusters;
+        long bytes;
+        long files;
+        long directories;
+
+        Node(long parentCluster) {
+            this.parentCluster = parentCluster;
+        }
+    }
+
+    private final ConcurrentHashMap<Long, Node> nodes = new ConcurrentHashMap<>();
+    private final long rootCluster;
+    private final LongFunction<DirectoryView> readDirectory;
+    private final LongUnaryOperator chainLength;
+
+    /**
+     * @param readDirectory entries of the directory that starts at the cluster, may be called concurrently
+     * @param chainLength   number of clusters in the chain that starts at the cluster, may be called concurrently
+     */
+    UsageCache(long rootCluster, LongFunction<DirectoryView> readDirectory, LongUnaryOperator chainLength) {
+        this.rootCluster = rootCluster;
+        this.readDirectory = readDirectory;
+        this.chainLength = chainLength;
+    }
+
+    /**
+     * Totals of the directory, computed in parallel on the pool if they are not cached.
+     */
+    Node get(long dirCluster, ForkJoinPool pool) {
+        Node node = nodes.get(dirCluster);
+        if (node != null) {
+            return node;
+        }
+        return pool.invoke(new DirectoryTask(dirCluster));
+    }
+
+    boolean contains(long dirCluster) {
+        return nodes.containsKey(dirCluster);
+    }
+
+    /**
+     * Adds the change to the directory and to every ancestor of it.
+     */
+    void add(long dirCluster, long clusters, long bytes, long files, long directories) {
+        long cluster = dirCluster;
+        Node node;
+        while (cluster != -1 && (node = nodes.get(cluster)) != null) {
+            node.clusters += clusters;
+            node.bytes += bytes;
+            node.files += files;
+            node.directories += directories;
+            cluster = node.parentCluster;
+        }
+    }
+
+    void directoryAdded(long parentCluster, long dirCluster, long clusters) {
+        if (!nodes.containsKey(parentCluster)) {
+            return;
+        }
+        Node node = new Node(parentCluster);
+        node.clusters = clusters;
+        nodes.put(dirCluster, node);
+        add(parentCluster, clusters, 0, 0, 1);
+    }
+
+    /**
+     * Subtracts the directory's subtree from its ancestors. Its own node and those of its
+     * subdirectories have to be dropped with {@link #remove}.
+     */
+    void directoryRemoved(long parentCluster, long dirCluster) {
+        Node node = nodes.get(dirCluster);
+        if (node != null) {
+            add(parentCluster, -node.clusters, -node.bytes, -node.files, -node.directories - 1);
+        }
+    }
+
+    void remove(long dirCluster) {
+        nodes.remove(dirCluster);
+    }
+
+    void clear() {
+        nodes.clear();
+    }
+
+    @SuppressWarnings("serial") // never serialized, only run on a pool
+    private class DirectoryTask extends RecursiveTask<Node> {
+        private final long cluster;
+
+        DirectoryTask(long cluster) {
+            this.cluster = cluster;
+        }
+
+        @Override
+        protected Node compute() {
+            DirectoryView dir = readDirectory.apply(cluster);
+            long parentCluster = -1;
+            for (int i = 0; i < dir.size(); i++) {
+                if (dir.isParentDir(i) && cluster != rootCluster) {
+                    parentCluster = dir.initialCluster(i);
+                }
+            }
+            Node node = new Node(parentCluster);
+            node.clusters = chainLength.applyAsLong(cluster);
+            List<DirectoryTask> subtasks = new ArrayList<>();
+            for (int i = 0; i < dir.size(); i++) {
+                if (dir.isSelfDir(i) || dir.isParentDir(i)) {
+                    continue;
+                }
+                long initialCluster = dir.initialCluster(i);
+                if (dir.isDir(i)) {
+                    Node cached = nodes.get(initialCluster);
+                    if (cached != null) {
+                        addSubtree(node, cached);
+                    } else {
+                        subtasks.add(new DirectoryTask(initialCluster));
+                    }
+                } else {
+                    node.clusters += chainLength.applyAsLong(initialCluster);
+                    node.bytes += dir.fileSize(i);
+                    node.files++;
+                }
+            }
+            for (DirectoryTask task : invokeAll(subtasks)) {
+                addSubtree(node, task.join());
+            }
+            nodes.put(cluster, node);
+            return node;
+        }
+
+        private void addSubtree(Node node, Node subtree) {
+            node.clusters += subtree.clusters;
+            node.bytes += subtree.bytes;
+            node.files += subtree.files;
+            node.directories += subtree.directories + 1;
+        }
+    }
+}
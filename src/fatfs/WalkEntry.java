@@ -0,0 +1,45 @@
+package fatfs;
+
+/**
+ * File or directory met by {@link FAT#walk}, with its absolute path on the disk.
+ */
+public class WalkEntry {
+    final String path;
+    final int depth; // 1 for the children of the directory the walk started at
+    final DirectoryEntry entry;
+
+    WalkEntry(String path, int depth, DirectoryEntry entry) {
+        this.path = path;
+        this.depth = depth;
+        this.entry = entry;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getName() {
+        return entry.fileNameWithExtension();
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public boolean isDir() {
+        return entry.isDir();
+    }
+
+    public long getSize() {
+        return entry.size;
+    }
+
+    public long getInitialCluster() {
+        return entry.initialCluster;
+    }
+
+    @Override
+    public String toString() {
+        return path + (isDir() ? "/" : "");
+    }
+}
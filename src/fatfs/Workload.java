@@ -0,0 +1,105 @@
+package fatfs;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Files a disk is meant to hold: how many files there are of each size and how many entries every
+ * directory has. Made from a host directory or from a histogram of file sizes.
+ */
+public class Workload {
+    final TreeMap<Long, Long> fileSizes; // size -> number of files of that size
+    final List<Long> directoryEntries; // entries of every directory without . and .., the root first
+    final long files;
+    final long bytes;
+
+    private Workload(TreeMap<Long, Long> fileSizes, List<Long> directoryEntries) {
+        this.fileSizes = fileSizes;
+        this.directoryEntries = Collections.unmodifiableList(directoryEntries);
+        long files = 0;
+        long bytes = 0;
+        for (Map.Entry<Long, Long> e : fileSizes.entrySet()) {
+            files += e.getValue();
+            bytes += e.getKey() * e.getValue();
+        }
+        this.files = files;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Every regular file and directory under {@code root}, which stands for the root of the disk.
+     */
+    static Workload scan(Path root) throws IOException {
+        if (!Files.isDirectory(root)) {
+            throw new IllegalArgumentException("Directory at path " + root + " does not exist");
+        }
+        TreeMap<Long, Long> sizes = new TreeMap<>();
+        List<Long> directories = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (Files.isDirectory(path)) {
+                    try (Stream<Path> children = Files.list(path)) {
+                        directories.add(children.count());
+                    }
+                } else if (Files.isRegularFile(path)) {
+                    sizes.merge(Files.size(path), 1L, Long::sum);
+                }
+            }
+        }
+        return new Workload(sizes, directories);
+    }
+
+    /**
+     * {@code counts[i]} files of {@code sizes[i]} bytes spread evenly over {@code directories}
+     * directories under the root.
+     */
+    static Workload histogram(long[] sizes, long[] counts, int directories) {
+        if (sizes.length != counts.length || directories < 0) {
+            throw new IllegalArgumentException("Every size needs a count");
+        }
+        TreeMap<Long, Long> fileSizes = new TreeMap<>();
+        long files = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            if (sizes[i] < 0 || counts[i] < 0) {
+                throw new IllegalArgumentException("Sizes and counts cannot be negative");
+            }
+            fileSizes.merge(sizes[i], counts[i], Long::sum);
+            files += counts[i];
+        }
+        List<Long> entries = new ArrayList<>();
+        if (directories == 0) {
+            entries.add(files);
+        } else {
+            entries.add((long) directories);
+            for (int i = 0; i < directories; i++) {
+                entries.add(files / directories + (i < files % directories ? 1 : 0));
+            }
+        }
+        return new Workload(fileSizes, entries);
+    }
+
+    public long getFiles() {
+        return files;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "Workload{" +
+                "files=" + files +
+                ", bytes=" + bytes +
+                ", directories=" + directoryEntries.size() +
+                ", largestFile=" + (fileSizes.isEmpty() ? 0 : fileSizes.lastKey()) +
+                '}';
+    }
+}
@@ -0,0 +1,95 @@
+package fatfs;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+import static fatfs.FATTest.assertOk;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClusterBufferPoolTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void closingTwiceFails() {
+        ClusterBufferPool pool = new ClusterBufferPool(512, ClusterBufferPool.DEFAULT_RETAINED_BYTES, true);
+        ClusterBufferPool.Buffer buffer = pool.acquire(1000);
+        buffer.close();
+        assertThrows(IllegalStateException.class, buffer::close);
+        assertEquals(0, pool.inUse());
+    }
+
+    @Test
+    void closedBufferCannotBeUsed() {
+        ClusterBufferPool pool = new ClusterBufferPool(512, ClusterBufferPool.DEFAULT_RETAINED_BYTES, false);
+        ClusterBufferPool.Buffer buffer = pool.acquire(100);
+        assertTrue(buffer.array().length >= buffer.length());
+        buffer.close();
+        assertThrows(IllegalStateException.class, buffer::array);
+        assertEquals(0, pool.inUse());
+    }
+
+    @Test
+    void closedBuffersAreReused() {
+        ClusterBufferPool pool = new ClusterBufferPool(512, ClusterBufferPool.DEFAULT_RETAINED_BYTES, true);
+        byte[] first;
+        try (ClusterBufferPool.Buffer buffer = pool.acquire(1024)) {
+            first = buffer.array();
+        }
+        try (ClusterBufferPool.Buffer buffer = pool.acquire(1000)) {
+            assertSame(first, buffer.array());
+        }
+        assertEquals(1, pool.reused());
+        assertEquals(0, pool.leaked());
+    }
+
+    @Test
+    void unclosedBufferIsCountedAsLeaked() throws InterruptedException {
+        ClusterBufferPool pool = new ClusterBufferPool(512, ClusterBufferPool.DEFAULT_RETAINED_BYTES, true);
+        pool.acquire(512);
+        assertEquals(1, pool.inUse());
+        assertEquals(1, collectUntil(pool::leaked, 1));
+        assertEquals(0, pool.inUse());
+    }
+
+    @Test
+    void operationsLeaveNoBuffersBehind() throws Exception {
+        assertTrue(ClusterBufferPool.TRACK_LEAKS, "tests run with fatfs.trackBufferLeaks set");
+        byte[] data = new byte[200_000];
+        new Random(1).nextBytes(data);
+        Path host = Files.write(dir.resolve("host.bin"), data);
+        Path out = dir.resolve("out.bin");
+
+        FAT fat = new FAT();
+        assertOk(fat.createDisk(RamBlockDevice.heap(), DiskCreationParams.medium()));
+        assertOk(fat.mkDir("/DIR"));
+        assertOk(fat.copyFileFromSystem(host.toString(), "/DIR/IN.BIN"));
+        assertOk(fat.copyFileToSystem("/DIR/IN.BIN", out.toString()));
+        assertArrayEquals(data, Files.readAllBytes(out));
+        assertNotNull(fat.listDir("/DIR"));
+        assertOk(fat.copy("/DIR", "/COPY"));
+        assertNotNull(fat.listDir("/COPY"));
+
+        FATMetrics metrics = fat.getMetrics();
+        assertTrue(metrics.getBufferReuses() > 0, "operations went through the pool");
+        assertEquals(0, metrics.getBuffersInUse());
+        assertEquals(0, collectUntil(metrics::getBufferLeaks, 1));
+        assertOk(fat.close());
+    }
+
+    /**
+     * Runs the collector until {@code value} reaches {@code expected} or a few seconds pass.
+     */
+    private static long collectUntil(LongSupplier value, long expected) throws InterruptedException {
+        for (int i = 0; i < 50 && value.getAsLong() < expected; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        return value.getAsLong();
+    }
+}
@@ -0,0 +1,109 @@
+package fatfs;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static fatfs.FATTest.assertOk;
+import static org.junit.jupiter.api.Assertions.*;
+
+class FATServerTest {
+    private static final int CLIENTS = 4;
+    private static final int ROUNDS = 3;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void clientsShareOneImageAcrossOpenCloseAndReopen() throws Exception {
+        byte[] data = new byte[30_000];
+        new Random(3).nextBytes(data);
+        Files.write(dir.resolve("host.bin"), data);
+
+        try (FATServer server = FATServer.start(0, 4, dir)) {
+            try (FATClient client = FATClient.connect(server.getAddress())) {
+                int handle = client.create("shared.img", DiskCreationParams.medium());
+                assertOk(client.close(handle));
+            }
+            assertTrue(server.getOpenImages().isEmpty());
+
+            ExecutorService threads = Executors.newFixedThreadPool(CLIENTS);
+            try {
+                List<Future<Void>> results = new ArrayList<>();
+                for (int c = 0; c < CLIENTS; c++) {
+                    int id = c;
+                    results.add(threads.submit(() -> runClient(server, id, data)));
+                }
+                for (Future<Void> result : results) {
+                    result.get(1, TimeUnit.MINUTES);
+                }
+            } finally {
+                threads.shutdownNow();
+            }
+            assertTrue(server.getOpenImages().isEmpty());
+
+            try (FATClient client = FATClient.connect(server.getAddress())) {
+                int handle = client.open("shared.img");
+                for (int c = 0; c < CLIENTS; c++) {
+                    DirectoryView files = client.listDir(handle, "/C" + c);
+                    assertNotNull(files);
+                    for (int round = 0; round < ROUNDS; round++) {
+                        assertArrayEquals(data, client.readFile(handle, "/C" + c + "/F" + round + ".BIN", 0, data.length));
+                        assertTrue(files.indexOf(DirectoryView.encodeName("F" + round + ".BIN")) >= 0);
+                    }
+                }
+                assertTrue(client.check(handle, false).contains("problems={}"));
+                assertOk(client.close(handle));
+            }
+        }
+    }
+
+    /**
+     * Opens the image once per round, adds a file to a directory of its own and closes the image again,
+     * while the other clients do the same.
+     */
+    private static Void runClient(FATServer server, int id, byte[] data) throws IOException {
+        String home = "/C" + id;
+        try (FATClient client = FATClient.connect(server.getAddress())) {
+            for (int round = 0; round < ROUNDS; round++) {
+                int handle = client.open("shared.img");
+                if (round == 0) {
+                    assertOk(client.mkDir(handle, home));
+                }
+                String file = home + "/F" + round + ".BIN";
+                assertOk(client.copyFileFromSystem(handle, "host.bin", file));
+                assertArrayEquals(data, client.readFile(handle, file, 0, data.length));
+                assertOk(client.writeFile(handle, file, 0, new byte[]{data[0]}));
+                assertNotNull(client.listDir(handle, home));
+                assertNotNull(client.getDiskSpaceInfo(handle));
+                assertOk(client.close(handle));
+            }
+        }
+        return null;
+    }
+
+    @Test
+    void hostPathsStayInTheRoot() throws Exception {
+        Files.write(dir.resolve("inside.bin"), new byte[10]);
+        try (FATServer server = FATServer.start(0, 2, dir);
+             FATClient client = FATClient.connect(server.getAddress())) {
+            int handle = client.create("root.img", DiskCreationParams.medium());
+            assertOk(client.copyFileFromSystem(handle, "inside.bin", "/IN.BIN"));
+            assertFalse(client.copyFileFromSystem(handle, "../outside.bin", "/OUT.BIN").isOk);
+            assertFalse(client.copyFileToSystem(handle, "/IN.BIN", dir.getParent().resolve("escaped.bin").toString()).isOk);
+            assertThrows(IOException.class, () -> client.open(dir.getParent().resolve("other.img").toString()));
+            assertOk(client.close(handle));
+        }
+        assertFalse(Files.exists(dir.getParent().resolve("escaped.bin")));
+    }
+}
@@ -0,0 +1,150 @@
+package fatfs;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FATTest {
+    private static final byte MARKER = 0x5A;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void closeAndReopenWaitForCopyIn() throws Exception {
+        GatedDevice first = new GatedDevice(RamBlockDevice.heap());
+        RamBlockDevice second = RamBlockDevice.heap();
+        FAT fat = new FAT();
+        assertOk(fat.createDisk(second, DiskCreationParams.small()));
+        assertOk(fat.createDisk(first, DiskCreationParams.small()));
+
+        byte[] data = new byte[10000];
+        Arrays.fill(data, MARKER);
+        Path host = Files.write(dir.resolve("host.bin"), data);
+
+        ExecutorService threads = Executors.newFixedThreadPool(2);
+        try {
+            Future<OperationResult> copy = threads.submit(() -> fat.copyFileFromSystem(host.toString(), "/COPIED.BIN"));
+            assertTrue(first.blocked.await(10, TimeUnit.SECONDS), "copy did not reach its data write");
+
+            Future<OperationResult> reopen = threads.submit(() -> {
+                OperationResult closed = fat.close();
+                return closed.isOk ? fat.openDisk(second, DiskOpenParams.standard()) : closed;
+            });
+            assertThrows(TimeoutException.class, () -> reopen.get(200, TimeUnit.MILLISECONDS));
+
+            first.release.countDown();
+            assertOk(copy.get(10, TimeUnit.SECONDS));
+            assertOk(reopen.get(10, TimeUnit.SECONDS));
+        } finally {
+            first.release.countDown();
+            threads.shutdownNow();
+        }
+
+        assertFalse(fat.cat("/COPIED.BIN").isOk);
+        assertTrue(fat.check(false).isClean());
+        assertOk(fat.openDisk(first, DiskOpenParams.standard()));
+        assertTrue(fat.cat("/COPIED.BIN").isOk);
+        assertTrue(fat.check(false).isClean());
+        assertOk(fat.close());
+    }
+
+    @Test
+    void defragmentMovesDirectories() throws Exception {
+        Path host = Files.write(dir.resolve("one.bin"), new byte[100]);
+        FAT fat = new FAT();
+        assertOk(fat.createDisk(RamBlockDevice.heap(), DiskCreationParams.medium()));
+        assertOk(fat.mkDir("/D1"));
+        assertOk(fat.mkDir("/D1/SUB"));
+        assertOk(fat.copyFileFromSystem(host.toString(), "/D1/SUB/IN.BIN"));
+        assertOk(fat.mkDir("/D2"));
+        // the directories grow in turns, so their chains interleave
+        for (int i = 0; i < 300; i++) {
+            assertOk(fat.copyFileFromSystem(host.toString(), "/D1/F" + i + ".BIN"));
+            assertOk(fat.copyFileFromSystem(host.toString(), "/D2/F" + i + ".BIN"));
+        }
+        FragmentationReport before = fat.getFragmentationReport();
+        assertTrue(before.getFiles().stream().anyMatch(f -> f.isDir && f.isFragmented()));
+
+        assertOk(fat.defragment(DefragmentBudget.unlimited()));
+
+        FragmentationReport after = fat.getFragmentationReport();
+        assertEquals(0, after.getFragmentation());
+        assertEquals(before.getFiles().size(), after.getFiles().size());
+        assertTrue(fat.check(false).isClean());
+        FATDirectory d1 = fat.listDir("/D1");
+        assertEquals(d1.getSelfDirCluster(), fat.listDir("/D1/SUB").getParentDirCluster());
+        assertEquals(fat.listDir("/").getSelfDirCluster(), d1.getParentDirCluster());
+        assertTrue(fat.cat("/D1/SUB/IN.BIN").isOk);
+        assertTrue(fat.cat("/D2/F299.BIN").isOk);
+        assertOk(fat.close());
+    }
+
+    static void assertOk(OperationResult result) {
+        assertTrue(result.isOk, () -> result.message + (result.error != null ? ": " + result.error : ""));
+    }
+
+    /**
+     * Blocks the first write of a {@link #MARKER} filled buffer until released.
+     */
+    private static class GatedDevice implements BlockDevice {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        private final BlockDevice device;
+
+        GatedDevice(BlockDevice device) {
+            this.device = device;
+        }
+
+        @Override
+        public void read(long position, ByteBuffer dst) throws IOException {
+            device.read(position, dst);
+        }
+
+        @Override
+        public void write(long position, ByteBuffer src) throws IOException {
+            if (src.hasRemaining() && src.get(src.position()) == MARKER && blocked.getCount() > 0) {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            device.write(position, src);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            device.flush();
+        }
+
+        @Override
+        public long size() throws IOException {
+            return device.size();
+        }
+
+        @Override
+        public void setSize(long size) throws IOException {
+            device.setSize(size);
+        }
+
+        @Override
+        public void close() throws IOException {
+            device.close();
+        }
+    }
+}